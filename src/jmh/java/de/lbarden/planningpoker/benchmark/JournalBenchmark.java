@@ -0,0 +1,140 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.persistence.JournalService;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Votes through RoomService in memory and with the journal enabled, across 100 rooms of 10 players on
+ * one thread. castVote measures the hot path, which only queues the journal record; castVotesDurably
+ * also waits until the writer thread has forced the last vote of its batch to disk. The teardown
+ * prints the bytes per record and the fsync batches of the trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    private static final int ROOMS = 100;
+    private static final int PLAYERS = 10;
+    private static final int BATCH = 500_000;
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13"};
+
+    @Param({"in-memory", "journal"})
+    String mode;
+
+    private RoomService roomService;
+    private JournalService journal;
+    private Path directory;
+    private Room[] rooms;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        roomService = new RoomService();
+        if (mode.equals("journal")) {
+            directory = Files.createTempDirectory("journal-benchmark");
+            journal = new JournalService();
+            ReflectionTestUtils.setField(journal, "directory", directory.toString());
+            ReflectionTestUtils.setField(journal, "roomDispatcher", new RoomDispatcher(Runnable::run));
+            // Compaction is part of the journal's cost, so it runs as configured by default
+            ReflectionTestUtils.setField(roomService, "journal", journal);
+            ObjectProvider<RoomService> provider = mock(ObjectProvider.class);
+            when(provider.getObject()).thenReturn(roomService);
+            ReflectionTestUtils.setField(journal, "roomService", provider);
+            journal.open();
+            roomService.restore();
+        }
+        ReflectionTestUtils.setField(roomService, "maxRooms", ROOMS * 2);
+        rooms = new Room[ROOMS];
+        for (int i = 0; i < ROOMS; i++) {
+            rooms[i] = roomService.createRoom("Benchmark " + i);
+            for (int p = 0; p < PLAYERS; p++) {
+                roomService.addPlayer(rooms[i], new Player("player-" + p, "Player Name " + p));
+            }
+        }
+    }
+
+    // The writer catches up between iterations, so a backlog does not carry over into the next one
+    @TearDown(Level.Iteration)
+    public void catchUp() throws Exception {
+        waitUntilWritten();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (journal == null) {
+            return;
+        }
+        waitUntilWritten();
+        System.out.printf("%n%.1f bytes/record, %d fsync batches, %d segments, %d compactions%n",
+                (double) journal.getBytesWritten() / journal.getRecordsWritten(), journal.getBatchesForced(),
+                journal.getSegmentCount(), journal.getCompactions());
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Room castVote() {
+        return vote();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void castVotesDurably() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            vote();
+        }
+        waitUntilWritten();
+    }
+
+    private Room vote() {
+        int i = next++;
+        Room room = rooms[i % ROOMS];
+        roomService.updatePlayerCard(room, "player-" + (i / ROOMS) % PLAYERS, CARDS[(i / (ROOMS * PLAYERS)) % CARDS.length]);
+        return room;
+    }
+
+    // Written records are forced by the same flush, which a final flush() waits for
+    private void waitUntilWritten() throws Exception {
+        if (journal == null) {
+            return;
+        }
+        while (journal.getRecordsWritten() < journal.getRecordsAppended()) {
+            Thread.sleep(1);
+        }
+        journal.flush();
+    }
+}
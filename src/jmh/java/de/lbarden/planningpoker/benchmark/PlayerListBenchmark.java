@@ -0,0 +1,86 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room.getPlayerList read while players join and leave. One thread plays the room worker, the only
+ * writer a room has; the others read the list as the broadcasts and stats endpoint do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerListBenchmark {
+
+    @State(Scope.Group)
+    public static class SharedRoom {
+        @Param({"10", "100", "1000"})
+        int players;
+
+        Room room;
+        Player churning;
+        boolean joined;
+
+        @Setup
+        public void setUp() {
+            room = new Room("room", "Player list room");
+            for (int i = 0; i < players; i++) {
+                room.addPlayer("player-" + i, new Player("player-" + i, "Player " + i));
+            }
+            churning = new Player("churning", "Churning player");
+        }
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public Room joinOrLeave(SharedRoom state) {
+        if (state.joined) {
+            state.room.removePlayer(state.churning.getId());
+        } else {
+            state.room.addPlayer(state.churning.getId(), state.churning);
+        }
+        state.joined = !state.joined;
+        return state.room;
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public int readPlayerList(SharedRoom state) {
+        return visit(state.room);
+    }
+
+    // The same read without a writer, as a baseline
+    @Benchmark
+    @Group("quiet")
+    @GroupThreads(1)
+    public int readPlayerListWithoutChurn(SharedRoom state) {
+        return visit(state.room);
+    }
+
+    private static int visit(Room room) {
+        int length = 0;
+        for (Player player : room.getPlayerList()) {
+            length += player.getName().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,80 @@
+package de.lbarden.planningpoker.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson encoding of a room snapshot, built the way RoomBroadcaster builds it, before and after
+ * the reveal. WireFormatBenchmark compares the JSON against the compact encoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PokerMessageSerializationBenchmark {
+
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13", "?"};
+
+    @Param({"10", "100", "1000"})
+    int players;
+
+    @Param({"false", "true"})
+    boolean revealed;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Room room;
+    private PokerMessage snapshot;
+
+    @Setup
+    public void setUp() {
+        room = new Room("room", "Serialization room");
+        for (int i = 0; i < players; i++) {
+            String id = "player-" + i;
+            room.addPlayer(id, new Player(id, "Player Name " + i));
+            room.playCard(id, CARDS[i % CARDS.length]);
+        }
+        room.setRevealed(revealed);
+        snapshot = snapshot(room);
+    }
+
+    @Benchmark
+    public byte[] serializeSnapshot() throws Exception {
+        return objectMapper.writeValueAsBytes(snapshot);
+    }
+
+    // Includes collecting the player states and vote statistics, as a broadcast after a mutation does
+    @Benchmark
+    public byte[] buildAndSerializeSnapshot() throws Exception {
+        return objectMapper.writeValueAsBytes(snapshot(room));
+    }
+
+    private static PokerMessage snapshot(Room room) {
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.UPDATE);
+        message.setRoomId(room.getId());
+        message.setVersion(room.getVersion());
+        message.setPlayers(room.getPlayerStates());
+        message.setRevealed(room.isRevealed());
+        message.setReset(room.isReset());
+        message.setStats(room.getVoteStats());
+        return message;
+    }
+}
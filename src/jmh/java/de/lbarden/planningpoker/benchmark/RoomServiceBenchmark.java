@@ -0,0 +1,148 @@
+package de.lbarden.planningpoker.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room registry operations on a RoomService without Spring, journal or cluster. Logging is turned
+ * down to errors, so eviction measures the registry rather than the console.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomServiceBenchmark {
+
+    private static final int MAX_ROOMS = 10_000;
+
+    @State(Scope.Thread)
+    public static class FullRegistry {
+        RoomService roomService;
+
+        @Setup
+        public void setUp() {
+            roomService = newRoomService(MAX_ROOMS);
+            for (int i = 0; i < MAX_ROOMS; i++) {
+                roomService.createRoom("Room " + i);
+            }
+        }
+    }
+
+    // One room short of the limit; every benchmark call removes the room it created
+    @State(Scope.Thread)
+    public static class AlmostFullRegistry {
+        RoomService roomService;
+
+        @Setup
+        public void setUp() {
+            roomService = newRoomService(MAX_ROOMS);
+            for (int i = 0; i < MAX_ROOMS - 1; i++) {
+                roomService.createRoom("Room " + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lookup {
+        @Param({"1000", "100000"})
+        int rooms;
+
+        RoomService roomService;
+        String[] ids;
+        int next;
+
+        @Setup
+        public void setUp() {
+            roomService = newRoomService(rooms);
+            List<String> created = new ArrayList<>(rooms);
+            for (int i = 0; i < rooms; i++) {
+                created.add(roomService.createRoom("Room " + i).getId());
+            }
+            // Looked up in random order, so the benchmark does not walk the map in insertion order
+            Collections.shuffle(created, new Random(42));
+            ids = created.toArray(new String[0]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LargeRoom {
+        @Param({"10", "100", "1000"})
+        int players;
+
+        RoomService roomService;
+        Room room;
+
+        @Setup
+        public void setUp() {
+            roomService = newRoomService(MAX_ROOMS);
+            room = roomService.createRoom("Large room");
+            for (int i = 0; i < players; i++) {
+                roomService.addPlayer(room, new Player("player-" + i, "Player " + i));
+                roomService.updatePlayerCard(room, "player-" + i, "5");
+            }
+        }
+    }
+
+    @Benchmark
+    public Room createRoomAtLimit(FullRegistry state) {
+        // Evicts the least recently active room first
+        return state.roomService.createRoom("New room");
+    }
+
+    @Benchmark
+    public Room createRoomBelowLimit(AlmostFullRegistry state) {
+        Room room = state.roomService.createRoom("New room");
+        // Removing the last player of a room removes the room, which keeps the registry below the limit
+        state.roomService.removePlayer(room, "nobody");
+        return room;
+    }
+
+    @Benchmark
+    public Room getRoom(Lookup state) {
+        String id = state.ids[state.next];
+        state.next = (state.next + 1) % state.ids.length;
+        return state.roomService.getRoom(id);
+    }
+
+    @Benchmark
+    public Room getMissingRoom(Lookup state) {
+        return state.roomService.getRoom("no-such-room");
+    }
+
+    // Clearing the cards costs the same whether or not anybody voted, so the votes are cast only once
+    @Benchmark
+    public Room resetRoom(LargeRoom state) {
+        state.roomService.resetRoom(state.room);
+        return state.room;
+    }
+
+    private static RoomService newRoomService(int maxRooms) {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.ERROR);
+        RoomService roomService = new RoomService();
+        ReflectionTestUtils.setField(roomService, "maxRooms", maxRooms);
+        return roomService;
+    }
+}
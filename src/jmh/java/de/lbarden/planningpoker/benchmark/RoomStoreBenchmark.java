@@ -0,0 +1,149 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.persistence.FileRoomStore;
+import de.lbarden.planningpoker.persistence.HeapRoomStore;
+import de.lbarden.planningpoker.persistence.OffHeapRoomStore;
+import de.lbarden.planningpoker.persistence.PassivatingRoomStore;
+import de.lbarden.planningpoker.persistence.RoomStore;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Votes through RoomService on each RoomStore, filled with 200k rooms of 5 players who have all voted:
+ * into random rooms of a hot set of 5k, which fits the 10k resident rooms of the passivating stores, and
+ * into random rooms of all 200k. The setup prints the heap and buffer memory the rooms take, the
+ * teardown the activations of the trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Thread)
+public class RoomStoreBenchmark {
+
+    private static final int ROOMS = 200_000;
+    private static final int PLAYERS = 5;
+    private static final int RESIDENT_ROOMS = 10_000;
+    private static final int HOT_ROOMS = 5_000;
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13", "?"};
+
+    @Param({"heap", "off-heap", "file"})
+    String store;
+
+    private final Random random = new Random(42);
+    private RoomStore rooms;
+    private Path directory;
+    private RoomService roomService;
+    private Room[] created;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (store) {
+            case "heap" -> rooms = new HeapRoomStore();
+            case "off-heap" -> rooms = passivating(new OffHeapRoomStore());
+            default -> {
+                directory = Files.createTempDirectory("room-store-benchmark");
+                FileRoomStore fileStore = new FileRoomStore();
+                ReflectionTestUtils.setField(fileStore, "directory", directory.toString());
+                fileStore.open();
+                rooms = passivating(fileStore);
+            }
+        }
+        long heapBefore = usedHeap();
+        roomService = new RoomService();
+        ReflectionTestUtils.setField(roomService, "rooms", rooms);
+        ReflectionTestUtils.setField(roomService, "maxRooms", ROOMS);
+        created = new Room[ROOMS];
+        for (int i = 0; i < ROOMS; i++) {
+            created[i] = roomService.createRoom("Benchmark room " + i);
+            for (int p = 0; p < PLAYERS; p++) {
+                String id = "player-" + i + "-" + p;
+                roomService.addPlayer(created[i], new Player(id, "Player Name " + p));
+                roomService.updatePlayerCard(created[i], id, CARDS[(i + p) % CARDS.length]);
+            }
+        }
+        System.out.printf("%n%s store: %.1f MB heap, %.1f MB buffers%n", store,
+                (usedHeap() - heapBefore) / 1048576.0, bufferMemory() / 1048576.0);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (rooms instanceof PassivatingRoomStore passivating) {
+            System.out.printf("%n%s store: %d activations%n", store, passivating.getActivations());
+            passivating.close();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Room voteHotRooms() {
+        return vote(HOT_ROOMS);
+    }
+
+    @Benchmark
+    public Room voteAllRooms() {
+        return vote(ROOMS);
+    }
+
+    // Votes in a random room among the first roomCount rooms
+    private Room vote(int roomCount) {
+        int index = random.nextInt(roomCount);
+        Room room = created[index];
+        roomService.updatePlayerCard(room, "player-" + index + "-" + random.nextInt(PLAYERS),
+                CARDS[next++ % CARDS.length]);
+        return room;
+    }
+
+    // Passivation runs inline: the benchmark calls RoomService directly instead of through mailboxes
+    private static PassivatingRoomStore passivating(PassivatingRoomStore store) {
+        ReflectionTestUtils.setField(store, "residentRooms", RESIDENT_ROOMS);
+        ReflectionTestUtils.setField(store, "passivator", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(store, "roomDispatcher", new RoomDispatcher(Runnable::run));
+        return store;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long bufferMemory() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+}
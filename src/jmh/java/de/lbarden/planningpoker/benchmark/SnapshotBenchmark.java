@@ -0,0 +1,107 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.persistence.SnapshotService;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Writes a snapshot of 50k rooms of 8 players who have all voted, and restores it into a fresh
+ * RoomService. Both run as single shots, because a restart restores once; the first warm-up shot is
+ * the one closest to a restart. The setup prints the size of the snapshot.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private static final int ROOMS = 50_000;
+    private static final int PLAYERS = 8;
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13", "?"};
+
+    private Path directory;
+    private Path file;
+    private RoomDispatcher dispatcher;
+    private SnapshotService writer;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("snapshot-benchmark");
+        file = directory.resolve("rooms.snapshot");
+        // Rooms are captured on the real worker pool, as in the application
+        dispatcher = new RoomDispatcher();
+        RoomService roomService = newRoomService();
+        ReflectionTestUtils.setField(roomService, "maxRooms", ROOMS);
+        for (int i = 0; i < ROOMS; i++) {
+            Room room = roomService.createRoom("Benchmark room " + i);
+            for (int p = 0; p < PLAYERS; p++) {
+                String id = "player-" + i + "-" + p;
+                roomService.addPlayer(room, new Player(id, "Player Name " + p));
+                roomService.updatePlayerCard(room, id, CARDS[(i + p) % CARDS.length]);
+            }
+        }
+        writer = snapshots(roomService);
+        // Gives restore a file to read
+        writer.snapshot();
+        SnapshotService.Stats written = writer.getLastSnapshot();
+        System.out.printf("%nSnapshot of %d rooms: %d bytes%n", written.rooms(), written.bytes());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dispatcher.shutdown();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public boolean write() throws Exception {
+        return writer.snapshot();
+    }
+
+    @Benchmark
+    public RoomService restore() throws Exception {
+        return newRoomService();
+    }
+
+    @SuppressWarnings("unchecked")
+    private RoomService newRoomService() throws Exception {
+        SnapshotService snapshots = new SnapshotService();
+        ReflectionTestUtils.setField(snapshots, "file", file.toString());
+        ReflectionTestUtils.setField(snapshots, "roomDispatcher", dispatcher);
+        RoomService roomService = new RoomService();
+        ReflectionTestUtils.setField(roomService, "snapshots", snapshots);
+        ObjectProvider<RoomService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(roomService);
+        ReflectionTestUtils.setField(snapshots, "roomService", provider);
+        roomService.restore();
+        return roomService;
+    }
+
+    private static SnapshotService snapshots(RoomService roomService) {
+        return (SnapshotService) ReflectionTestUtils.getField(roomService, "snapshots");
+    }
+}
@@ -0,0 +1,112 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.websocket.RoomSubscriptionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one room broadcast in the simple broker as the number of live rooms grows, with Spring's
+ * DefaultSubscriptionRegistry and with RoomSubscriptionRegistry. Every room has the same number of
+ * subscribers, and broadcasts go to rooms drawn at random, so the default registry's destination cache
+ * of 1024 entries covers all rooms only in the smallest setup. The outbound channel drops the frames.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Thread)
+public class SubscriptionRegistryBenchmark {
+
+    private static final int SUBSCRIBERS_PER_ROOM = 4;
+    // Broadcasts cycled through; more destinations than the default registry caches
+    private static final int BROADCASTS = 1 << 16;
+
+    @Param({"100", "10000", "100000"})
+    int rooms;
+
+    @Param({"default", "room"})
+    String registry;
+
+    private SimpleBrokerMessageHandler broker;
+    private SubscriptionRegistry subscriptions;
+    private Message<?>[] broadcasts;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        subscriptions = registry.equals("room") ? new RoomSubscriptionRegistry() : new DefaultSubscriptionRegistry();
+        broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), (message, timeout) -> true,
+                new ExecutorSubscribableChannel(), List.of("/topic", "/queue"));
+        broker.setSubscriptionRegistry(subscriptions);
+        broker.start();
+
+        for (int room = 0; room < rooms; room++) {
+            for (int i = 0; i < SUBSCRIBERS_PER_ROOM; i++) {
+                String sessionId = room + "-" + i;
+                broker.handleMessage(message(SimpMessageType.CONNECT, sessionId, null));
+                broker.handleMessage(message(SimpMessageType.SUBSCRIBE, sessionId, "/topic/room/room-" + room));
+            }
+        }
+
+        Random random = new Random(42);
+        broadcasts = new Message<?>[BROADCASTS];
+        for (int i = 0; i < BROADCASTS; i++) {
+            broadcasts[i] = message(SimpMessageType.MESSAGE, null, "/topic/room/room-" + random.nextInt(rooms));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        broker.stop();
+    }
+
+    // The lookup alone, as made once per broadcast
+    @Benchmark
+    public MultiValueMap<String, String> findSubscriptions() {
+        return subscriptions.findSubscriptions(nextBroadcast());
+    }
+
+    // Lookup plus copying the message for each of the room's subscribers
+    @Benchmark
+    public void broadcast() {
+        broker.handleMessage(nextBroadcast());
+    }
+
+    private Message<?> nextBroadcast() {
+        return broadcasts[next++ & (BROADCASTS - 1)];
+    }
+
+    private static Message<byte[]> message(SimpMessageType type, String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        if (type == SimpMessageType.SUBSCRIBE) {
+            accessor.setSubscriptionId("sub-0");
+        }
+        return MessageBuilder.createMessage(new byte[16], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,105 @@
+package de.lbarden.planningpoker.benchmark;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Votes cast from several threads at once, the way the inbound channel threads hand them to the room
+ * mailboxes: each call dispatches updatePlayerCard and waits until the room worker has run it.
+ * With one room every thread contends for the same mailbox; with a room per thread they only share
+ * the worker pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoteContentionBenchmark {
+
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13", "?"};
+    private static final int THREADS = 4;
+
+    @State(Scope.Benchmark)
+    public static class Rooms {
+        @Param({"1", "4"})
+        int rooms;
+
+        RoomService roomService;
+        RoomDispatcher dispatcher;
+        Room[] roomsByThread;
+        final AtomicInteger nextThread = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            roomService = new RoomService();
+            // The application's worker pool
+            dispatcher = new RoomDispatcher();
+            Room[] created = new Room[rooms];
+            for (int i = 0; i < rooms; i++) {
+                created[i] = roomService.createRoom("Room " + i);
+            }
+            // Every thread votes as a player of its own, added here as the rooms have a single writer
+            roomsByThread = new Room[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                roomsByThread[i] = created[i % rooms];
+                roomService.addPlayer(roomsByThread[i], new Player("player-" + i, "Player " + i));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            dispatcher.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Voter {
+        Room room;
+        String playerId;
+        int next;
+
+        @Setup
+        public void setUp(Rooms rooms) {
+            int thread = rooms.nextThread.getAndIncrement();
+            room = rooms.roomsByThread[thread % THREADS];
+            playerId = "player-" + thread % THREADS;
+        }
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public boolean voteThroughMailbox(Rooms rooms, Voter voter) {
+        String card = CARDS[voter.next++ % CARDS.length];
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        rooms.dispatcher.dispatch(voter.room,
+                () -> done.complete(rooms.roomService.updatePlayerCard(voter.room, voter.playerId, card)));
+        return done.join();
+    }
+
+    // The vote itself, as the room worker runs it, for comparison with the dispatch round trip
+    @Benchmark
+    @Threads(1)
+    public boolean voteOnWorker(Rooms rooms, Voter voter) {
+        String card = CARDS[voter.next++ % CARDS.length];
+        return rooms.roomService.updatePlayerCard(voter.room, voter.playerId, card);
+    }
+}
@@ -0,0 +1,110 @@
+package de.lbarden.planningpoker.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.CompactMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode time of the JSON and the compact wire format, for a room snapshot and a vote delta. The
+ * payload sizes do not change between runs, so the setup prints them once per parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+
+    private static final String[] CARDS = {"1", "2", "3", "5", "8", "13"};
+
+    @Param({"5", "20", "100"})
+    int players;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Room room;
+    private PokerMessage snapshot;
+    private PokerMessage vote;
+
+    @Setup
+    public void setUp() throws Exception {
+        room = new Room(UUID.randomUUID().toString(), "Benchmark");
+        for (int i = 0; i < players; i++) {
+            String id = "player-" + (100_000 + i);
+            room.addPlayer(id, new Player(id, "Player Name " + i));
+            room.playCard(id, CARDS[i % CARDS.length]);
+        }
+        room.setVersion(1234);
+        snapshot = snapshot(room);
+        vote = vote(room, "player-" + (100_000 + players - 1));
+
+        System.out.printf("%n%d players: snapshot %s, vote delta %s%n", players,
+                sizes(objectMapper.writeValueAsBytes(snapshot), CompactMessageCodec.encodeSnapshot(room)),
+                sizes(objectMapper.writeValueAsBytes(vote), CompactMessageCodec.encodeDelta(room, vote)));
+    }
+
+    @Benchmark
+    public byte[] jsonSnapshot() throws Exception {
+        return objectMapper.writeValueAsBytes(snapshot);
+    }
+
+    @Benchmark
+    public byte[] compactSnapshot() {
+        return CompactMessageCodec.encodeSnapshot(room);
+    }
+
+    @Benchmark
+    public byte[] jsonVoteDelta() throws Exception {
+        return objectMapper.writeValueAsBytes(vote);
+    }
+
+    @Benchmark
+    public byte[] compactVoteDelta() {
+        return CompactMessageCodec.encodeDelta(room, vote);
+    }
+
+    // SockJS only carries text frames, so the compact bytes travel base64 encoded
+    private static String sizes(byte[] json, byte[] compact) {
+        return String.format("%d B JSON, %d B compact, %d B base64", json.length, compact.length,
+                Base64.getEncoder().encode(compact).length);
+    }
+
+    private static PokerMessage snapshot(Room room) {
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.UPDATE);
+        message.setRoomId(room.getId());
+        message.setVersion(room.getVersion());
+        message.setPlayers(room.getPlayerStates());
+        message.setRevealed(room.isRevealed());
+        message.setReset(room.isReset());
+        return message;
+    }
+
+    private static PokerMessage vote(Room room, String playerId) {
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.PLAYER_VOTED);
+        message.setRoomId(room.getId());
+        message.setPlayerId(playerId);
+        message.setCard("8");
+        message.setVersion(room.getVersion() + 1);
+        return message;
+    }
+}
@@ -0,0 +1,273 @@
+package de.lbarden.planningpoker.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomService;
+import de.lbarden.planningpoker.service.WireFormatNegotiator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Lets several nodes serve the same rooms. Every room lives on exactly one node, its owner, picked by
+ * consistent hashing of the room ID over planningpoker.cluster.members:
+ * <ul>
+ * <li>Client messages for a room owned by another node are forwarded to the owner, which handles them
+ * on the room's mailbox like local messages.</li>
+ * <li>Registered on the broker channel, so every room message the owner sends to its broker (topic
+ * broadcasts and resyncs to user destinations) is repeated on the brokers of all other nodes, which
+ * deliver it to their own subscribers.</li>
+ * </ul>
+ * New room IDs are drawn until the creating node owns them, so a room is created where it lives.
+ * Membership is static; rooms are not moved when it changes.
+ */
+@Service
+@ConditionalOnProperty(name = "planningpoker.cluster.enabled", havingValue = "true")
+public class ClusterEventBus implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterEventBus.class);
+
+    // Marks messages received from another node, so they are not published again
+    public static final String ORIGIN_HEADER = "clusterOrigin";
+
+    private static final String ROOM_TOPIC = "/topic/room/";
+
+    @Value("${planningpoker.cluster.node-id:node-1}")
+    private String nodeId = "node-1";
+
+    @Value("${planningpoker.cluster.members:node-1}")
+    private List<String> members = List.of("node-1");
+
+    @Value("${planningpoker.cluster.virtual-nodes:128}")
+    private int virtualNodes = 128;
+
+    @Value("${planningpoker.cluster.request-timeout-ms:2000}")
+    private long requestTimeoutMs = 2000;
+
+    @Autowired
+    private ClusterTransport transport;
+
+    // The messaging template and the rooms are created after the broker channel this is registered on
+    @Autowired
+    private ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+
+    @Autowired
+    private ObjectProvider<RoomService> roomService;
+
+    @Autowired(required = false)
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    private ConsistentHashRing ring;
+
+    // Set by PokerController: handles a forwarded client message with the ID of the session that sent it
+    private volatile BiConsumer<PokerMessage, String> mutationHandler;
+
+    // Set by PresenceTracker: handles the end of a session that joined a room owned by this node
+    private volatile Consumer<String> sessionClosedHandler;
+
+    private final AtomicLong mutationsForwarded = new AtomicLong();
+    private final AtomicLong mutationsReceived = new AtomicLong();
+    private final AtomicLong broadcastsPublished = new AtomicLong();
+    private final AtomicLong broadcastsReceived = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        List<String> nodes = members.stream().map(String::trim).filter(member -> !member.isEmpty()).toList();
+        if (!nodes.contains(nodeId)) {
+            throw new IllegalStateException("Node " + nodeId + " is not one of the cluster members " + nodes);
+        }
+        ring = new ConsistentHashRing(nodes, virtualNodes);
+        transport.start(nodeId, this::receive);
+        logger.info("Node {} joined cluster of {}", nodeId, nodes);
+    }
+
+    @PreDestroy
+    public void stop() {
+        transport.stop();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String ownerOf(String roomId) {
+        return ring.ownerOf(roomId);
+    }
+
+    public boolean isLocal(String roomId) {
+        return nodeId.equals(ring.ownerOf(roomId));
+    }
+
+    // Takes as many tries as there are nodes on average
+    public String newRoomId() {
+        String id;
+        do {
+            id = UUID.randomUUID().toString();
+        } while (!isLocal(id));
+        return id;
+    }
+
+    public void setMutationHandler(BiConsumer<PokerMessage, String> mutationHandler) {
+        this.mutationHandler = mutationHandler;
+    }
+
+    public void setSessionClosedHandler(Consumer<String> sessionClosedHandler) {
+        this.sessionClosedHandler = sessionClosedHandler;
+    }
+
+    // Hands a client message to the node that owns its room
+    public void forward(PokerMessage message, String sessionId) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode message for room " + message.getRoomId(), e);
+        }
+        mutationsForwarded.incrementAndGet();
+        transport.send(ownerOf(message.getRoomId()),
+                new ClusterMessage(ClusterMessage.Type.MUTATION, nodeId, message.getRoomId(), sessionId, payload, null));
+    }
+
+    // Tells the owner of a room that a session of this node which joined it has ended
+    public void forwardSessionClosed(String roomId, String sessionId) {
+        transport.send(ownerOf(roomId),
+                new ClusterMessage(ClusterMessage.Type.SESSION_CLOSED, nodeId, roomId, sessionId, null, null));
+    }
+
+    // Name of a room owned by another node, or null if it does not exist there or cannot be asked
+    public String lookupRoomName(String roomId) {
+        String owner = ownerOf(roomId);
+        if (owner.equals(nodeId)) {
+            return null;
+        }
+        try {
+            ClusterMessage answer = transport.request(owner,
+                            new ClusterMessage(ClusterMessage.Type.ROOM_QUERY, nodeId, roomId, null, null, null))
+                    .get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+            return answer == null || answer.payload() == null
+                    ? null : new String(answer.payload(), StandardCharsets.UTF_8);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Could not look up room {} on node {}: {}", roomId, owner, e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Broker channel: repeats room messages of this node on all other nodes
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || headers.containsKey(ORIGIN_HEADER)
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !(destination.startsWith(ROOM_TOPIC)
+                || destination.startsWith(messagingTemplate.getObject().getUserDestinationPrefix()))) {
+            return message;
+        }
+        byte[] compact = headers.get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER) instanceof byte[] bytes ? bytes : null;
+        broadcastsPublished.incrementAndGet();
+        transport.publish(new ClusterMessage(ClusterMessage.Type.BROADCAST, nodeId, destination,
+                SimpMessageHeaderAccessor.getSessionId(headers), payload, compact));
+        return message;
+    }
+
+    public long getMutationsForwarded() {
+        return mutationsForwarded.get();
+    }
+
+    public long getMutationsReceived() {
+        return mutationsReceived.get();
+    }
+
+    public long getBroadcastsPublished() {
+        return broadcastsPublished.get();
+    }
+
+    public long getBroadcastsReceived() {
+        return broadcastsReceived.get();
+    }
+
+    private ClusterMessage receive(ClusterMessage message) {
+        switch (message.type()) {
+            case MUTATION -> receiveMutation(message);
+            case BROADCAST -> receiveBroadcast(message);
+            case SESSION_CLOSED -> {
+                Consumer<String> handler = sessionClosedHandler;
+                if (handler != null) {
+                    handler.accept(message.sessionId());
+                }
+            }
+            case ROOM_QUERY -> {
+                Room room = roomService.getObject().getRoom(message.destination());
+                byte[] name = room == null ? null : room.getName().getBytes(StandardCharsets.UTF_8);
+                return new ClusterMessage(ClusterMessage.Type.ROOM_INFO, nodeId, message.destination(), null, name, null);
+            }
+            default -> logger.warn("Unexpected cluster message {} from node {}", message.type(), message.source());
+        }
+        return null;
+    }
+
+    private void receiveMutation(ClusterMessage message) {
+        mutationsReceived.incrementAndGet();
+        BiConsumer<PokerMessage, String> handler = mutationHandler;
+        if (handler == null) {
+            logger.warn("Dropped message for room {} from node {}: not ready", message.destination(), message.source());
+            return;
+        }
+        try {
+            handler.accept(objectMapper.readValue(message.payload(), PokerMessage.class), message.sessionId());
+        } catch (IOException e) {
+            logger.warn("Could not decode message for room {} from node {}: {}",
+                    message.destination(), message.source(), e.getMessage());
+        }
+    }
+
+    // Sent to the local broker like the owner's original, which reaches this node's subscribers
+    private void receiveBroadcast(ClusterMessage message) {
+        broadcastsReceived.incrementAndGet();
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headers.setHeader(ORIGIN_HEADER, message.source());
+        if (message.sessionId() != null) {
+            headers.setSessionId(message.sessionId());
+        }
+        if (message.compactPayload() != null) {
+            headers.setHeader(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER, message.compactPayload());
+        }
+        headers.setLeaveMutable(true);
+        messagingTemplate.getObject().send(message.destination(),
+                MessageBuilder.createMessage(message.payload(), headers.getMessageHeaders()));
+    }
+}
@@ -0,0 +1,105 @@
+package de.lbarden.planningpoker.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message exchanged between nodes. Transports carry it in the binary form below, so nothing is shared
+ * between nodes even when they run in the same JVM.
+ * <pre>
+ * message = type:u8 source:string destination:string sessionId:string payload:bytes compactPayload:bytes
+ * string  = bytes of its UTF-8 encoding
+ * bytes   = length:i32 (-1 for null), data
+ * </pre>
+ *
+ * @param type           what the receiver should do with the message
+ * @param source         node ID of the sender
+ * @param destination    room ID (MUTATION, ROOM_QUERY, SESSION_CLOSED) or STOMP destination (BROADCAST)
+ * @param sessionId      STOMP session the message came from (MUTATION, SESSION_CLOSED) or is addressed
+ *                       to (BROADCAST)
+ * @param payload        JSON message (MUTATION, BROADCAST) or room name (ROOM_INFO, null if unknown)
+ * @param compactPayload compact encoding of a BROADCAST, if the sender produced one
+ */
+public record ClusterMessage(Type type, String source, String destination, String sessionId,
+                             byte[] payload, byte[] compactPayload) {
+
+    public enum Type {
+        // Client message for a room, sent to the node that owns the room
+        MUTATION,
+        // Message the owner sent to its local broker, repeated on every other node's broker
+        BROADCAST,
+        // Asks the owner for a room's name; answered with ROOM_INFO
+        ROOM_QUERY,
+        ROOM_INFO,
+        // A session that joined a room owned by the receiver has ended on the sender
+        SESSION_CLOSED
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + length(payload) + length(compactPayload));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type.ordinal());
+            writeBytes(out, utf8(source));
+            writeBytes(out, utf8(destination));
+            writeBytes(out, utf8(sessionId));
+            writeBytes(out, payload);
+            writeBytes(out, compactPayload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ClusterMessage decode(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            int type = in.get();
+            if (type < 0 || type >= Type.values().length) {
+                throw new IllegalArgumentException("Unknown cluster message type: " + type);
+            }
+            return new ClusterMessage(Type.values()[type], string(readBytes(in)), string(readBytes(in)),
+                    string(readBytes(in)), readBytes(in), readBytes(in));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated cluster message", e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
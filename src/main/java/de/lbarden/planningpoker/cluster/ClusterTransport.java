@@ -0,0 +1,25 @@
+package de.lbarden.planningpoker.cluster;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Moves ClusterMessages between the nodes of a cluster. Messages from one node to another are delivered
+ * in the order they were sent.
+ */
+public interface ClusterTransport {
+
+    // Starts delivering the messages addressed to nodeId; the receiver's result answers requests
+    void start(String nodeId, Function<ClusterMessage, ClusterMessage> receiver);
+
+    void stop();
+
+    // Fire and forget; a message to a node that is not reachable is dropped
+    void send(String nodeId, ClusterMessage message);
+
+    // Sends the message to every other node
+    void publish(ClusterMessage message);
+
+    // Completes with the receiver's answer, or exceptionally if the node is not reachable
+    CompletableFuture<ClusterMessage> request(String nodeId, ClusterMessage message);
+}
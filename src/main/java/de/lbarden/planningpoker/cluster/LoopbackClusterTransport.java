@@ -0,0 +1,113 @@
+package de.lbarden.planningpoker.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process transport: nodes started in the same JVM with the same network name reach each other.
+ * Meant for tests and local experiments with several application contexts; a real deployment needs a
+ * transport between processes.
+ * <p>
+ * Messages are encoded and decoded on the way, as on a network, and delivered synchronously on the
+ * sending thread, which keeps them in order per sender.
+ */
+@Component
+@ConditionalOnProperty(name = "planningpoker.cluster.enabled", havingValue = "true")
+public class LoopbackClusterTransport implements ClusterTransport {
+    private static final Logger logger = LoggerFactory.getLogger(LoopbackClusterTransport.class);
+
+    // Network name -> node ID -> receiver of that node
+    private static final Map<String, Map<String, Function<byte[], byte[]>>> NETWORKS = new ConcurrentHashMap<>();
+
+    @Value("${planningpoker.cluster.loopback-network:default}")
+    private String network = "default";
+
+    private String nodeId;
+
+    private final AtomicLong messagesDropped = new AtomicLong();
+
+    @Override
+    public void start(String nodeId, Function<ClusterMessage, ClusterMessage> receiver) {
+        this.nodeId = nodeId;
+        Function<byte[], byte[]> endpoint = data -> {
+            ClusterMessage answer = receiver.apply(ClusterMessage.decode(data));
+            return answer == null ? null : answer.encode();
+        };
+        if (nodes().putIfAbsent(nodeId, endpoint) != null) {
+            throw new IllegalStateException("Node " + nodeId + " already started on loopback network " + network);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (nodeId != null) {
+            nodes().remove(nodeId);
+        }
+    }
+
+    @Override
+    public void send(String target, ClusterMessage message) {
+        Function<byte[], byte[]> endpoint = nodes().get(target);
+        if (endpoint == null) {
+            drop(target);
+            return;
+        }
+        deliver(target, endpoint, message.encode());
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        byte[] data = message.encode();
+        nodes().forEach((target, endpoint) -> {
+            if (!target.equals(nodeId)) {
+                deliver(target, endpoint, data);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ClusterMessage> request(String target, ClusterMessage message) {
+        Function<byte[], byte[]> endpoint = nodes().get(target);
+        if (endpoint == null) {
+            drop(target);
+            return CompletableFuture.failedFuture(new IllegalStateException("Node " + target + " is not reachable"));
+        }
+        try {
+            byte[] answer = endpoint.apply(message.encode());
+            return CompletableFuture.completedFuture(answer == null ? null : ClusterMessage.decode(answer));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public long getMessagesDropped() {
+        return messagesDropped.get();
+    }
+
+    // A failing receiver must not break the sender, as it could not on a real network
+    private void deliver(String target, Function<byte[], byte[]> endpoint, byte[] data) {
+        try {
+            endpoint.apply(data);
+        } catch (RuntimeException e) {
+            logger.warn("Node {} failed to handle a cluster message: {}", target, e.getMessage(), e);
+        }
+    }
+
+    private void drop(String target) {
+        messagesDropped.incrementAndGet();
+        logger.debug("Dropped cluster message for unreachable node {}", target);
+    }
+
+    private Map<String, Function<byte[], byte[]>> nodes() {
+        return NETWORKS.computeIfAbsent(network, name -> new ConcurrentHashMap<>());
+    }
+}
@@ -1,23 +1,137 @@
 package de.lbarden.planningpoker.config;
 
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.metrics.BroadcastMetricsInterceptor;
+import de.lbarden.planningpoker.service.WireFormatNegotiator;
+import de.lbarden.planningpoker.websocket.InboundRateLimiter;
+import de.lbarden.planningpoker.websocket.RoomSubscriptionRegistry;
+import de.lbarden.planningpoker.websocket.SlowConsumerPolicy;
+import de.lbarden.planningpoker.websocket.SpectatorHub;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.config.SimpleBrokerRegistration;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.*;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // Same switch Spring Boot uses for Tomcat and the task scheduler; requires Java 21
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Tracks CONNECT/DISCONNECT inbound and swaps in compact payloads outbound
+    @Autowired
+    private WireFormatNegotiator wireFormatNegotiator;
+
+    // Token buckets per session and room; messages over the limit never reach the controller
+    @Autowired
+    private InboundRateLimiter inboundRateLimiter;
+
+    // Heartbeats in both directions; a client silent for longer than this is disconnected (0 = off)
+    @Value("${planningpoker.websocket.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    // Created by the broker configuration this configurer feeds, hence lazy
+    @Lazy
+    @Autowired
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    // Fan-out and payload sizes of room broadcasts
+    @Autowired
+    private BroadcastMetricsInterceptor broadcastMetricsInterceptor;
+
+    // Per-session outbound queues with conflation and limits for clients that read too slowly
+    @Autowired
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    // Read-only spectator subscriptions, served from shared frames instead of the broker
+    @Autowired
+    private SpectatorHub spectatorHub;
+
+    // Only present when running as a cluster (planningpoker.cluster.enabled)
+    @Autowired(required = false)
+    private ClusterEventBus clusterEventBus;
+
+    // The broker registration has no setting for the registry, so it is swapped before the broker starts.
+    // Static, as post-processors are created before the rest of this configuration
+    @Bean
+    public static BeanPostProcessor roomSubscriptionRegistryInstaller() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler broker) {
+                    broker.setSubscriptionRegistry(new RoomSubscriptionRegistry());
+                }
+                return bean;
+            }
+        };
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable a simple in-memory message broker and set destination prefixes
-        config.enableSimpleBroker("/topic");
+        // Enable a simple in-memory message broker and set destination prefixes.
+        // /queue carries per-session replies such as resync snapshots (/user/queue/room) and own cards (/user/queue/card)
+        SimpleBrokerRegistration broker = config.enableSimpleBroker("/topic", "/queue");
+        if (heartbeatMs > 0) {
+            // Lets the broker close sessions whose client vanished without closing the socket,
+            // which PresenceTracker sees as a disconnect
+            broker.setHeartbeatValue(new long[] {heartbeatMs, heartbeatMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+        }
         config.setApplicationDestinationPrefixes("/app");
+        // Deltas are versioned, so each session must receive them in the order they were published
+        config.setPreservePublishOrder(true);
+        // The broker channel deliberately keeps no executor in either mode: the broker runs on the
+        // publishing room worker, which keeps the order of a room's broadcasts intact
+        config.configureBrokerChannel().interceptors(broadcastMetricsInterceptor, spectatorHub);
+        if (clusterEventBus != null) {
+            // Repeats the room messages sent to this broker on the other nodes
+            config.configureBrokerChannel().interceptors(clusterEventBus);
+        }
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Register the /ws endpoint, enabling SockJS fallback options
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*").withSockJS();
+        // Hand messages of a session to the room mailboxes in the order the client sent them
+        registry.setPreserveReceiveOrder(true);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Spring's own limits only see the frame being handed to the session queue, so they match the policy's
+        registration.setSendTimeLimit((int) slowConsumerPolicy.getSendTimeLimitMs())
+                .setSendBufferSizeLimit(slowConsumerPolicy.getSendBufferLimitBytes())
+                .addDecoratorFactory(slowConsumerPolicy);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Spectator messages other than SYNC are dropped before they take any rate limit tokens
+        registration.interceptors(wireFormatNegotiator, spectatorHub, inboundRateLimiter);
+        // One virtual thread per inbound message instead of the default pool of 2 x cores platform threads
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-inbound-"));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(wireFormatNegotiator);
+        // One virtual thread per outbound message; the socket writes happen on SlowConsumerPolicy's writers
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-outbound-"));
+        }
     }
 }
@@ -1,8 +1,17 @@
 package de.lbarden.planningpoker.controller;
 
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.model.VoteStats;
+import de.lbarden.planningpoker.persistence.JournalService;
+import de.lbarden.planningpoker.persistence.SnapshotService;
+import de.lbarden.planningpoker.service.PresenceTracker;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomExistenceCache;
 import de.lbarden.planningpoker.service.RoomService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -10,18 +19,44 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import jakarta.servlet.http.HttpSession;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 public class HomeController {
-    // Simple in-memory cache to avoid repeated lookups
-    private final ConcurrentMap<String, Boolean> roomExistenceCache = new ConcurrentHashMap<>();
     private static final int MAX_ROOM_NAME_LENGTH = 50;
 
+    // Bounded cache with TTLs to avoid repeated lookups
+    @Autowired
+    private RoomExistenceCache roomExistenceCache;
+
     @Autowired
     private RoomService roomService;
 
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private PresenceTracker presenceTracker;
+
+    // Room state is only read on the room's mailbox
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    // Only present in durability mode
+    @Autowired(required = false)
+    private JournalService journalService;
+
+    // Only present when periodic snapshots are enabled
+    @Autowired(required = false)
+    private SnapshotService snapshotService;
+
+    // Only present when running as a cluster
+    @Autowired(required = false)
+    private ClusterEventBus clusterEventBus;
+
     @GetMapping("/")
     public String index() {
         return "index";
@@ -46,7 +81,7 @@ public class HomeController {
         Room room = roomService.createRoom(roomName);
         
         // Store in existence cache
-        roomExistenceCache.put(room.getId(), Boolean.TRUE);
+        roomExistenceCache.put(room.getId(), true);
         
         // Optionally store roomId in session to track user's rooms
         HttpSession session = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
@@ -65,38 +100,139 @@ public class HomeController {
             return "redirect:/";
         }
         
-        // Cache miss or room might exist - check with the service
+        // Cache miss or room might exist - check with the service, or with the owner in a cluster
         Room room = roomService.getRoom(roomId);
-        if (room == null) {
+        String roomName = room != null ? room.getName() : remoteRoomName(roomId);
+        if (roomName == null) {
             // Update cache to remember this room doesn't exist
-            roomExistenceCache.put(roomId, Boolean.FALSE);
+            roomExistenceCache.put(roomId, false);
             return "redirect:/";
         }
         
         // Update cache if needed
         if (exists == null) {
-            roomExistenceCache.put(roomId, Boolean.TRUE);
+            roomExistenceCache.put(roomId, true);
         }
         
         model.addAttribute("roomId", roomId);
-        model.addAttribute("roomName", room.getName());
+        model.addAttribute("roomName", roomName);
         return "room";
     }
+
+    private String remoteRoomName(String roomId) {
+        return clusterEventBus != null ? clusterEventBus.lookupRoomName(roomId) : null;
+    }
     
-    // Method to prune the room existence cache periodically
+    // Vote statistics of the current round; before the reveal only the progress.
+    // Computed on the room's mailbox, so a vote or reset is never seen half applied and a passivated
+    // room is brought back first
+    @GetMapping("/room/{roomId}/stats")
+    @ResponseBody
+    public CompletableFuture<ResponseEntity<VoteStats>> roomStats(@PathVariable("roomId") String roomId) {
+        Room room = roomService.getRoom(roomId);
+        if (room == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        CompletableFuture<ResponseEntity<VoteStats>> stats = new CompletableFuture<>();
+        roomDispatcher.dispatch(room, () -> {
+            try {
+                stats.complete(ResponseEntity.ok(roomService.getVoteStats(room)));
+            } catch (RuntimeException e) {
+                // Fails the request right away instead of leaving it to the async timeout
+                stats.completeExceptionally(e);
+            }
+        });
+        return stats;
+    }
+
+    // Expired entries are also dropped on access and by the size bound; this removes them eagerly
     @GetMapping("/admin/prune-cache")
     @ResponseBody
     public String pruneCache() {
         int sizeBefore = roomExistenceCache.size();
-        
-        // Only keep cache entries for rooms that actually exist
-        roomExistenceCache.keySet().forEach(id -> {
-            if (roomService.getRoom(id) == null) {
-                roomExistenceCache.remove(id);
-            }
-        });
-        
+        roomExistenceCache.removeExpired();
         int sizeAfter = roomExistenceCache.size();
         return "Cache pruned: " + sizeBefore + " -> " + sizeAfter;
     }
+
+    // Room existence cache statistics
+    @GetMapping("/admin/cache-stats")
+    @ResponseBody
+    public Map<String, Long> cacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) roomExistenceCache.size());
+        stats.put("hits", roomExistenceCache.getHits());
+        stats.put("misses", roomExistenceCache.getMisses());
+        stats.put("evictions", roomExistenceCache.getEvictions());
+        return stats;
+    }
+
+    // Broadcast counters, including how many deltas were folded into coalesced broadcasts
+    @GetMapping("/admin/broadcast-stats")
+    @ResponseBody
+    public Map<String, Long> broadcastStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("broadcastsSent", roomBroadcaster.getBroadcastsSent());
+        stats.put("messagesCoalesced", roomBroadcaster.getMessagesCoalesced());
+        stats.put("snapshotsEncoded", roomBroadcaster.getSnapshotsEncoded());
+        return stats;
+    }
+
+    // Tracked sessions and players, and how disconnects ended: reconnected or removed after the grace period
+    @GetMapping("/admin/presence-stats")
+    @ResponseBody
+    public Map<String, Long> presenceStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("sessions", (long) presenceTracker.getSessionCount());
+        stats.put("players", (long) presenceTracker.getPlayerCount());
+        stats.put("disconnects", presenceTracker.getDisconnects());
+        stats.put("reconnects", presenceTracker.getReconnects());
+        stats.put("playersRemoved", presenceTracker.getPlayersRemoved());
+        return stats;
+    }
+
+    // Journal counters; appended minus written is the backlog of the writer thread
+    @GetMapping("/admin/journal-stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, Long>> journalStats() throws IOException {
+        if (journalService == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("recordsAppended", journalService.getRecordsAppended());
+        stats.put("recordsWritten", journalService.getRecordsWritten());
+        stats.put("bytesWritten", journalService.getBytesWritten());
+        stats.put("batchesForced", journalService.getBatchesForced());
+        stats.put("segments", (long) journalService.getSegmentCount());
+        stats.put("compactions", journalService.getCompactions());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Messages this node forwarded to room owners and broadcasts it exchanged with the other nodes
+    @GetMapping("/admin/cluster-stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, Long>> clusterStats() {
+        if (clusterEventBus == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("mutationsForwarded", clusterEventBus.getMutationsForwarded());
+        stats.put("mutationsReceived", clusterEventBus.getMutationsReceived());
+        stats.put("broadcastsPublished", clusterEventBus.getBroadcastsPublished());
+        stats.put("broadcastsReceived", clusterEventBus.getBroadcastsReceived());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Rooms, bytes and duration of the last snapshot written and of the restore at startup
+    @GetMapping("/admin/snapshot-stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, SnapshotService.Stats>> snapshotStats() {
+        if (snapshotService == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, SnapshotService.Stats> stats = new LinkedHashMap<>();
+        stats.put("lastSnapshot", snapshotService.getLastSnapshot());
+        stats.put("lastRestore", snapshotService.getLastRestore());
+        return ResponseEntity.ok(stats);
+    }
 }
\ No newline at end of file
@@ -1,39 +1,113 @@
 package de.lbarden.planningpoker.controller;
 
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.metrics.PokerMetrics;
 import de.lbarden.planningpoker.model.PokerMessage;
 import de.lbarden.planningpoker.model.PokerMessage.MessageType;
 import de.lbarden.planningpoker.model.Player;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.PresenceTracker;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomDispatcher;
 import de.lbarden.planningpoker.service.RoomService;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 @Controller
 public class PokerController {
     private static final Logger logger = LoggerFactory.getLogger(PokerController.class);
 
-    @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    // STOMP session attribute holding the room the session joined
+    public static final String ROOM_ATTRIBUTE = "room";
 
     @Autowired
     private RoomService roomService;
 
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    @Autowired
+    private PresenceTracker presenceTracker = new PresenceTracker();
+
+    @Autowired
+    private PokerMetrics metrics = new PokerMetrics();
+
+    // Only present when running as a cluster (planningpoker.cluster.enabled)
+    @Autowired(required = false)
+    private ClusterEventBus clusterEventBus;
+
+    @PostConstruct
+    public void registerClusterHandler() {
+        if (clusterEventBus != null) {
+            clusterEventBus.setMutationHandler(this::handleForwardedMessage);
+        }
+    }
+
     @MessageMapping("/room")
-    public void handleRoomMessage(@Payload PokerMessage message) {
+    public void handleRoomMessage(@Payload PokerMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        long received = System.nanoTime();
         String roomId = message.getRoomId();
-        Room room = roomService.getRoom(roomId);
+        // The room lives on the node that owns its ID; any other node only relays the message
+        if (clusterEventBus != null && roomId != null && !clusterEventBus.isLocal(roomId)) {
+            presenceTracker.relay(message, headerAccessor.getSessionId());
+            clusterEventBus.forward(message, headerAccessor.getSessionId());
+            return;
+        }
+
+        Room room = resolveRoom(message, headerAccessor.getSessionAttributes());
         if (room == null) {
             logger.warn("Message received for non-existent room: {}", roomId);
             return;
         }
 
+        // Everything below touches room state, so it runs on the room's mailbox
+        String sessionId = headerAccessor.getSessionId();
+        roomDispatcher.dispatch(room, () -> processRoomMessage(room, message, sessionId, received));
+    }
+
+    // Message another node received from one of its sessions for a room owned by this node
+    private void handleForwardedMessage(PokerMessage message, String sessionId) {
+        Room room = roomService.getRoom(message.getRoomId());
+        if (room == null) {
+            logger.warn("Forwarded message received for non-existent room: {}", message.getRoomId());
+            return;
+        }
+        long received = System.nanoTime();
+        roomDispatcher.dispatch(room, () -> processRoomMessage(room, message, sessionId, received));
+    }
+
+    // The room is looked up once per session, at JOIN, and the bound reference is reused for every later message
+    private Room resolveRoom(PokerMessage message, Map<String, Object> sessionAttributes) {
+        String roomId = message.getRoomId();
+        if (sessionAttributes != null && sessionAttributes.get(ROOM_ATTRIBUTE) instanceof Room bound
+                && !bound.isClosed() && Objects.equals(bound.getId(), roomId)) {
+            return bound;
+        }
+
+        Room room = roomService.getRoom(roomId);
+        if (room != null && sessionAttributes != null && message.getType() == MessageType.JOIN) {
+            sessionAttributes.put(ROOM_ATTRIBUTE, room);
+        }
+        return room;
+    }
+
+    private void processRoomMessage(Room room, PokerMessage message, String sessionId, long received) {
+        String roomId = message.getRoomId();
+        // Deltas are built from the message itself, which changes its type
+        MessageType type = message.getType();
         try {
             switch (message.getType()) {
                 case JOIN:
@@ -41,55 +115,68 @@ public class PokerController {
                     if (message.getPlayerId() == null || message.getPlayerId().isEmpty()) {
                         message.setPlayerId(UUID.randomUUID().toString());
                     }
-                    Player newPlayer = new Player(message.getPlayerId(), message.getPlayerName());
-                    roomService.addPlayer(roomId, newPlayer);
-                    logger.debug("Player joined: {} ({})", message.getPlayerName(), message.getPlayerId());
+                    // A player whose connection dropped comes back within the grace period with their card
+                    if (presenceTracker.join(room, message.getPlayerId(), sessionId)
+                            && room.getPlayers().containsKey(message.getPlayerId())) {
+                        logger.debug("Player reconnected: {} ({})", message.getPlayerName(), message.getPlayerId());
+                    } else {
+                        Player newPlayer = new Player(message.getPlayerId(), message.getPlayerName());
+                        roomService.addPlayer(room, newPlayer);
+                        logger.debug("Player joined: {} ({})", message.getPlayerName(), message.getPlayerId());
+                    }
+                    // The joining client has no state yet, so it gets a full snapshot, plus its card after a reconnect
+                    roomBroadcaster.broadcastSnapshot(room);
+                    roomBroadcaster.sendOwnCard(room, message.getPlayerId(), sessionId);
                     break;
                 case CARD_PLAYED:
-                    // Update the player's card selection
-                    roomService.updatePlayerCard(roomId, message.getPlayerId(), message.getCard());
+                    // Update the player's card selection; cards outside the deck are dropped
+                    if (roomService.updatePlayerCard(room, message.getPlayerId(), message.getCard())) {
+                        // The voter sees its card before the delta that hides it from everyone else
+                        roomBroadcaster.sendOwnCard(room, message.getPlayerId(), sessionId);
+                        roomBroadcaster.broadcastDelta(room, message, MessageType.PLAYER_VOTED);
+                    } else {
+                        logger.warn("Ignored card {} of player {} in room {}", message.getCard(), message.getPlayerId(), roomId);
+                    }
                     break;
                 case REVEAL:
-                    // Reveal all cards in the room
-                    roomService.revealCards(roomId);
+                    // Reveal all cards in the room; the broadcaster sends them as a full snapshot
+                    roomService.revealCards(room);
+                    roomBroadcaster.broadcastDelta(room, message, MessageType.CARDS_REVEALED);
                     break;
                 case RESET:
                     // Reset the room (clear cards and hide them)
-                    roomService.resetRoom(roomId);
+                    roomService.resetRoom(room);
+                    roomBroadcaster.broadcastDelta(room, message, MessageType.ROOM_RESET);
                     break;
                 case LEAVE:
-                    roomService.removePlayer(roomId, message.getPlayerId());
+                    presenceTracker.leave(room, message.getPlayerId(), sessionId);
+                    roomService.removePlayer(room, message.getPlayerId());
                     logger.debug("Player left: {}", message.getPlayerId());
-                    break; // Fixed: Added missing break statement
+                    roomBroadcaster.broadcastDelta(room, message, MessageType.PLAYER_LEFT);
+                    break;
+                case SYNC:
+                    // The client detected a version gap: resend the full state to that session only
+                    logger.debug("Resync requested at version {} for room {}", message.getVersion(), roomId);
+                    roomBroadcaster.sendSnapshotToSession(room, sessionId);
+                    // Any session may ask for a snapshot, but only the player's own session gets the hidden card
+                    if (presenceTracker.isJoinedAs(room, message.getPlayerId(), sessionId)) {
+                        roomBroadcaster.sendOwnCard(room, message.getPlayerId(), sessionId);
+                    }
+                    break;
                 default:
                     logger.warn("Unknown message type received: {}", message.getType());
+                    roomBroadcaster.broadcastSnapshot(room);
                     break;
             }
-
-            // Reuse the incoming message object to avoid creating a new one
-            message.setType(MessageType.UPDATE);
-            message.setPlayers(room.getPlayerList());
-            message.setRevealed(room.isRevealed());
-            message.setReset(room.isReset());
-            roomService.startRoom(roomId);
-
-            // Broadcast the update only to the clients in this room
-            messagingTemplate.convertAndSend("/topic/room/" + roomId, message);
+            roomService.startRoom(room);
         } catch (Exception e) {
             // Log exception and return a graceful error to the client
             logger.error("Error processing message: {}", e.getMessage(), e);
-            
-            PokerMessage errorMessage = new PokerMessage();
-            errorMessage.setType(MessageType.UPDATE); // Still use UPDATE to ensure client handling
-            errorMessage.setRoomId(roomId);
-            
-            if (room != null) {
-                errorMessage.setPlayers(room.getPlayerList());
-                errorMessage.setRevealed(room.isRevealed());
-                errorMessage.setReset(room.isReset());
-            }
-            
-            messagingTemplate.convertAndSend("/topic/room/" + roomId, errorMessage);
+
+            // A full snapshot lets every client recover from whatever state it is in
+            roomBroadcaster.broadcastSnapshot(room);
+        } finally {
+            metrics.recordMessage(type, received);
         }
     }
-}
\ No newline at end of file
+}
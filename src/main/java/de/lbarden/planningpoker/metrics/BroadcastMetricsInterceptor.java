@@ -0,0 +1,77 @@
+package de.lbarden.planningpoker.metrics;
+
+import de.lbarden.planningpoker.service.WireFormatNegotiator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registered on the broker channel: records for every room broadcast how many sessions it reaches
+ * on this node and how large its payloads are. Sees the broadcasts of every sender, including those
+ * repeated from other nodes of a cluster.
+ */
+@Component
+public class BroadcastMetricsInterceptor implements ChannelInterceptor {
+
+    private static final String ROOM_TOPIC = "/topic/room/";
+
+    private final DistributionSummary fanout;
+    private final DistributionSummary jsonBytes;
+    private final DistributionSummary compactBytes;
+
+    // Created by the broker configuration this interceptor is registered with
+    @Autowired
+    private ObjectProvider<SimpleBrokerMessageHandler> broker;
+
+    @Autowired
+    public BroadcastMetricsInterceptor(MeterRegistry registry) {
+        fanout = DistributionSummary.builder("poker.broadcast.fanout")
+                .description("Sessions a room broadcast is delivered to")
+                .baseUnit("sessions")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(1000.0)
+                .register(registry);
+        jsonBytes = payloadBytes(registry, "json");
+        compactBytes = payloadBytes(registry, "compact");
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(ROOM_TOPIC)) {
+            return message;
+        }
+        jsonBytes.record(payload.length);
+        if (headers.get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER) instanceof byte[] compact) {
+            compactBytes.record(compact.length);
+        }
+        // Same lookup the broker makes next, one map lookup in RoomSubscriptionRegistry
+        SimpleBrokerMessageHandler handler = broker.getIfAvailable();
+        if (handler != null) {
+            fanout.record(handler.getSubscriptionRegistry().findSubscriptions(message).size());
+        }
+        return message;
+    }
+
+    private static DistributionSummary payloadBytes(MeterRegistry registry, String format) {
+        return DistributionSummary.builder("poker.broadcast.payload")
+                .description("Payload size of a room broadcast")
+                .baseUnit("bytes")
+                .tag("format", format)
+                .register(registry);
+    }
+}
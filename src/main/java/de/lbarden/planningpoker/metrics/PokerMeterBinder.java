@@ -0,0 +1,168 @@
+package de.lbarden.planningpoker.metrics;
+
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.service.PresenceTracker;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomExistenceCache;
+import de.lbarden.planningpoker.service.RoomService;
+import de.lbarden.planningpoker.websocket.InboundRateLimiter;
+import de.lbarden.planningpoker.websocket.InboundRateLimiter.Scope;
+import de.lbarden.planningpoker.websocket.SlowConsumerPolicy;
+import de.lbarden.planningpoker.websocket.SpectatorHub;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executor;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Exposes state and counters the services already keep: read when the registry is scraped, so they cost
+ * nothing on the message path.
+ */
+@Component
+public class PokerMeterBinder implements MeterBinder {
+
+    @Autowired
+    private RoomService roomService;
+
+    @Autowired
+    private RoomExistenceCache roomExistenceCache;
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private PresenceTracker presenceTracker;
+
+    @Autowired
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    @Autowired
+    private InboundRateLimiter inboundRateLimiter;
+
+    @Autowired
+    private SpectatorHub spectatorHub;
+
+    // Pool executors of the STOMP channels; replaced by executors without a queue on virtual threads
+    @Autowired
+    @Qualifier("clientInboundChannelExecutor")
+    private ObjectProvider<Executor> inboundExecutor;
+
+    @Autowired
+    @Qualifier("clientOutboundChannelExecutor")
+    private ObjectProvider<Executor> outboundExecutor;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("poker.rooms", roomService, service -> service.getRoomCount())
+                .description("Live rooms")
+                .register(registry);
+        Gauge.builder("poker.players", roomService, service -> service.getPlayerCount())
+                .description("Players in all live rooms")
+                .register(registry);
+
+        // Hit rate = hits / (hits + misses)
+        counter(registry, "poker.room.cache.requests", "hit", RoomExistenceCache::getHits);
+        counter(registry, "poker.room.cache.requests", "miss", RoomExistenceCache::getMisses);
+        FunctionCounter.builder("poker.room.cache.evictions", roomExistenceCache, RoomExistenceCache::getEvictions)
+                .description("Room existence cache entries dropped by expiry or the size bound")
+                .register(registry);
+        Gauge.builder("poker.room.cache.size", roomExistenceCache, RoomExistenceCache::size)
+                .register(registry);
+
+        FunctionCounter.builder("poker.broadcasts", roomBroadcaster, RoomBroadcaster::getBroadcastsSent)
+                .description("Room broadcasts sent")
+                .register(registry);
+        FunctionCounter.builder("poker.broadcasts.coalesced", roomBroadcaster, RoomBroadcaster::getMessagesCoalesced)
+                .description("Deltas folded into a coalesced broadcast")
+                .register(registry);
+        FunctionCounter.builder("poker.snapshots.encoded", roomBroadcaster, RoomBroadcaster::getSnapshotsEncoded)
+                .register(registry);
+
+        Gauge.builder("poker.presence.sessions", presenceTracker, PresenceTracker::getSessionCount)
+                .register(registry);
+        FunctionCounter.builder("poker.presence.disconnects", presenceTracker, PresenceTracker::getDisconnects)
+                .register(registry);
+        FunctionCounter.builder("poker.presence.reconnects", presenceTracker, PresenceTracker::getReconnects)
+                .register(registry);
+        FunctionCounter.builder("poker.presence.removed", presenceTracker, PresenceTracker::getPlayersRemoved)
+                .description("Players removed after their session ended without LEAVE")
+                .register(registry);
+
+        FunctionCounter.builder("poker.websocket.conflated", slowConsumerPolicy, SlowConsumerPolicy::getFramesConflated)
+                .description("Room updates dropped for a session that was behind, superseded by a later snapshot")
+                .register(registry);
+        FunctionCounter.builder("poker.websocket.resyncs", slowConsumerPolicy, SlowConsumerPolicy::getResyncsRequested)
+                .register(registry);
+        FunctionCounter.builder("poker.websocket.slow.disconnects", slowConsumerPolicy,
+                        SlowConsumerPolicy::getSlowConsumersDisconnected)
+                .description("Sessions closed for exceeding the send time or buffer limit")
+                .register(registry);
+        Gauge.builder("poker.websocket.pending", slowConsumerPolicy, SlowConsumerPolicy::getPendingFrames)
+                .description("Frames waiting in the session queues")
+                .register(registry);
+
+        for (MessageType type : MessageType.values()) {
+            if (!inboundRateLimiter.isLimited(type)) {
+                continue;
+            }
+            for (Scope scope : Scope.values()) {
+                FunctionCounter.builder("poker.ratelimit.rejected", inboundRateLimiter,
+                                limiter -> limiter.getRejected(scope, type))
+                        .description("Client messages over the session or room limit, dropped or held")
+                        .tag("type", type.name())
+                        .tag("scope", scope.name().toLowerCase())
+                        .register(registry);
+            }
+        }
+        FunctionCounter.builder("poker.ratelimit.merged", inboundRateLimiter, InboundRateLimiter::getMessagesMerged)
+                .description("Held messages superseded before they were released")
+                .register(registry);
+        Gauge.builder("poker.ratelimit.held", inboundRateLimiter, InboundRateLimiter::getHeldMessages)
+                .register(registry);
+
+        Gauge.builder("poker.spectators", spectatorHub, SpectatorHub::getSpectatorCount)
+                .description("Spectator sessions on this node")
+                .register(registry);
+        FunctionCounter.builder("poker.spectators.frames", spectatorHub, SpectatorHub::getFramesEncoded)
+                .description("Frames encoded for spectators, shared by all spectators of a room")
+                .register(registry);
+        FunctionCounter.builder("poker.spectators.deliveries", spectatorHub, SpectatorHub::getFramesQueued)
+                .description("Spectator frames queued for a session")
+                .register(registry);
+        FunctionCounter.builder("poker.spectators.rejected", spectatorHub, SpectatorHub::getRejected)
+                .description("Spectator sessions closed for exceeding the room or total limit")
+                .register(registry);
+
+        queueDepth(registry, "inbound", inboundExecutor);
+        queueDepth(registry, "outbound", outboundExecutor);
+    }
+
+    private void counter(MeterRegistry registry, String name, String result,
+                         ToDoubleFunction<RoomExistenceCache> count) {
+        FunctionCounter.builder(name, roomExistenceCache, count)
+                .description("Room page lookups answered by the room existence cache, by result")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static void queueDepth(MeterRegistry registry, String channel, ObjectProvider<Executor> executor) {
+        if (executor.getIfAvailable() instanceof ThreadPoolTaskExecutor pool) {
+            Gauge.builder("poker.channel.queued", pool, tasks -> tasks.getThreadPoolExecutor().getQueue().size())
+                    .description("Messages waiting for a thread of the STOMP channel")
+                    .tag("channel", channel)
+                    .register(registry);
+            Gauge.builder("poker.channel.active", pool, ThreadPoolTaskExecutor::getActiveCount)
+                    .description("Threads of the STOMP channel handling a message")
+                    .tag("channel", channel)
+                    .register(registry);
+        }
+    }
+}
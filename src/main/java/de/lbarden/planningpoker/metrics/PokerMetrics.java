@@ -0,0 +1,74 @@
+package de.lbarden.planningpoker.metrics;
+
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters recorded on the hot paths. They are created up front, so recording is a map lookup at most.
+ * Everything that already keeps its own counters is bound as gauges by PokerMeterBinder instead.
+ */
+@Component
+public class PokerMetrics {
+
+    private final Map<MessageType, Timer> messageTimers = new EnumMap<>(MessageType.class);
+    private final Counter roomsExpired;
+    private final Counter roomsEvictedForCapacity;
+    private final Counter roomsRemovedEmpty;
+
+    // Records into a private registry, for code that is not wired by Spring (tests, benchmarks)
+    public PokerMetrics() {
+        this(new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public PokerMetrics(MeterRegistry registry) {
+        for (MessageType type : MessageType.values()) {
+            messageTimers.put(type, Timer.builder("poker.message.latency")
+                    .description("Time from receiving a client message until its room task has finished")
+                    .tag("type", type.name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1).dividedBy(100))
+                    .maximumExpectedValue(Duration.ofSeconds(5))
+                    .register(registry));
+        }
+        roomsExpired = roomsRemoved(registry, "expired");
+        roomsEvictedForCapacity = roomsRemoved(registry, "capacity");
+        roomsRemovedEmpty = roomsRemoved(registry, "empty");
+    }
+
+    // receivedNanos is the System.nanoTime() at which the message arrived
+    public void recordMessage(MessageType type, long receivedNanos) {
+        if (type != null) {
+            messageTimers.get(type).record(System.nanoTime() - receivedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void roomsExpired(int count) {
+        roomsExpired.increment(count);
+    }
+
+    public void roomsEvictedForCapacity(int count) {
+        roomsEvictedForCapacity.increment(count);
+    }
+
+    public void roomRemovedEmpty() {
+        roomsRemovedEmpty.increment();
+    }
+
+    private static Counter roomsRemoved(MeterRegistry registry, String reason) {
+        return Counter.builder("poker.rooms.removed")
+                .description("Rooms removed by expiry, by the room limit, or because their last player left")
+                .tag("reason", reason)
+                .register(registry);
+    }
+}
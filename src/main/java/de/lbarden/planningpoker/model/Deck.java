@@ -0,0 +1,48 @@
+package de.lbarden.planningpoker.model;
+
+import java.util.List;
+
+/**
+ * The cards players can choose from, as shown in room.html.
+ * Votes are stored as a byte code: 0 means no card, 1..n is the position of the card in the deck plus one.
+ */
+public final class Deck {
+
+    public static final List<String> CARDS = List.of("0", "1/2", "1", "2", "3", "5", "8", "13", "20", "40", "100", "?");
+
+    // Numeric value of each card, in deck order (ascending); NaN for cards without a value
+    private static final double[] VALUES = {0, 0.5, 1, 2, 3, 5, 8, 13, 20, 40, 100, Double.NaN};
+
+    public static final byte NO_CARD = 0;
+
+    // Sent in place of a card that was played but not revealed yet, so clients learn who voted but not what
+    public static final String HIDDEN = "*";
+
+    // Number of vote codes including NO_CARD, i.e. the size of arrays indexed by vote code
+    public static final int CODES = CARDS.size() + 1;
+
+    private Deck() { }
+
+    // Returns the vote code of the card, NO_CARD for an empty card, or -1 if the card is not in the deck
+    public static int code(String card) {
+        if (card == null || card.isEmpty()) {
+            return NO_CARD;
+        }
+        int index = CARDS.indexOf(card);
+        return index < 0 ? -1 : index + 1;
+    }
+
+    // Returns the card of a vote code, "" for NO_CARD
+    public static String card(int code) {
+        return code == NO_CARD ? "" : CARDS.get(code - 1);
+    }
+
+    // Numeric value of a vote code, NaN for NO_CARD and cards without a value
+    public static double value(int code) {
+        return code == NO_CARD ? Double.NaN : VALUES[code - 1];
+    }
+
+    public static boolean isValid(String card) {
+        return code(card) >= 0;
+    }
+}
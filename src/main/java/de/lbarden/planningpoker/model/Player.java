@@ -1,7 +1,9 @@
 package de.lbarden.planningpoker.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 @Data
 public class Player {
@@ -10,15 +12,17 @@ public class Player {
     private String id;
     @JsonProperty("name")
     private String name;
-    @JsonProperty("card")
-    private String card;
+
+    // Short per-room number assigned on join; the room's vote array and the compact wire format are indexed by it
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private int slot;
 
     public Player() { }
 
     public Player(String id, String name) {
         this.id = id;
         this.name = name;
-        this.card = "";
     }
 
 }
@@ -0,0 +1,12 @@
+package de.lbarden.planningpoker.model;
+
+/**
+ * A player as sent to clients, with the card of the current round ("" if none).
+ */
+public record PlayerState(String id, String name, String card) {
+
+    // The same player as shown before the reveal: whether they voted, not what
+    public PlayerState hidden() {
+        return card == null || card.isEmpty() ? this : new PlayerState(id, name, Deck.HIDDEN);
+    }
+}
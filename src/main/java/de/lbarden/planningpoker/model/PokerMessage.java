@@ -1,5 +1,6 @@
 package de.lbarden.planningpoker.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -7,15 +8,29 @@ import java.util.Collection;
 
 @Setter
 @Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PokerMessage {
 
     public enum MessageType {
+        // Sent by clients
         JOIN,
         CARD_PLAYED,
         REVEAL,
         RESET,
+        LEAVE,
+        SYNC,
+
+        // Full room snapshot
         UPDATE,
-        LEAVE
+
+        // Deltas carrying only what changed since the previous version
+        PLAYER_VOTED,
+        PLAYER_LEFT,
+        CARDS_REVEALED,
+        ROOM_RESET,
+
+        // Sent to the voter's session only: its own card, which everyone else sees as Deck.HIDDEN until the reveal
+        OWN_CARD
     }
 
     // Getters and setters
@@ -25,11 +40,18 @@ public class PokerMessage {
     private String playerName;
     private String card;
 
+    // State version of the room this message was built from (deltas and snapshots),
+    // or the last version the client has seen (SYNC)
+    private long version;
+
     // Fields for broadcasting the updated room state:
-    private Collection<Player> players;
+    private Collection<PlayerState> players;
     private boolean revealed;
     private boolean reset;
 
+    // Vote statistics, sent with snapshots and the CARDS_REVEALED delta
+    private VoteStats stats;
+
     public PokerMessage() { }
 
 }
@@ -1,11 +1,25 @@
 package de.lbarden.planningpoker.model;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * State of one planning poker room. Mutations are only made from the room's mailbox
+ * (see RoomDispatcher), so the room has a single writer and needs no locking.
+ */
 @Data
 public class Room {
     private String id;
@@ -13,12 +27,70 @@ public class Room {
     private Map<String, Player> players = new ConcurrentHashMap<>();
     private boolean revealed;
     private boolean reset;
-    private long lastActivity;
+    // Read by the cleanup jobs outside the mailbox
+    private volatile long lastActivity;
+
+    // Set once the room has been removed from the registry
+    private volatile boolean closed;
+
+    // Monotonically increasing state version, bumped on every mutation so clients can detect gaps
+    private volatile long version;
     
     // Cache for player list to avoid creating new collection on each call
     private volatile Collection<Player> cachedPlayerList;
     private volatile int playerModificationCount = 0;
 
+    // Slots of the players in the room; a new player gets the lowest free one, so votes only grows with the
+    // number of players at a time, not with everyone who ever joined
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final BitSet usedSlots = new BitSet();
+
+    // Vote of every player as a Deck code, indexed by player slot; Deck.NO_CARD for slots without a vote
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private byte[] votes = new byte[8];
+
+    // Running histogram of the votes, indexed by Deck code, and the number of votes cast; updated in O(1) per vote
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final int[] voteCounts = new int[Deck.CODES];
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private int votesCast;
+
+    // Encoded snapshot of the current version, shared by every broadcast and resync until the next mutation
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile EncodedSnapshot encodedSnapshot;
+
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final RoomMailbox mailbox = new RoomMailbox();
+
+    // Set while the players and votes of an idle room are kept by the RoomStore instead of on the heap
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile boolean passivated;
+
+    // Set on every use of the room, cleared by the RoomStore when it looks for rooms to passivate
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile boolean recentlyUsed;
+
+    // Players in the room, including those of a passivated room; read by the metrics from any thread
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
+    private volatile int playerCount;
+
     public Room() { }
 
     public Room(String id, String name) {
@@ -32,17 +104,48 @@ public class Room {
         this.lastActivity = System.currentTimeMillis();
     }
 
-    // Synchronizing only when modifying players to ensure thread safety
-    public synchronized void addPlayer(String playerId, Player player) {
+    public long incrementVersion() {
+        encodedSnapshot = null;
+        return ++version;
+    }
+
+    // The reset flag is part of the snapshot but cleared without a version bump
+    public void setReset(boolean reset) {
+        if (this.reset != reset) {
+            encodedSnapshot = null;
+        }
+        this.reset = reset;
+    }
+
+    // Returns the cached snapshot only if it was encoded for the current version
+    public EncodedSnapshot getEncodedSnapshot() {
+        EncodedSnapshot current = encodedSnapshot;
+        return current != null && current.version() == version ? current : null;
+    }
+
+    public void addPlayer(String playerId, Player player) {
+        // A player joining again keeps their slot but starts without a card
+        Player previous = players.get(playerId);
+        int slot = previous != null ? previous.getSlot() : usedSlots.nextClearBit(0);
+        usedSlots.set(slot);
+        player.setSlot(slot);
+        ensureVoteCapacity(slot);
+        changeVote(slot, Deck.NO_CARD);
         players.put(playerId, player);
+        if (previous == null) {
+            playerCount++;
+        }
         playerModificationCount++;
         // Invalidate cache
         cachedPlayerList = null;
     }
     
-    public synchronized Player removePlayer(String playerId) {
+    public Player removePlayer(String playerId) {
         Player removed = players.remove(playerId);
         if (removed != null) {
+            playerCount--;
+            changeVote(removed.getSlot(), Deck.NO_CARD);
+            usedSlots.clear(removed.getSlot());
             playerModificationCount++;
             // Invalidate cache
             cachedPlayerList = null;
@@ -50,18 +153,172 @@ public class Room {
         return removed;
     }
 
-    // Thread-safe optimized getter that uses cache
+    // Returns false if the player is not in this room or the card is not in the deck
+    public boolean playCard(String playerId, String card) {
+        Player player = players.get(playerId);
+        int code = Deck.code(card);
+        if (player == null || code < 0) {
+            return false;
+        }
+        changeVote(player.getSlot(), code);
+        return true;
+    }
+
+    // Brings back a player with the slot and vote they had, e.g. when a passivated room is activated
+    public void restorePlayer(Player player, int code) {
+        int slot = player.getSlot();
+        ensureVoteCapacity(slot);
+        usedSlots.set(slot);
+        players.put(player.getId(), player);
+        changeVote(slot, code);
+        playerModificationCount++;
+        cachedPlayerList = null;
+    }
+
+    // Drops players, votes and the cached snapshot but keeps everything else, see RoomStore.activate
+    public void clearPlayers() {
+        players = new ConcurrentHashMap<>();
+        usedSlots.clear();
+        votes = new byte[8];
+        Arrays.fill(voteCounts, 0);
+        votesCast = 0;
+        playerModificationCount++;
+        cachedPlayerList = null;
+        encodedSnapshot = null;
+    }
+
+    public void clearCards() {
+        Arrays.fill(votes, Deck.NO_CARD);
+        Arrays.fill(voteCounts, 0);
+        votesCast = 0;
+    }
+
+    // Deck code of the player's vote, Deck.NO_CARD if the player has none
+    public int getVote(Player player) {
+        return votes[player.getSlot()];
+    }
+
+    // Card the player chose this round, "" if none or if the player is not in the room
+    public String getCard(String playerId) {
+        Player player = players.get(playerId);
+        return player == null ? "" : Deck.card(getVote(player));
+    }
+
+    public int countVotes() {
+        return votesCast;
+    }
+
+    /**
+     * Statistics of the current round, derived from the running histogram in time proportional to the
+     * deck size. Before the reveal only the progress is returned, so the endpoint and broadcasts
+     * give nothing away.
+     */
+    public VoteStats getVoteStats() {
+        int joined = players.size();
+        if (!revealed) {
+            return VoteStats.progress(votesCast, joined);
+        }
+
+        Map<String, Integer> histogram = new LinkedHashMap<>();
+        int numericVotes = 0;
+        double sum = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (int code = 1; code < Deck.CODES; code++) {
+            int count = voteCounts[code];
+            if (count == 0) {
+                continue;
+            }
+            histogram.put(Deck.card(code), count);
+            double value = Deck.value(code);
+            if (!Double.isNaN(value)) {
+                numericVotes += count;
+                sum += value * count;
+                // The deck is in ascending order
+                if (Double.isNaN(min)) {
+                    min = value;
+                }
+                max = value;
+            }
+        }
+
+        boolean consensus = histogram.size() == 1 && votesCast == joined;
+        if (numericVotes == 0) {
+            return new VoteStats(votesCast, joined, histogram, null, null, null, consensus);
+        }
+        return new VoteStats(votesCast, joined, histogram, sum / numericVotes, median(numericVotes),
+                max - min, consensus);
+    }
+
+    // Median of the numeric votes: the middle value, or the mean of the two middle values
+    private double median(int numericVotes) {
+        int lower = (numericVotes - 1) / 2;
+        int upper = numericVotes / 2;
+        double lowerValue = Double.NaN;
+        int seen = 0;
+        for (int code = 1; code < Deck.CODES; code++) {
+            double value = Deck.value(code);
+            if (voteCounts[code] == 0 || Double.isNaN(value)) {
+                continue;
+            }
+            seen += voteCounts[code];
+            if (Double.isNaN(lowerValue) && seen > lower) {
+                lowerValue = value;
+            }
+            if (seen > upper) {
+                return (lowerValue + value) / 2;
+            }
+        }
+        return lowerValue;
+    }
+
+    // Single place where a vote changes, so the histogram always matches the vote array
+    private void changeVote(int slot, int code) {
+        int previous = votes[slot];
+        if (previous == code) {
+            return;
+        }
+        if (previous != Deck.NO_CARD) {
+            voteCounts[previous]--;
+            votesCast--;
+        }
+        if (code != Deck.NO_CARD) {
+            voteCounts[code]++;
+            votesCast++;
+        }
+        votes[slot] = (byte) code;
+    }
+
+    // Players with their current cards, as sent to clients
+    public List<PlayerState> getPlayerStates() {
+        List<PlayerState> states = new ArrayList<>(players.size());
+        for (Player player : players.values()) {
+            states.add(new PlayerState(player.getId(), player.getName(), Deck.card(getVote(player))));
+        }
+        return states;
+    }
+
+    private void ensureVoteCapacity(int slot) {
+        if (slot >= votes.length) {
+            votes = Arrays.copyOf(votes, Math.max(slot + 1, votes.length * 2));
+        }
+    }
+
+    // Optimized getter that uses cache; the view is live, so a racing rebuild is harmless
     public Collection<Player> getPlayerList() {
         Collection<Player> current = cachedPlayerList;
         if (current == null) {
-            synchronized (this) {
-                if (cachedPlayerList == null) {
-                    // Create unmodifiable view to prevent external modification
-                    cachedPlayerList = Collections.unmodifiableCollection(players.values());
-                }
-                current = cachedPlayerList;
-            }
+            // Create unmodifiable view to prevent external modification
+            current = Collections.unmodifiableCollection(players.values());
+            cachedPlayerList = current;
         }
         return current;
     }
-}
\ No newline at end of file
+
+    // JSON payload of a snapshot plus its compact encoding, which is only built while compact clients are connected
+    public record EncodedSnapshot(long version, byte[] payload, byte[] compactPayload) {
+        public EncodedSnapshot withCompactPayload(byte[] compact) {
+            return new EncodedSnapshot(version, payload, compact);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.lbarden.planningpoker.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serial task queue of a single room. Tasks run one at a time, in submission order,
+ * on whichever worker thread picks the mailbox up, so room state has exactly one writer
+ * at any moment while different rooms are processed in parallel.
+ */
+public class RoomMailbox {
+    private static final Logger logger = LoggerFactory.getLogger(RoomMailbox.class);
+
+    // Tasks handled per turn before the worker is handed back, so one busy room can't starve others
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public void submit(Runnable task, Executor workers) {
+        tasks.add(task);
+        schedule(workers);
+    }
+
+    public boolean isIdle() {
+        return !scheduled.get() && tasks.isEmpty();
+    }
+
+    private void schedule(Executor workers) {
+        if (scheduled.compareAndSet(false, true)) {
+            workers.execute(() -> drain(workers));
+        }
+    }
+
+    private void drain(Executor workers) {
+        try {
+            Runnable task;
+            int processed = 0;
+            while (processed < MAX_TASKS_PER_TURN && (task = tasks.poll()) != null) {
+                processed++;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Room task failed: {}", e.getMessage(), e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // Pick up tasks that arrived after the last poll or were left over from this turn
+        if (!tasks.isEmpty()) {
+            schedule(workers);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package de.lbarden.planningpoker.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/**
+ * Vote statistics of the current round. Mean, median and spread only cover cards with a numeric value
+ * and are null without such votes. Consensus means every player voted, all with the same card. Before the
+ * reveal only the progress (votes and players) is filled in.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record VoteStats(int votes, int players, Map<String, Integer> histogram,
+                        Double mean, Double median, Double spread, Boolean consensus) {
+
+    public static VoteStats progress(int votes, int players) {
+        return new VoteStats(votes, players, null, null, null, null, null);
+    }
+
+    public boolean allVoted() {
+        return players > 0 && votes == players;
+    }
+}
@@ -0,0 +1,57 @@
+package de.lbarden.planningpoker.persistence;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the players and votes of idle rooms in memory-mapped chunk files, so they live in the page cache
+ * and can be paged out to disk instead of taking heap. The files only extend memory: they are not a
+ * durable copy of the rooms (use the journal or snapshots for that) and are deleted on startup.
+ */
+@Component
+@ConditionalOnProperty(name = "planningpoker.rooms.store", havingValue = "file")
+public class FileRoomStore extends PassivatingRoomStore {
+
+    @Value("${planningpoker.rooms.store-directory:data/rooms}")
+    private String directory = "data/rooms";
+
+    // Removes chunk files left behind by a previous run
+    @PostConstruct
+    public void open() throws IOException {
+        Path path = Path.of(directory);
+        Files.createDirectories(path);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "rooms-*.chunk")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // The mapping stays valid after the channel is closed
+    @Override
+    protected ByteBuffer allocateChunk(int index, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(chunkPath(index), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    @Override
+    protected void releaseChunk(int index, ByteBuffer buffer) throws IOException {
+        Files.deleteIfExists(chunkPath(index));
+    }
+
+    private Path chunkPath(int index) {
+        return Path.of(directory).resolve(String.format("rooms-%06d.chunk", index));
+    }
+}
@@ -0,0 +1,47 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Room;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default store: every room lives on the heap in a concurrent map. Fastest per operation, but each room
+ * with its players is garbage-collected heap that the collector has to trace.
+ */
+@Component
+@ConditionalOnProperty(name = "planningpoker.rooms.store", havingValue = "heap", matchIfMissing = true)
+public class HeapRoomStore implements RoomStore {
+
+    // Initial capacity and load factor to avoid frequent resizing
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>(16, 0.75f, 2);
+
+    @Override
+    public Room get(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    @Override
+    public void put(Room room) {
+        rooms.put(room.getId(), room);
+    }
+
+    @Override
+    public boolean remove(Room room) {
+        return rooms.remove(room.getId(), room);
+    }
+
+    @Override
+    public Collection<Room> getRooms() {
+        return Collections.unmodifiableCollection(rooms.values());
+    }
+
+    @Override
+    public int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,154 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Deck;
+import de.lbarden.planningpoker.model.PlayerState;
+import de.lbarden.planningpoker.model.Room;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One room mutation in the journal. Replaying all records in order rebuilds the rooms;
+ * a State record replaces everything recorded for its room before it, which is what compaction relies on.
+ */
+public sealed interface JournalRecord {
+
+    String roomId();
+
+    record Created(String roomId, String name) implements JournalRecord { }
+
+    record Joined(String roomId, String playerId, String playerName) implements JournalRecord { }
+
+    record Voted(String roomId, String playerId, String card) implements JournalRecord { }
+
+    record Revealed(String roomId) implements JournalRecord { }
+
+    record Reset(String roomId) implements JournalRecord { }
+
+    record Left(String roomId, String playerId) implements JournalRecord { }
+
+    record Removed(String roomId) implements JournalRecord { }
+
+    record State(String roomId, String name, long version, boolean revealed, List<PlayerState> players)
+            implements JournalRecord {
+
+        // Must be called from the room's mailbox to capture a consistent state
+        public static State of(Room room) {
+            return new State(room.getId(), room.getName(), room.getVersion(), room.isRevealed(), room.getPlayerStates());
+        }
+    }
+
+    byte CREATED = 1;
+    byte JOINED = 2;
+    byte VOTED = 3;
+    byte REVEALED = 4;
+    byte RESET = 5;
+    byte LEFT = 6;
+    byte REMOVED = 7;
+    byte STATE = 8;
+
+    static byte[] encode(JournalRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (record instanceof Created created) {
+                writeHeader(out, CREATED, created);
+                writeString(out, created.name());
+            } else if (record instanceof Joined joined) {
+                writeHeader(out, JOINED, joined);
+                writeString(out, joined.playerId());
+                writeString(out, joined.playerName());
+            } else if (record instanceof Voted voted) {
+                writeHeader(out, VOTED, voted);
+                writeString(out, voted.playerId());
+                out.writeByte(Deck.code(voted.card()));
+            } else if (record instanceof Revealed) {
+                writeHeader(out, REVEALED, record);
+            } else if (record instanceof Reset) {
+                writeHeader(out, RESET, record);
+            } else if (record instanceof Left left) {
+                writeHeader(out, LEFT, left);
+                writeString(out, left.playerId());
+            } else if (record instanceof Removed) {
+                writeHeader(out, REMOVED, record);
+            } else if (record instanceof State state) {
+                writeHeader(out, STATE, state);
+                writeString(out, state.name());
+                out.writeLong(state.version());
+                out.writeBoolean(state.revealed());
+                out.writeInt(state.players().size());
+                for (PlayerState player : state.players()) {
+                    writeString(out, player.id());
+                    writeString(out, player.name());
+                    out.writeByte(Deck.code(player.card()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Decodes straight from the array; restoring large snapshots spends most of its time here
+    static JournalRecord decode(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            byte type = in.get();
+            String roomId = readString(in);
+            return switch (type) {
+                case CREATED -> new Created(roomId, readString(in));
+                case JOINED -> new Joined(roomId, readString(in), readString(in));
+                case VOTED -> new Voted(roomId, readString(in), Deck.card(in.get()));
+                case REVEALED -> new Revealed(roomId);
+                case RESET -> new Reset(roomId);
+                case LEFT -> new Left(roomId, readString(in));
+                case REMOVED -> new Removed(roomId);
+                case STATE -> {
+                    String name = readString(in);
+                    long version = in.getLong();
+                    boolean revealed = in.get() != 0;
+                    int count = in.getInt();
+                    List<PlayerState> players = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        players.add(new PlayerState(readString(in), readString(in), Deck.card(in.get())));
+                    }
+                    yield new State(roomId, name, version, revealed, players);
+                }
+                default -> throw new IllegalArgumentException("Unknown journal record type: " + type);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated journal record", e);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type, JournalRecord record) throws IOException {
+        out.writeByte(type);
+        writeString(out, record.roomId());
+    }
+
+    // string = byte length:u16, UTF-8 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for the journal: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,217 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Optional durability mode: RoomService appends every room mutation here, and the rooms are rebuilt
+ * from the journal when the application starts.
+ * <p>
+ * Appending only encodes the record and queues it, so message handling never waits for the disk.
+ * A single writer thread drains the queue every flushIntervalMs, copies the batch into the current
+ * memory-mapped segment and forces it to disk once per batch. A crash therefore loses at most the
+ * mutations of the last interval.
+ * <p>
+ * Once more than compactAfterSegments segments exist, the writer starts a new segment and asks
+ * every room's mailbox to append a State record of the room. When all of them are written, the
+ * older segments only hold history that the State records replace, and they are deleted.
+ */
+@Service
+@ConditionalOnProperty(name = "planningpoker.journal.enabled", havingValue = "true")
+public class JournalService {
+    private static final Logger logger = LoggerFactory.getLogger(JournalService.class);
+
+    @Value("${planningpoker.journal.directory:data/journal}")
+    private String directory = "data/journal";
+
+    @Value("${planningpoker.journal.segment-size-kb:16384}")
+    private int segmentSizeKb = 16384;
+
+    @Value("${planningpoker.journal.flush-interval-ms:50}")
+    private long flushIntervalMs = 50;
+
+    @Value("${planningpoker.journal.compact-after-segments:4}")
+    private int compactAfterSegments = 4;
+
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    // Looked up lazily, RoomService itself depends on the journal
+    @Autowired
+    private ObjectProvider<RoomService> roomService;
+
+    // Encoded records, and Compaction markers that tell the writer when old segments can go
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong recordsAppended = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong batchesForced = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private SegmentedJournal journal;
+    private ScheduledExecutorService writer;
+    private boolean compacting;
+    private long checkedSegment;
+
+    @PostConstruct
+    public void open() throws IOException {
+        journal = new SegmentedJournal(Path.of(directory), segmentSizeKb * 1024);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("journal-writer-");
+        threadFactory.setDaemon(true);
+        writer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Journal enabled in {}", Path.of(directory).toAbsolutePath());
+    }
+
+    /**
+     * Feeds every record of the journal to the consumer, oldest first. Called once at startup before
+     * anything is appended; later records go to a new segment, so a torn tail is never appended to.
+     */
+    public synchronized int replay(Consumer<JournalRecord> consumer) throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        journal.replay(payload -> {
+            consumer.accept(JournalRecord.decode(payload));
+            count.incrementAndGet();
+        });
+        journal.roll();
+        return count.get();
+    }
+
+    // Called on the hot path, never blocks
+    public void append(JournalRecord record) {
+        queue.offer(JournalRecord.encode(record));
+        recordsAppended.incrementAndGet();
+    }
+
+    // Writes and forces everything queued so far; runs on the writer thread, or in tests and on shutdown
+    public synchronized void flush() throws IOException {
+        boolean written = false;
+        Object entry;
+        while ((entry = queue.poll()) != null) {
+            if (entry instanceof byte[] payload) {
+                journal.write(payload);
+                recordsWritten.incrementAndGet();
+                bytesWritten.addAndGet(payload.length);
+                written = true;
+            } else if (entry instanceof Compaction compaction) {
+                journal.force();
+                int deleted = journal.deleteBefore(compaction.firstSegment());
+                compacting = false;
+                compactions.incrementAndGet();
+                logger.info("Journal compacted, deleted {} segments", deleted);
+            }
+        }
+        if (written) {
+            journal.force();
+            batchesForced.incrementAndGet();
+        }
+        // The segment count can only grow when a new segment was started
+        if (!compacting && !writer.isShutdown() && journal.getSegmentIndex() != checkedSegment) {
+            checkedSegment = journal.getSegmentIndex();
+            if (journal.segments().size() > compactAfterSegments) {
+                startCompaction();
+            }
+        }
+    }
+
+    private void startCompaction() throws IOException {
+        compacting = true;
+        long firstSegment = journal.roll();
+        // Copied, so the countdown matches the rooms visited
+        List<Room> rooms = new ArrayList<>(roomService.getObject().getRooms());
+        if (rooms.isEmpty()) {
+            queue.offer(new Compaction(firstSegment));
+            return;
+        }
+        // Rooms created from now on are journaled in the new segment anyway
+        AtomicInteger remaining = new AtomicInteger(rooms.size());
+        for (Room room : rooms) {
+            roomDispatcher.dispatch(room, () -> {
+                try {
+                    if (!room.isClosed()) {
+                        append(JournalRecord.State.of(room));
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        queue.offer(new Compaction(firstSegment));
+                    }
+                }
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to write the journal", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            journal.close();
+        }
+    }
+
+    public long getRecordsAppended() {
+        return recordsAppended.get();
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBatchesForced() {
+        return batchesForced.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    public synchronized int getSegmentCount() throws IOException {
+        return journal.segments().size();
+    }
+
+    private record Compaction(long firstSegment) {
+    }
+}
@@ -0,0 +1,26 @@
+package de.lbarden.planningpoker.persistence;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the players and votes of idle rooms in direct buffers outside the Java heap, so a very large
+ * number of rooms costs the garbage collector only their small shells. Direct memory is limited by
+ * -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+@Component
+@ConditionalOnProperty(name = "planningpoker.rooms.store", havingValue = "off-heap")
+public class OffHeapRoomStore extends PassivatingRoomStore {
+
+    @Override
+    protected ByteBuffer allocateChunk(int index, int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    // The native memory is freed when the collector finds the buffer unreachable
+    @Override
+    protected void releaseChunk(int index, ByteBuffer buffer) {
+    }
+}
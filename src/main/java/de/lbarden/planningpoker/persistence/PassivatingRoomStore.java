@@ -0,0 +1,389 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Store that keeps at most residentRooms rooms with their players on the heap. The players and votes of
+ * the other rooms are encoded into chunks provided by the subclass, and the Room object stays behind as
+ * a small shell with its ID, name, version, flags and mailbox.
+ * <p>
+ * Rooms to passivate are picked by a second-chance sweep: every use marks a room, the sweep clears the
+ * mark and only passivates rooms that were not used since their last visit. The sweep runs on a thread
+ * of its own; passivation runs as a task on the room's mailbox, on the room workers like every other
+ * task, and activate() runs on the mailbox before any other task, so the room state is never moved
+ * while it is in use.
+ * <pre>
+ * chunk  = { length:i32 state }
+ * state  = count:i32 { slot:i32 id:string name:string card:u8 }
+ * string = byte length:u16, UTF-8 bytes
+ * </pre>
+ * Space is not compacted within a chunk; a chunk is released once none of its records is in use.
+ */
+public abstract class PassivatingRoomStore implements RoomStore {
+    private static final Logger logger = LoggerFactory.getLogger(PassivatingRoomStore.class);
+
+    @Value("${planningpoker.rooms.resident-rooms:10000}")
+    private int residentRooms = 10000;
+
+    @Value("${planningpoker.rooms.store-chunk-kb:4096}")
+    private int chunkSizeKb = 4096;
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>(16, 0.75f, 2);
+
+    // Rooms in the order the sweep visits them; may hold rooms that were removed or passivated since
+    private final Queue<Room> residents = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger residentCount = new AtomicInteger();
+    private final AtomicInteger passivationsPending = new AtomicInteger();
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+
+    // Guarded by this: where the state of each passivated room is, as chunk index << 32 | offset
+    private final Map<String, Long> locations = new HashMap<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private Chunk current;
+
+    private final AtomicLong passivations = new AtomicLong();
+    private final AtomicLong activations = new AtomicLong();
+
+    // Runs the sweep, which only picks rooms and queues their passivation
+    private Executor passivator = newPassivator();
+
+    // Passivation tasks go to the room workers, so a mailbox never moves to the passivator thread.
+    // Lazy, as the dispatcher itself depends on the store
+    @Lazy
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    // Returns a buffer of the given size that stays valid until it is released
+    protected abstract ByteBuffer allocateChunk(int index, int size) throws IOException;
+
+    protected abstract void releaseChunk(int index, ByteBuffer buffer) throws IOException;
+
+    @Override
+    public Room get(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    @Override
+    public void put(Room room) {
+        rooms.put(room.getId(), room);
+        room.setRecentlyUsed(true);
+        residentCount.incrementAndGet();
+        residents.add(room);
+        requestSweep();
+    }
+
+    @Override
+    public boolean remove(Room room) {
+        if (!rooms.remove(room.getId(), room)) {
+            return false;
+        }
+        synchronized (this) {
+            Long location = locations.remove(room.getId());
+            if (location != null) {
+                free(location);
+            } else if (!room.isPassivated()) {
+                residentCount.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Collection<Room> getRooms() {
+        return Collections.unmodifiableCollection(rooms.values());
+    }
+
+    @Override
+    public int size() {
+        return rooms.size();
+    }
+
+    @Override
+    public boolean isPassivating() {
+        return true;
+    }
+
+    @Override
+    public void activate(Room room) {
+        if (!room.isPassivated()) {
+            if (!room.isRecentlyUsed()) {
+                room.setRecentlyUsed(true);
+            }
+            return;
+        }
+        synchronized (this) {
+            Long location = locations.remove(room.getId());
+            if (location != null) {
+                decode(room, read(location));
+                free(location);
+            }
+            room.setPassivated(false);
+            room.setRecentlyUsed(true);
+            // A room removed while passivated comes back empty and is no longer counted
+            if (rooms.get(room.getId()) == room) {
+                residentCount.incrementAndGet();
+                residents.add(room);
+            }
+        }
+        activations.incrementAndGet();
+        requestSweep();
+    }
+
+    // Hands the sweep to the passivator; requests while one is queued are covered by it
+    private void requestSweep() {
+        int excess = residentCount.get() - passivationsPending.get() - residentRooms;
+        if (excess > 0 && sweepScheduled.compareAndSet(false, true)) {
+            passivator.execute(() -> {
+                sweepScheduled.set(false);
+                sweep();
+            });
+        }
+    }
+
+    // Picks rooms to passivate until the number of resident rooms is back within the limit
+    private void sweep() {
+        int excess = residentCount.get() - passivationsPending.get() - residentRooms;
+        // One round at most, so a room is only passivated if it was not used since the previous sweep,
+        // never the room that is being used right now. The limit is soft until the next sweep
+        int budget = residentCount.get();
+        while (excess > 0 && budget-- > 0) {
+            Room room = residents.poll();
+            if (room == null) {
+                return;
+            }
+            if (room.isClosed() || room.isPassivated()) {
+                continue;
+            }
+            if (room.isRecentlyUsed()) {
+                room.setRecentlyUsed(false);
+                residents.add(room);
+                continue;
+            }
+            excess--;
+            passivationsPending.incrementAndGet();
+            roomDispatcher.dispatchWithoutActivation(room, () -> {
+                try {
+                    passivate(room);
+                } finally {
+                    passivationsPending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    // Runs on the room's mailbox
+    private void passivate(Room room) {
+        if (room.isPassivated() || room.isClosed()) {
+            return;
+        }
+        if (room.isRecentlyUsed()) {
+            // Used again since the sweep chose it
+            residents.add(room);
+            return;
+        }
+        byte[] state = encode(room);
+        synchronized (this) {
+            if (rooms.get(room.getId()) != room) {
+                return;
+            }
+            long location;
+            try {
+                location = write(state);
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Could not passivate room {}: {}", room.getId(), e.getMessage());
+                location = -1;
+            }
+            if (location < 0) {
+                residents.add(room);
+                return;
+            }
+            locations.put(room.getId(), location);
+            room.clearPlayers();
+            room.setPassivated(true);
+            residentCount.decrementAndGet();
+        }
+        passivations.incrementAndGet();
+    }
+
+    // Returns -1 if the state does not fit into a chunk; such rooms stay resident
+    private long write(byte[] state) throws IOException {
+        int size = Integer.BYTES + state.length;
+        if (size > chunkSizeKb * 1024) {
+            return -1;
+        }
+        if (current == null || current.buffer.remaining() < size) {
+            Chunk previous = current;
+            current = allocate();
+            if (previous != null && previous.records == 0) {
+                release(previous);
+            }
+        }
+        int offset = current.buffer.position();
+        current.buffer.putInt(state.length).put(state);
+        current.records++;
+        return (long) current.index << 32 | offset;
+    }
+
+    private ByteBuffer read(long location) {
+        ByteBuffer buffer = chunks.get((int) (location >>> 32)).buffer.duplicate();
+        buffer.position((int) location);
+        int length = buffer.getInt();
+        buffer.limit(buffer.position() + length);
+        return buffer;
+    }
+
+    private void free(long location) {
+        Chunk chunk = chunks.get((int) (location >>> 32));
+        if (--chunk.records == 0 && chunk != current) {
+            release(chunk);
+        }
+    }
+
+    private Chunk allocate() throws IOException {
+        int index = chunks.indexOf(null);
+        if (index < 0) {
+            index = chunks.size();
+            chunks.add(null);
+        }
+        Chunk chunk = new Chunk(index, allocateChunk(index, chunkSizeKb * 1024));
+        chunks.set(index, chunk);
+        return chunk;
+    }
+
+    private void release(Chunk chunk) {
+        chunks.set(chunk.index, null);
+        try {
+            releaseChunk(chunk.index, chunk.buffer);
+        } catch (IOException e) {
+            logger.warn("Could not release room store chunk {}: {}", chunk.index, e.getMessage());
+        }
+    }
+
+    private static byte[] encode(Room room) {
+        Collection<Player> players = room.getPlayerList();
+        List<byte[]> strings = new ArrayList<>(players.size() * 2);
+        int size = Integer.BYTES;
+        for (Player player : players) {
+            byte[] id = utf8(player.getId());
+            byte[] name = utf8(player.getName());
+            strings.add(id);
+            strings.add(name);
+            size += Integer.BYTES + 2 + id.length + 2 + name.length + 1;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(players.size());
+        int i = 0;
+        for (Player player : players) {
+            out.putInt(player.getSlot());
+            putString(out, strings.get(i++));
+            putString(out, strings.get(i++));
+            out.put((byte) room.getVote(player));
+        }
+        return out.array();
+    }
+
+    private static void decode(Room room, ByteBuffer in) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int slot = in.getInt();
+            Player player = new Player(getString(in), getString(in));
+            player.setSlot(slot);
+            room.restorePlayer(player, in.get());
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for the room store: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (passivator instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+        for (Chunk chunk : new ArrayList<>(chunks)) {
+            if (chunk != null) {
+                release(chunk);
+            }
+        }
+        current = null;
+    }
+
+    public int getResidentCount() {
+        return residentCount.get();
+    }
+
+    public long getPassivations() {
+        return passivations.get();
+    }
+
+    public long getActivations() {
+        return activations.get();
+    }
+
+    public synchronized int getChunkCount() {
+        return (int) chunks.stream().filter(chunk -> chunk != null).count();
+    }
+
+    private static ExecutorService newPassivator() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("room-passivator-");
+        threadFactory.setDaemon(true);
+        return Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    private static final class Chunk {
+        final int index;
+        final ByteBuffer buffer;
+        int records;
+
+        Chunk(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Room;
+
+import java.util.Collection;
+
+/**
+ * Registry of the live rooms behind RoomService, selected by planningpoker.rooms.store:
+ * <ul>
+ *     <li>heap (default): all rooms on the heap, see HeapRoomStore</li>
+ *     <li>off-heap: players and votes of idle rooms in direct buffers, see OffHeapRoomStore</li>
+ *     <li>file: players and votes of idle rooms in memory-mapped files, see FileRoomStore</li>
+ * </ul>
+ * A room keeps its identity for as long as it is stored, so session bindings and its mailbox stay valid.
+ * Stores that move room state elsewhere only move players and votes; they bring them back in activate(),
+ * which RoomDispatcher and RoomService call on the room's mailbox before room state is used.
+ */
+public interface RoomStore {
+
+    Room get(String roomId);
+
+    void put(Room room);
+
+    // Removes the room only if it is still the one stored under its ID, and frees whatever it holds
+    boolean remove(Room room);
+
+    // Live view of all rooms, including those whose state is held elsewhere
+    Collection<Room> getRooms();
+
+    int size();
+
+    // Must run on the room's mailbox before the room's players or votes are read or changed
+    default void activate(Room room) {
+    }
+
+    // Whether activate() does anything, so the hot path can skip it
+    default boolean isPassivating() {
+        return false;
+    }
+}
@@ -0,0 +1,154 @@
+package de.lbarden.planningpoker.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal split into fixed-size, memory-mapped segment files named journal-NNNNNNNNNN.seg.
+ * <pre>
+ * segment = { length:i32 crc32:i32 payload } 0:i32
+ * </pre>
+ * Segments are created at full size, so the unwritten rest reads as zeros and a length of 0 ends the
+ * segment. A record that was only partly written before a crash fails its checksum and ends the segment
+ * as well. Writing only copies into the mapping; force() is what makes the records durable.
+ * Not thread-safe: JournalService writes from its single writer thread.
+ */
+class SegmentedJournal implements Closeable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{10})\\.seg");
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private long segmentIndex = -1;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    SegmentedJournal(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+    }
+
+    // Indexes of all segment files, oldest first
+    List<Long> segments() throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    indexes.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        indexes.sort(null);
+        return indexes;
+    }
+
+    // Feeds the payload of every intact record to the consumer, in the order they were written
+    void replay(Consumer<byte[]> consumer) throws IOException {
+        for (long index : segments()) {
+            try (FileChannel file = FileChannel.open(segmentPath(index), StandardOpenOption.READ)) {
+                MappedByteBuffer segment = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                while (segment.remaining() >= HEADER_SIZE) {
+                    int length = segment.getInt();
+                    int checksum = segment.getInt();
+                    if (length <= 0 || length > segment.remaining()) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    segment.get(payload);
+                    if (checksum(payload) != checksum) {
+                        break;
+                    }
+                    consumer.accept(payload);
+                }
+            }
+        }
+    }
+
+    // Starts a new segment after the newest existing one and returns its index
+    long roll() throws IOException {
+        closeSegment();
+        List<Long> existing = segments();
+        segmentIndex = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = FileChannel.open(segmentPath(segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return segmentIndex;
+    }
+
+    // Rolls to a new segment first if the record does not fit into the current one
+    void write(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (size + Integer.BYTES > segmentSize) {
+            throw new IOException("Journal record of " + payload.length + " bytes exceeds the segment size");
+        }
+        if (buffer == null || buffer.remaining() < size + Integer.BYTES) {
+            roll();
+        }
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+    }
+
+    // Flushes written records of the current segment to disk
+    void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    // Deletes all segments older than the given one; returns how many were deleted
+    int deleteBefore(long index) throws IOException {
+        int deleted = 0;
+        for (long segment : segments()) {
+            if (segment < index && Files.deleteIfExists(segmentPath(segment))) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    long getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+
+    // Previous segments were forced when they were current; the mapping is released by the GC
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("journal-%010d.seg", index));
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,202 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Periodically writes all live rooms to a snapshot file, and restores them from it on startup for a
+ * fast warm restart.
+ * <pre>
+ * file = magic:i32 formatVersion:i32 count:i32 { length:i32 stateRecord } crc32:i32
+ * </pre>
+ * State records use the journal encoding (JournalRecord.State); the checksum covers everything before it.
+ * The file is written next to the target, fsynced and then moved over it atomically, so a crash leaves
+ * either the previous or the new snapshot, never a partial one.
+ * <p>
+ * Each room's state is captured by a task on its own mailbox, so rooms keep handling messages while a
+ * snapshot is taken and no room is ever locked for longer than it takes to copy its state. The snapshot
+ * is therefore consistent per room, not across rooms, which is all a restore needs.
+ */
+@Service
+@ConditionalOnProperty(name = "planningpoker.snapshot.enabled", havingValue = "true")
+public class SnapshotService {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+
+    private static final int MAGIC = 0x50505331; // "PPS1"
+    private static final int FORMAT_VERSION = 1;
+
+    @Value("${planningpoker.snapshot.file:data/rooms.snapshot}")
+    private String file = "data/rooms.snapshot";
+
+    // How long to wait for busy mailboxes to capture their room before the snapshot is abandoned
+    @Value("${planningpoker.snapshot.capture-timeout-ms:10000}")
+    private long captureTimeoutMs = 10000;
+
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    // Looked up lazily, RoomService itself depends on the snapshots
+    @Autowired
+    private ObjectProvider<RoomService> roomService;
+
+    private volatile Stats lastSnapshot;
+    private volatile Stats lastRestore;
+
+    /**
+     * Feeds every room of the snapshot file to the consumer; returns the number of rooms.
+     * A missing file restores nothing, a corrupt one is logged and ignored.
+     */
+    public synchronized int load(Consumer<JournalRecord.State> consumer) throws IOException {
+        Path path = Path.of(file);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        byte[] data = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                || checksum(data, data.length - 4) != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            logger.warn("Ignoring unreadable room snapshot {}", path.toAbsolutePath());
+            return 0;
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] record = new byte[buffer.getInt()];
+            buffer.get(record);
+            consumer.accept((JournalRecord.State) JournalRecord.decode(record));
+        }
+        lastRestore = new Stats(count, data.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info("Restored {} rooms from snapshot ({} bytes) in {} ms", count, data.length, lastRestore.millis());
+        return count;
+    }
+
+    @Scheduled(initialDelayString = "${planningpoker.snapshot.interval-ms:30000}",
+            fixedDelayString = "${planningpoker.snapshot.interval-ms:30000}")
+    public void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | InterruptedException e) {
+            logger.error("Failed to write room snapshot", e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Last snapshot before shutdown, so a planned restart loses nothing. Runs while rooms and mailboxes
+    // are still alive, which is no longer the case once beans are destroyed
+    @EventListener(ContextClosedEvent.class)
+    public void shutdownSnapshot() {
+        scheduledSnapshot();
+    }
+
+    // Captures every room on its mailbox and writes the snapshot file; returns false if capturing timed out
+    public synchronized boolean snapshot() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        // Copied, so the count the latch waits for matches the rooms visited
+        List<byte[]> records = capture(new ArrayList<>(roomService.getObject().getRooms()));
+        if (records == null) {
+            logger.warn("Room snapshot abandoned, rooms did not respond within {} ms", captureTimeoutMs);
+            return false;
+        }
+
+        Path target = Path.of(file).toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long size;
+        try (FileOutputStream fileStream = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(fileStream, 64 * 1024), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            // The checksum itself goes around the CheckedOutputStream
+            out.flush();
+            int checksum = (int) crc.getValue();
+            new DataOutputStream(fileStream).writeInt(checksum);
+            size = out.size() + 4L;
+            fileStream.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        lastSnapshot = new Stats(records.size(), size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.debug("Wrote snapshot of {} rooms ({} bytes) in {} ms", records.size(), size, lastSnapshot.millis());
+        return true;
+    }
+
+    // Encoding happens on the mailboxes too, spread over all workers
+    private List<byte[]> capture(Collection<Room> rooms) throws InterruptedException {
+        List<byte[]> records = new ArrayList<>(rooms.size());
+        CountDownLatch captured = new CountDownLatch(rooms.size());
+        for (Room room : rooms) {
+            roomDispatcher.dispatch(room, () -> {
+                try {
+                    if (!room.isClosed()) {
+                        byte[] record = JournalRecord.encode(JournalRecord.State.of(room));
+                        synchronized (records) {
+                            records.add(record);
+                        }
+                    }
+                } finally {
+                    captured.countDown();
+                }
+            });
+        }
+        if (!captured.await(captureTimeoutMs, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        synchronized (records) {
+            return new ArrayList<>(records);
+        }
+    }
+
+    private static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    public Stats getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    public Stats getLastRestore() {
+        return lastRestore;
+    }
+
+    public record Stats(int rooms, long bytes, long millis) {
+    }
+}
@@ -0,0 +1,243 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.model.Deck;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PlayerState;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import org.springframework.util.MimeType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of room snapshots and deltas, an alternative to JSON for clients that ask for it.
+ * <pre>
+ * message  = type:u8 version:varint body
+ * UPDATE   = flags:u8 (1 = revealed, 2 = reset) count:varint { slot:varint id:string name:string card }
+ * PLAYER_VOTED = player card
+ * PLAYER_LEFT  = player
+ * CARDS_REVEALED, ROOM_RESET = (empty)
+ *
+ * player = slot + 1 as varint, or 0 followed by the player ID as string
+ * card   = u8 Deck code: 0 = no card, 1..n = position in Deck.CARDS + 1, 255 = hidden (Deck.HIDDEN)
+ * string = byte length:varint, UTF-8 bytes
+ * varint = unsigned LEB128
+ * </pre>
+ * Players are referred to by the slot the room assigned them, so deltas carry no IDs; clients learn the
+ * slots from snapshots. The room ID is omitted, as every room has its own destination, and so are the
+ * vote statistics, which compact clients fetch from /room/{roomId}/stats after a reveal.
+ * The decoder in static/js/room.js must be kept in sync with this layout.
+ */
+public final class CompactMessageCodec {
+
+    public static final MimeType MIME_TYPE = new MimeType("application", "vnd.planningpoker.compact");
+
+    private static final int TYPE_UPDATE = 1;
+    private static final int TYPE_PLAYER_VOTED = 2;
+    private static final int TYPE_PLAYER_LEFT = 3;
+    private static final int TYPE_CARDS_REVEALED = 4;
+    private static final int TYPE_ROOM_RESET = 5;
+
+    private static final int CARD_HIDDEN = 0xFF;
+
+    private static final int FLAG_REVEALED = 1;
+    private static final int FLAG_RESET = 2;
+
+    private CompactMessageCodec() { }
+
+    public static byte[] encodeSnapshot(Room room) {
+        Collection<Player> players = room.getPlayerList();
+        Writer out = new Writer(16 + players.size() * 32);
+        out.writeByte(TYPE_UPDATE);
+        out.writeVarLong(room.getVersion());
+        out.writeByte((room.isRevealed() ? FLAG_REVEALED : 0) | (room.isReset() ? FLAG_RESET : 0));
+        out.writeVarLong(players.size());
+        for (Player player : players) {
+            out.writeVarLong(player.getSlot());
+            out.writeString(player.getId());
+            out.writeString(player.getName());
+            int vote = room.getVote(player);
+            // Same projection as the JSON snapshot: votes stay hidden until the reveal
+            out.writeByte(vote != Deck.NO_CARD && !room.isRevealed() ? CARD_HIDDEN : vote);
+        }
+        return out.toByteArray();
+    }
+
+    // The delta must already carry its delta type and version (see RoomBroadcaster.broadcastDelta)
+    public static byte[] encodeDelta(Room room, PokerMessage delta) {
+        Writer out = new Writer(16);
+        switch (delta.getType()) {
+            case PLAYER_VOTED -> {
+                out.writeByte(TYPE_PLAYER_VOTED);
+                out.writeVarLong(delta.getVersion());
+                writePlayer(out, room, delta.getPlayerId());
+                writeCard(out, delta.getCard());
+            }
+            case PLAYER_LEFT -> {
+                out.writeByte(TYPE_PLAYER_LEFT);
+                out.writeVarLong(delta.getVersion());
+                writePlayer(out, room, delta.getPlayerId());
+            }
+            case CARDS_REVEALED -> {
+                out.writeByte(TYPE_CARDS_REVEALED);
+                out.writeVarLong(delta.getVersion());
+            }
+            case ROOM_RESET -> {
+                out.writeByte(TYPE_ROOM_RESET);
+                out.writeVarLong(delta.getVersion());
+            }
+            default -> throw new IllegalArgumentException("Not a delta: " + delta.getType());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message; playerSlots maps slots to player IDs and is refilled by every snapshot.
+     * A delta referring to an unknown slot is returned without a player ID.
+     */
+    public static PokerMessage decode(byte[] data, Map<Integer, String> playerSlots) {
+        Reader in = new Reader(data);
+        PokerMessage message = new PokerMessage();
+        int type = in.readByte();
+        message.setVersion(in.readVarLong());
+        switch (type) {
+            case TYPE_UPDATE -> {
+                message.setType(MessageType.UPDATE);
+                int flags = in.readByte();
+                message.setRevealed((flags & FLAG_REVEALED) != 0);
+                message.setReset((flags & FLAG_RESET) != 0);
+                int count = (int) in.readVarLong();
+                List<PlayerState> players = new ArrayList<>(count);
+                playerSlots.clear();
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) in.readVarLong();
+                    PlayerState player = new PlayerState(in.readString(), in.readString(), readCard(in));
+                    playerSlots.put(slot, player.id());
+                    players.add(player);
+                }
+                message.setPlayers(players);
+            }
+            case TYPE_PLAYER_VOTED -> {
+                message.setType(MessageType.PLAYER_VOTED);
+                message.setPlayerId(readPlayer(in, playerSlots));
+                message.setCard(readCard(in));
+            }
+            case TYPE_PLAYER_LEFT -> {
+                message.setType(MessageType.PLAYER_LEFT);
+                message.setPlayerId(readPlayer(in, playerSlots));
+            }
+            case TYPE_CARDS_REVEALED -> message.setType(MessageType.CARDS_REVEALED);
+            case TYPE_ROOM_RESET -> message.setType(MessageType.ROOM_RESET);
+            default -> throw new IllegalArgumentException("Unknown message type code: " + type);
+        }
+        return message;
+    }
+
+    // Players who already left the room have no slot any more and are sent by ID
+    private static void writePlayer(Writer out, Room room, String playerId) {
+        Player player = playerId != null ? room.getPlayers().get(playerId) : null;
+        if (player != null) {
+            out.writeVarLong(player.getSlot() + 1L);
+        } else {
+            out.writeVarLong(0);
+            out.writeString(playerId);
+        }
+    }
+
+    private static String readPlayer(Reader in, Map<Integer, String> playerSlots) {
+        int ref = (int) in.readVarLong();
+        return ref == 0 ? in.readString() : playerSlots.get(ref - 1);
+    }
+
+    // Cards are validated against the deck before they are broadcast
+    private static void writeCard(Writer out, String card) {
+        if (Deck.HIDDEN.equals(card)) {
+            out.writeByte(CARD_HIDDEN);
+            return;
+        }
+        int code = Deck.code(card);
+        if (code < 0) {
+            throw new IllegalArgumentException("Card not in deck: " + card);
+        }
+        out.writeByte(code);
+    }
+
+    private static String readCard(Reader in) {
+        int code = in.readByte();
+        if (code == CARD_HIDDEN) {
+            return Deck.HIDDEN;
+        }
+        if (code > Deck.CARDS.size()) {
+            throw new IllegalArgumentException("Unknown card code: " + code);
+        }
+        return Deck.card(code);
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+        Writer(int size) {
+            super(size);
+        }
+
+        void writeByte(int value) {
+            write(value);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated compact message");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > data.length) {
+                throw new IllegalArgumentException("Truncated compact message");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Knows which room and player every STOMP session joined as, so a session that ends without LEAVE
+ * (closed tab, crashed browser, lost network, missed heartbeats) still removes its player. The player is
+ * removed after a grace period, unless a new session joins as the same player first; that reconnect keeps
+ * the player's card.
+ * <p>
+ * Every lookup is by key. An entry lives until its session ends or its player leaves or is removed, so the
+ * maps only hold connected sessions plus the players whose grace period is running. Ended sessions are
+ * remembered for a minute, because a JOIN may still wait in the room's mailbox when its session ends.
+ */
+@Component
+public class PresenceTracker {
+    // Longer than any JOIN waits in a mailbox
+    private static final long ENDED_SESSION_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    @Value("${planningpoker.presence.grace-period-ms:30000}")
+    private long gracePeriodMs = 30000;
+
+    @Autowired(required = false)
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    @Autowired
+    private RoomService roomService;
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    // Only present when running as a cluster (planningpoker.cluster.enabled)
+    @Autowired(required = false)
+    private ClusterEventBus clusterEventBus;
+
+    // Session ID -> room and players the session joined as
+    private final Map<String, SessionPresence> sessions = new ConcurrentHashMap<>();
+
+    // Player -> ID of the session connected as that player, kept during the grace period after it ended
+    private final Map<PlayerKey, String> players = new ConcurrentHashMap<>();
+
+    // Sessions that ended recently, oldest first, so a JOIN processed after its session ended is not kept
+    private final Map<String, Long> endedSessions = new ConcurrentHashMap<>();
+    private final Queue<String> endedOrder = new ConcurrentLinkedQueue<>();
+    private Clock clock = Clock.systemUTC();
+
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong playersRemoved = new AtomicLong();
+
+    @PostConstruct
+    public void registerClusterHandler() {
+        if (clusterEventBus != null) {
+            clusterEventBus.setSessionClosedHandler(this::sessionEnded);
+        }
+    }
+
+    // Runs on the room's mailbox. Returns true if the player's previous session ended and its grace
+    // period is still running, i.e. this session is a reconnect
+    public boolean join(Room room, String playerId, String sessionId) {
+        SessionPresence presence = sessions.get(sessionId);
+        if (presence == null || presence.room != room) {
+            // A session joining another room has left the previous one
+            SessionPresence previous = sessions.put(sessionId, presence = new SessionPresence(room, room.getId()));
+            if (previous != null) {
+                scheduleRemoval(previous, sessionId);
+            }
+        }
+        // One session may join several players, e.g. simulated ones
+        presence.playerIds.add(playerId);
+        String previousSession = players.put(new PlayerKey(room.getId(), playerId), sessionId);
+        boolean reconnected = previousSession != null && !previousSession.equals(sessionId)
+                && !sessions.containsKey(previousSession);
+        if (reconnected) {
+            reconnects.incrementAndGet();
+        }
+        // The session ended while the JOIN was queued. sessionEnded marks the session before it looks for the
+        // entry, so either it found the entry or this finds the mark, and the players get their grace period
+        if (endedSessions.containsKey(sessionId) && sessions.remove(sessionId, presence)) {
+            disconnects.incrementAndGet();
+            scheduleRemoval(presence, sessionId);
+        }
+        return reconnected;
+    }
+
+    // Runs on the room's mailbox: the player left on purpose, so nothing is kept for a reconnect
+    public void leave(Room room, String playerId, String sessionId) {
+        players.remove(new PlayerKey(room.getId(), playerId));
+        SessionPresence presence = sessions.get(sessionId);
+        if (presence != null && presence.room == room) {
+            presence.playerIds.remove(playerId);
+            if (presence.playerIds.isEmpty()) {
+                sessions.remove(sessionId, presence);
+            }
+        }
+    }
+
+    // Runs on the room's mailbox: whether the session is connected and joined the room as the player
+    public boolean isJoinedAs(Room room, String playerId, String sessionId) {
+        SessionPresence presence = sessions.get(sessionId);
+        return presence != null && presence.room == room && presence.playerIds.contains(playerId)
+                && sessionId.equals(players.get(new PlayerKey(room.getId(), playerId)));
+    }
+
+    // A session of this node sent a message for a room owned by another node, which tracks the players.
+    // This node only remembers the room, to tell its owner when the session ends
+    public void relay(PokerMessage message, String sessionId) {
+        if (message.getType() == MessageType.JOIN && !endedSessions.containsKey(sessionId)) {
+            sessions.putIfAbsent(sessionId, new SessionPresence(null, message.getRoomId()));
+        }
+    }
+
+    // Also published when the broker closes a session whose heartbeats stopped
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        sessionEnded(event.getSessionId());
+    }
+
+    public void sessionEnded(String sessionId) {
+        markEnded(sessionId);
+        SessionPresence presence = sessions.remove(sessionId);
+        if (presence == null) {
+            return;
+        }
+        disconnects.incrementAndGet();
+        if (presence.room == null) {
+            if (clusterEventBus != null) {
+                clusterEventBus.forwardSessionClosed(presence.roomId, sessionId);
+            }
+            return;
+        }
+        scheduleRemoval(presence, sessionId);
+    }
+
+    // Also forgets the sessions that ended longer ago than ENDED_SESSION_TTL_MS
+    private void markEnded(String sessionId) {
+        long now = clock.millis();
+        if (endedSessions.put(sessionId, now) == null) {
+            endedOrder.add(sessionId);
+        }
+        String oldest;
+        while ((oldest = endedOrder.peek()) != null) {
+            Long ended = endedSessions.get(oldest);
+            if (ended != null && ended > now - ENDED_SESSION_TTL_MS) {
+                break;
+            }
+            if (endedOrder.remove(oldest)) {
+                endedSessions.remove(oldest);
+            }
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getPlayersRemoved() {
+        return playersRemoved.get();
+    }
+
+    private void scheduleRemoval(SessionPresence presence, String sessionId) {
+        if (presence.room == null) {
+            return;
+        }
+        Room room = presence.room;
+        Runnable removal = () -> roomDispatcher.dispatch(room, () -> presence.playerIds
+                .forEach(playerId -> removeIfGone(room, playerId, sessionId)));
+        if (gracePeriodMs > 0 && taskScheduler != null) {
+            try {
+                taskScheduler.schedule(removal, Instant.now().plus(Duration.ofMillis(gracePeriodMs)));
+            } catch (TaskRejectedException e) {
+                // The application is shutting down and closes every session; nobody is left to reconnect
+            }
+        } else {
+            removal.run();
+        }
+    }
+
+    // Runs on the room's mailbox once the grace period is over
+    private void removeIfGone(Room room, String playerId, String sessionId) {
+        // Another session joined as the player meanwhile, or the player left
+        if (!players.remove(new PlayerKey(room.getId(), playerId), sessionId)) {
+            return;
+        }
+        if (room.isClosed() || !room.getPlayers().containsKey(playerId)) {
+            return;
+        }
+        roomService.removePlayer(room, playerId);
+        playersRemoved.incrementAndGet();
+        if (!room.isClosed()) {
+            PokerMessage left = new PokerMessage();
+            left.setRoomId(room.getId());
+            left.setPlayerId(playerId);
+            roomBroadcaster.broadcastDelta(room, left, MessageType.PLAYER_LEFT);
+        }
+    }
+
+    // room is null for sessions whose room is owned by another node
+    private static final class SessionPresence {
+        final Room room;
+        final String roomId;
+        final Set<String> playerIds = ConcurrentHashMap.newKeySet();
+
+        SessionPresence(Room room, String roomId) {
+            this.room = room;
+            this.roomId = roomId;
+        }
+    }
+
+    private record PlayerKey(String roomId, String playerId) {
+    }
+}
@@ -0,0 +1,72 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.model.Room;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Rooms ordered by last activity, least recently active first.
+ * Touching a room moves it to the end in O(1), so expiring stale rooms only walks the
+ * rooms that actually expire and stops at the first one that is still active, and evicting
+ * for capacity takes the least recently active rooms from the front in O(1) each.
+ */
+public class RoomActivityIndex {
+
+    // Access-ordered: every get() moves the entry to the tail
+    private final LinkedHashMap<String, Room> rooms = new LinkedHashMap<>(16, 0.75f, true);
+
+    public synchronized void add(Room room, long now) {
+        room.setLastActivity(now);
+        rooms.put(room.getId(), room);
+    }
+
+    public void touch(Room room, long now) {
+        // Activity is tracked at clock-tick resolution, so repeated touches within a tick are free
+        if (room.getLastActivity() >= now) {
+            return;
+        }
+        synchronized (this) {
+            // Rooms removed in the meantime must not be re-added
+            if (rooms.get(room.getId()) == room) {
+                room.setLastActivity(now);
+            }
+        }
+    }
+
+    public synchronized void remove(String roomId) {
+        rooms.remove(roomId);
+    }
+
+    public synchronized int size() {
+        return rooms.size();
+    }
+
+    // Removes and returns all rooms without activity since the cutoff
+    public synchronized List<Room> removeInactiveSince(long cutoff) {
+        List<Room> expired = new ArrayList<>();
+        Iterator<Room> iterator = rooms.values().iterator();
+        while (iterator.hasNext()) {
+            Room room = iterator.next();
+            if (room.getLastActivity() >= cutoff) {
+                break;
+            }
+            iterator.remove();
+            expired.add(room);
+        }
+        return expired;
+    }
+
+    // Removes and returns up to count rooms, least recently active first
+    public synchronized List<Room> removeLeastRecentlyActive(int count) {
+        List<Room> evicted = new ArrayList<>(Math.min(count, rooms.size()));
+        Iterator<Room> iterator = rooms.values().iterator();
+        while (evicted.size() < count && iterator.hasNext()) {
+            evicted.add(iterator.next());
+            iterator.remove();
+        }
+        return evicted;
+    }
+}
@@ -0,0 +1,295 @@
+package de.lbarden.planningpoker.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.model.Deck;
+import de.lbarden.planningpoker.model.PlayerState;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.model.Room.EncodedSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends room state to subscribers of /topic/room/{roomId}.
+ * With a coalescing window configured, vote and leave deltas arriving within the window
+ * are merged into a single broadcast; reveal, reset and snapshots always flush immediately.
+ * Snapshots are encoded to JSON once per room version and the same bytes are sent to every
+ * subscriber and every session asking for a resync until the room changes again.
+ * Until the reveal, snapshots and vote deltas show played cards as Deck.HIDDEN; a voter's own card
+ * goes to its session only (sendOwnCard). The reveal broadcasts the full snapshot.
+ * Called from the room's mailbox, so messages are built from a consistent room state.
+ */
+@Service
+public class RoomBroadcaster {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired(required = false)
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private RoomDispatcher roomDispatcher;
+
+    @Autowired(required = false)
+    private WireFormatNegotiator wireFormatNegotiator = new WireFormatNegotiator();
+
+    // Only present when running as a cluster (planningpoker.cluster.enabled)
+    @Autowired(required = false)
+    private ClusterEventBus clusterEventBus;
+
+    // Same mapper Spring Boot configures for the STOMP message converter
+    @Autowired(required = false)
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    // 0 disables coalescing and every delta is sent as soon as it is produced
+    @Value("${planningpoker.broadcast.coalesce-window-ms:0}")
+    private long coalesceWindowMs;
+
+    // Deltas waiting for the coalescing window of their room to close
+    private final Map<String, PendingBroadcast> pendingBroadcasts = new ConcurrentHashMap<>();
+
+    private final AtomicLong broadcastsSent = new AtomicLong();
+    private final AtomicLong messagesCoalesced = new AtomicLong();
+    private final AtomicLong snapshotsEncoded = new AtomicLong();
+
+    public void broadcastSnapshot(Room room) {
+        if (isCoalescing()) {
+            // The snapshot supersedes anything still waiting in the window
+            PendingBroadcast pending = pendingBroadcasts.remove(room.getId());
+            if (pending != null) {
+                messagesCoalesced.addAndGet(pending.count());
+            }
+        }
+        sendSnapshot(room);
+    }
+
+    // Deltas only carry the fields the incoming message already holds (player, card) plus the new version
+    public void broadcastDelta(Room room, PokerMessage message, MessageType deltaType) {
+        if (deltaType == MessageType.CARDS_REVEALED) {
+            // Clients have not seen the cards so far: the reveal sends them all, with the statistics
+            broadcastSnapshot(room);
+            return;
+        }
+        message.setType(deltaType);
+        message.setVersion(room.getVersion());
+        message.setPlayerName(null);
+        message.setPlayers(null);
+        if (deltaType != MessageType.PLAYER_VOTED) {
+            message.setCard(null);
+        } else if (!room.isRevealed() && message.getCard() != null && !message.getCard().isEmpty()) {
+            message.setCard(Deck.HIDDEN);
+        }
+        message.setStats(null);
+
+        if (!isCoalescing()) {
+            send(room, message);
+            return;
+        }
+
+        if (deltaType == MessageType.ROOM_RESET) {
+            // Everyone is waiting for it, so it never sits in the window
+            PendingBroadcast pending = pendingBroadcasts.remove(room.getId());
+            if (pending == null) {
+                send(room, message);
+            } else {
+                messagesCoalesced.addAndGet(pending.count());
+                sendSnapshot(room);
+            }
+            return;
+        }
+
+        PendingBroadcast pending = pendingBroadcasts.compute(room.getId(),
+                (id, current) -> current == null ? new PendingBroadcast(message, 1) : current.add(message));
+        if (pending.count() == 1) {
+            // This delta opened the window; the flush reads room state, so it goes back through the mailbox
+            taskScheduler.schedule(() -> roomDispatcher.dispatch(room, () -> flush(room)),
+                    Instant.now().plus(Duration.ofMillis(coalesceWindowMs)));
+        }
+    }
+
+    public void sendSnapshotToSession(Room room, String sessionId) {
+        messagingTemplate.send(userQueue(sessionId, "room"), snapshotMessage(room, sessionId));
+    }
+
+    /**
+     * Sends a player's card to the session it was played from, while the snapshots and deltas everyone
+     * else gets hide it. Nothing is sent once the cards are revealed or if the player has no card.
+     * It goes to its own queue: the session's outbound queue takes anything on /user/queue/room for a
+     * snapshot and would drop the room updates still waiting for the session.
+     */
+    public void sendOwnCard(Room room, String playerId, String sessionId) {
+        if (playerId == null || sessionId == null || room.isRevealed()) {
+            return;
+        }
+        String card = room.getCard(playerId);
+        if (card == null || card.isEmpty()) {
+            return;
+        }
+        PokerMessage ownCard = new PokerMessage();
+        ownCard.setType(MessageType.OWN_CARD);
+        ownCard.setRoomId(room.getId());
+        ownCard.setPlayerId(playerId);
+        ownCard.setCard(card);
+        ownCard.setVersion(room.getVersion());
+        try {
+            messagingTemplate.send(userQueue(sessionId, "card"), jsonMessage(objectMapper.writeValueAsBytes(ownCard), null, sessionId));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode own card of player " + playerId, e);
+        }
+    }
+
+    // Returns the JSON snapshot of the room's current version, encoding it only if the room changed since
+    public byte[] getSnapshot(Room room) {
+        return cachedSnapshot(room).payload();
+    }
+
+    // Same as getSnapshot, in the compact wire format
+    public byte[] getCompactSnapshot(Room room) {
+        EncodedSnapshot snapshot = cachedSnapshot(room);
+        if (snapshot.compactPayload() == null) {
+            snapshot = snapshot.withCompactPayload(toTransport(CompactMessageCodec.encodeSnapshot(room)));
+            room.setEncodedSnapshot(snapshot);
+        }
+        return snapshot.compactPayload();
+    }
+
+    public long getBroadcastsSent() {
+        return broadcastsSent.get();
+    }
+
+    public long getMessagesCoalesced() {
+        return messagesCoalesced.get();
+    }
+
+    public long getSnapshotsEncoded() {
+        return snapshotsEncoded.get();
+    }
+
+    // Other nodes may have compact sessions among the subscribers, so in a cluster it is always attached
+    private boolean isCompactNeeded() {
+        return wireFormatNegotiator.isCompactInUse() || clusterEventBus != null;
+    }
+
+    private boolean isCoalescing() {
+        return coalesceWindowMs > 0 && taskScheduler != null;
+    }
+
+    private void flush(Room room) {
+        PendingBroadcast pending = pendingBroadcasts.remove(room.getId());
+        if (pending == null) {
+            return;
+        }
+        if (pending.count() == 1) {
+            send(room, pending.last());
+            return;
+        }
+
+        // Several deltas collapse into one snapshot carrying the latest version
+        messagesCoalesced.addAndGet(pending.count() - 1);
+        sendSnapshot(room);
+    }
+
+    private void sendSnapshot(Room room) {
+        broadcastsSent.incrementAndGet();
+        messagingTemplate.send("/topic/room/" + room.getId(), snapshotMessage(room, null));
+    }
+
+    private Message<byte[]> snapshotMessage(Room room, String sessionId) {
+        return jsonMessage(getSnapshot(room), isCompactNeeded() ? getCompactSnapshot(room) : null, sessionId);
+    }
+
+    private static Message<byte[]> jsonMessage(byte[] payload, byte[] compactPayload, String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        if (sessionId != null) {
+            headers.setSessionId(sessionId);
+        }
+        if (compactPayload != null) {
+            headers.setHeader(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER, compactPayload);
+        }
+        headers.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, headers.getMessageHeaders());
+    }
+
+    // The session ID header lets the user destination resolve to this session without a principal
+    private String userQueue(String sessionId, String queue) {
+        return messagingTemplate.getUserDestinationPrefix() + sessionId + "/queue/" + queue;
+    }
+
+    private EncodedSnapshot cachedSnapshot(Room room) {
+        EncodedSnapshot snapshot = room.getEncodedSnapshot();
+        if (snapshot == null) {
+            snapshot = encodeSnapshot(room);
+            room.setEncodedSnapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+    private EncodedSnapshot encodeSnapshot(Room room) {
+        long version = room.getVersion();
+        PokerMessage snapshot = new PokerMessage();
+        snapshot.setType(MessageType.UPDATE); // Still use UPDATE to ensure client handling
+        snapshot.setRoomId(room.getId());
+        snapshot.setVersion(version);
+        // The one projection every session of this version gets; cards stay hidden until the reveal
+        List<PlayerState> players = room.getPlayerStates();
+        snapshot.setPlayers(room.isRevealed() ? players : players.stream().map(PlayerState::hidden).toList());
+        snapshot.setRevealed(room.isRevealed());
+        snapshot.setReset(room.isReset());
+        snapshot.setStats(room.getVoteStats());
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(snapshot);
+            snapshotsEncoded.incrementAndGet();
+            return new EncodedSnapshot(version, payload, null);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode snapshot of room " + room.getId(), e);
+        }
+    }
+
+    private void send(Room room, PokerMessage message) {
+        broadcastsSent.incrementAndGet();
+        // Broadcast the update only to the clients in this room
+        String destination = "/topic/room/" + message.getRoomId();
+        if (!isCompactNeeded()) {
+            messagingTemplate.convertAndSend(destination, message);
+            return;
+        }
+        // Encoded once here; the negotiator hands it to the compact sessions among the subscribers
+        byte[] compact = toTransport(CompactMessageCodec.encodeDelta(room, message));
+        messagingTemplate.convertAndSend(destination, message, converted -> MessageBuilder.fromMessage(converted)
+                .setHeader(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER, compact)
+                .build());
+    }
+
+    // SockJS only carries text frames, so the binary encoding travels as base64
+    private static byte[] toTransport(byte[] compact) {
+        return Base64.getEncoder().encode(compact);
+    }
+
+    // Deltas collected for one room during the current window; replaced atomically on every add
+    private record PendingBroadcast(PokerMessage last, int count) {
+        PendingBroadcast add(PokerMessage delta) {
+            return new PendingBroadcast(delta, count + 1);
+        }
+    }
+}
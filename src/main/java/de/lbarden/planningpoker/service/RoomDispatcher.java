@@ -0,0 +1,64 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.persistence.RoomStore;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every mutation of a room on that room's mailbox. All reads and writes of room state
+ * (RoomService calls, building broadcasts) must happen inside a dispatched task.
+ */
+@Service
+public class RoomDispatcher {
+
+    private final Executor workers;
+
+    // Stores that move idle rooms off the heap need each task to bring its room back first
+    @Autowired(required = false)
+    private RoomStore roomStore;
+
+    public RoomDispatcher() {
+        this(newWorkerPool());
+    }
+
+    public RoomDispatcher(Executor workers) {
+        this.workers = workers;
+    }
+
+    public void dispatch(Room room, Runnable task) {
+        RoomStore store = roomStore;
+        if (store != null && store.isPassivating()) {
+            room.getMailbox().submit(() -> {
+                store.activate(room);
+                task.run();
+            }, workers);
+        } else {
+            room.getMailbox().submit(task, workers);
+        }
+    }
+
+    // For the store's own tasks, such as passivation, which must not bring the room back first
+    public void dispatchWithoutActivation(Room room, Runnable task) {
+        room.getMailbox().submit(task, workers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workers instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    private static ExecutorService newWorkerPool() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("room-worker-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory);
+    }
+}
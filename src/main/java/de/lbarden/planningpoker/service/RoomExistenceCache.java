@@ -0,0 +1,108 @@
+package de.lbarden.planningpoker.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers whether a room ID exists, so the room page can turn away unknown IDs without a lookup.
+ * The cache holds at most maxSize entries and drops the least recently used one beyond that, and
+ * every entry expires after its TTL, which is shorter for misses than for existing rooms. Requests
+ * for random room IDs therefore only ever replace old entries and never grow the heap.
+ */
+@Component
+public class RoomExistenceCache {
+
+    @Value("${planningpoker.room-cache.max-size:10000}")
+    private int maxSize = 10000;
+
+    @Value("${planningpoker.room-cache.positive-ttl-seconds:300}")
+    private long positiveTtlSeconds = 300;
+
+    @Value("${planningpoker.room-cache.negative-ttl-seconds:30}")
+    private long negativeTtlSeconds = 30;
+
+    private Clock clock = Clock.systemUTC();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // Returns the cached answer, or null if the room ID is unknown or its entry has expired
+    public Boolean get(String roomId) {
+        long now = clock.millis();
+        synchronized (this) {
+            Entry entry = entries.get(roomId);
+            if (entry != null && entry.expiresAt() <= now) {
+                entries.remove(roomId);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.exists();
+        }
+    }
+
+    public void put(String roomId, boolean exists) {
+        long ttlMillis = (exists ? positiveTtlSeconds : negativeTtlSeconds) * 1000;
+        Entry entry = new Entry(exists, clock.millis() + ttlMillis);
+        synchronized (this) {
+            entries.put(roomId, entry);
+        }
+    }
+
+    // Removes all expired entries; returns how many were removed
+    public synchronized int removeExpired() {
+        long now = clock.millis();
+        int removed = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt() <= now) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        evictions.addAndGet(removed);
+        return removed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private record Entry(boolean exists, long expiresAt) {
+    }
+}
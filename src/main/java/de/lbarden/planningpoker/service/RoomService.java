@@ -1,171 +1,334 @@
 package de.lbarden.planningpoker.service;
 
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.metrics.PokerMetrics;
 import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PlayerState;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.model.VoteStats;
+import de.lbarden.planningpoker.persistence.JournalRecord;
+import de.lbarden.planningpoker.persistence.HeapRoomStore;
+import de.lbarden.planningpoker.persistence.JournalService;
+import de.lbarden.planningpoker.persistence.RoomStore;
+import de.lbarden.planningpoker.persistence.SnapshotService;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Registry of all rooms. Methods that change a room must run on that room's mailbox
+ * (see RoomDispatcher); creating, looking up and evicting rooms is safe from any thread.
+ */
 @Service
 public class RoomService {
     private static final Logger logger = LoggerFactory.getLogger(RoomService.class);
-    private static int MAX_ROOMS = 1000; // Prevent unbounded growth
-    private static final long STALE_THRESHOLD_MS = TimeUnit.MINUTES.toMillis(60);
+    // Prevent unbounded growth
+    @Value("${planningpoker.rooms.max-rooms:1000}")
+    private int maxRooms = 1000;
 
-    // Initial capacity and load factor to avoid frequent resizing
-    private final Map<String, Room> rooms = new ConcurrentHashMap<>(16, 0.75f, 2);
-    
-    // Cache for frequently accessed rooms
-    private Room lastAccessedRoom;
-    private String lastAccessedRoomId;
+    // Rooms without activity for this long are removed
+    @Value("${planningpoker.rooms.stale-threshold-minutes:60}")
+    private long staleThresholdMinutes = 60;
+
+    // Selected by planningpoker.rooms.store
+    @Autowired
+    private RoomStore rooms = new HeapRoomStore();
+
+    // Same rooms, least recently active first, so expiry never scans active rooms
+    private final RoomActivityIndex activityIndex = new RoomActivityIndex();
+
+    // Coarse clock advanced by the expiry job, so touching a room on every message needs no clock read
+    private Clock clock = Clock.systemUTC();
+    private volatile long now = clock.millis();
+
+    // Only present in durability mode (planningpoker.journal.enabled)
+    @Autowired(required = false)
+    private JournalService journal;
+
+    // Only present when periodic snapshots are enabled (planningpoker.snapshot.enabled)
+    @Autowired(required = false)
+    private SnapshotService snapshots;
+
+    // Only present when running as a cluster (planningpoker.cluster.enabled)
+    @Autowired(required = false)
+    private ClusterEventBus cluster;
+
+    @Autowired
+    private PokerMetrics metrics = new PokerMetrics();
+
+    private boolean replaying;
+
+    // Rebuilds the rooms before the WebSocket endpoint accepts connections. The journal holds every
+    // mutation up to the last flush, so it wins over a snapshot, which may miss rooms removed since
+    @PostConstruct
+    public void restore() throws IOException {
+        if (journal == null && snapshots == null) {
+            return;
+        }
+        replaying = true;
+        try {
+            if (journal != null) {
+                int records = journal.replay(this::apply);
+                logger.info("Restored {} rooms from {} journal records", rooms.size(), records);
+            } else {
+                snapshots.load(this::apply);
+            }
+        } finally {
+            replaying = false;
+        }
+    }
 
     public Room createRoom(String name) {
         // Check if we've hit the room limit
-        if (rooms.size() >= MAX_ROOMS) {
-            logger.warn("Maximum room limit reached ({}). Cleaning up oldest rooms.", MAX_ROOMS);
-            removeOldestRooms(MAX_ROOMS / 10); // Remove 10% of rooms
+        int overflow = rooms.size() - maxRooms + 1;
+        if (overflow > 0) {
+            logger.warn("Maximum room limit reached ({}). Removing least recently active rooms.", maxRooms);
+            removeOldestRooms(overflow);
         }
         
-        String id = UUID.randomUUID().toString();
+        // In a cluster the ID must hash to this node, so the room lives where it was created
+        String id = cluster != null ? cluster.newRoomId() : UUID.randomUUID().toString();
         Room room = new Room(id, name);
-        rooms.put(id, room);
-        
-        // Update cache
-        lastAccessedRoom = room;
-        lastAccessedRoomId = id;
+        journal(new JournalRecord.Created(id, name));
+        rooms.put(room);
+        activityIndex.add(room, now);
         
         return room;
     }
 
-    public Room getRoom(String roomId) {
+    // Live rooms, for callers that need to visit all of them (e.g. journal compaction)
+    public Collection<Room> getRooms() {
+        return rooms.getRooms();
+    }
 
-        if (roomId == null) {
-            return null;
-        }
+    public int getRoomCount() {
+        return rooms.size();
+    }
 
-        // Check cache first
-        if (roomId.equals(lastAccessedRoomId) && lastAccessedRoom != null) {
-            return lastAccessedRoom;
+    // Visits every room, meant for metrics scraped every few seconds, not for the message path
+    public long getPlayerCount() {
+        long players = 0;
+        for (Room room : rooms.getRooms()) {
+            players += room.getPlayerCount();
         }
-        
-        // Cache miss, get from map
-        Room room = rooms.get(roomId);
-        
-        // Update cache
-        if (room != null) {
-            lastAccessedRoom = room;
-            lastAccessedRoomId = roomId;
+        return players;
+    }
+
+    // Plain lookup; message handling resolves the room once per STOMP session instead of per message
+    public Room getRoom(String roomId) {
+        if (roomId == null) {
+            return null;
         }
-        
-        return room;
+        return rooms.get(roomId);
     }
 
     public void addPlayer(String roomId, Player player) {
         Room room = getRoom(roomId);
         if (room != null) {
-            room.getPlayers().put(player.getId(), player);
-            room.updateLastActivity();
+            addPlayer(room, player);
         }
     }
 
-    public void updatePlayerCard(String roomId, String playerId, String card) {
+    public void addPlayer(Room room, Player player) {
+        rooms.activate(room);
+        room.addPlayer(player.getId(), player);
+        room.incrementVersion();
+        journal(new JournalRecord.Joined(room.getId(), player.getId(), player.getName()));
+        touch(room);
+    }
+
+    public boolean updatePlayerCard(String roomId, String playerId, String card) {
         Room room = getRoom(roomId);
-        if (room != null) {
-            Player player = room.getPlayers().get(playerId);
-            if (player != null) {
-                player.setCard(card);
-                room.updateLastActivity();
-            }
+        return room != null && updatePlayerCard(room, playerId, card);
+    }
+
+    // Returns false if nothing changed because the player is unknown or the card is not in the deck
+    public boolean updatePlayerCard(Room room, String playerId, String card) {
+        rooms.activate(room);
+        if (!room.playCard(playerId, card)) {
+            return false;
         }
+        room.incrementVersion();
+        journal(new JournalRecord.Voted(room.getId(), playerId, card));
+        touch(room);
+        return true;
     }
 
     public void revealCards(String roomId) {
         Room room = getRoom(roomId);
         if (room != null) {
-            room.setRevealed(true);
-            room.updateLastActivity();
+            revealCards(room);
         }
     }
 
+    public void revealCards(Room room) {
+        rooms.activate(room);
+        room.setRevealed(true);
+        room.incrementVersion();
+        journal(new JournalRecord.Revealed(room.getId()));
+        touch(room);
+    }
+
     public void resetRoom(String roomId) {
         Room room = getRoom(roomId);
         if (room != null) {
-            room.setRevealed(false);
-            room.setReset(true);
-            room.getPlayers().values().forEach(player -> player.setCard(""));
-            room.updateLastActivity();
+            resetRoom(room);
         }
     }
 
+    public void resetRoom(Room room) {
+        rooms.activate(room);
+        room.setRevealed(false);
+        room.setReset(true);
+        room.clearCards();
+        room.incrementVersion();
+        journal(new JournalRecord.Reset(room.getId()));
+        touch(room);
+    }
+
     public void startRoom(String roomId) {
         Room room = getRoom(roomId);
         if (room != null) {
-            room.setReset(false);
-            room.updateLastActivity();
+            startRoom(room);
         }
     }
 
+    public void startRoom(Room room) {
+        room.setReset(false);
+        touch(room);
+    }
+
+    // Statistics of the current round; a passivated room is brought back first, so it still has its votes
+    public VoteStats getVoteStats(Room room) {
+        rooms.activate(room);
+        return room.getVoteStats();
+    }
+
     public void removePlayer(String roomId, String playerId) {
         Room room = getRoom(roomId);
         if (room != null) {
-            room.getPlayers().remove(playerId);
-            room.updateLastActivity();
-            
-            // If room is empty, remove it
-            if (room.getPlayers().isEmpty()) {
-                rooms.remove(roomId);
-                // Clear cache if it was the cached room
-                if (roomId.equals(lastAccessedRoomId)) {
-                    lastAccessedRoom = null;
-                    lastAccessedRoomId = null;
-                }
-                logger.info("Removed empty room: {}", roomId);
+            removePlayer(room, playerId);
+        }
+    }
+
+    public void removePlayer(Room room, String playerId) {
+        rooms.activate(room);
+        room.removePlayer(playerId);
+        room.incrementVersion();
+        journal(new JournalRecord.Left(room.getId(), playerId));
+        touch(room);
+
+        // If room is empty, remove it
+        if (room.getPlayers().isEmpty()) {
+            activityIndex.remove(room.getId());
+            discard(room);
+            if (!replaying) {
+                metrics.roomRemovedEmpty();
             }
+            logger.info("Removed empty room: {}", room.getId());
         }
     }
 
-    // Remove oldest rooms when we hit capacity
+    // Remove least recently active rooms when we hit capacity, O(1) per evicted room
     private void removeOldestRooms(int count) {
-        rooms.entrySet().stream()
-            .sorted(Map.Entry.comparingByValue((r1, r2) -> 
-                Long.compare(r1.getLastActivity(), r2.getLastActivity())))
-            .limit(count)
-            .forEach(entry -> {
-                rooms.remove(entry.getKey());
-                logger.info("Removed old room due to capacity: {}", entry.getKey());
-            });
-    }
-
-    // Scheduled task: every minute check and remove rooms inactive for 60 minutes
-    @Scheduled(fixedRate = 60000)
-    public void removeStaleRooms() {
-        long now = System.currentTimeMillis();
-        int removedCount = 0;
-        
-        Iterator<Map.Entry<String, Room>> iterator = rooms.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Room> entry = iterator.next();
-            Room room = entry.getValue();
-            if (now - room.getLastActivity() > STALE_THRESHOLD_MS) {
-                iterator.remove();
-                // Clear cache if it was the cached room
-                if (entry.getKey().equals(lastAccessedRoomId)) {
-                    lastAccessedRoom = null;
-                    lastAccessedRoomId = null;
-                }
-                removedCount++;
+        List<Room> evicted = activityIndex.removeLeastRecentlyActive(count);
+        for (Room room : evicted) {
+            discard(room);
+            logger.info("Removed old room due to capacity: {}", room.getId());
+        }
+        metrics.roomsEvictedForCapacity(evicted.size());
+    }
+
+    // Sessions may still hold a reference to the room, the closed flag tells them it is gone
+    private void discard(Room room) {
+        if (rooms.remove(room)) {
+            journal(new JournalRecord.Removed(room.getId()));
+        }
+        room.setClosed(true);
+    }
+
+    private void journal(JournalRecord record) {
+        if (journal != null && !replaying) {
+            journal.append(record);
+        }
+    }
+
+    // Replays one journal record; records of rooms that no longer exist are skipped
+    private void apply(JournalRecord record) {
+        if (record instanceof JournalRecord.Created created) {
+            restoreRoom(created.roomId(), created.name());
+            return;
+        }
+        if (record instanceof JournalRecord.State state) {
+            Room room = restoreRoom(state.roomId(), state.name());
+            for (PlayerState player : state.players()) {
+                room.addPlayer(player.id(), new Player(player.id(), player.name()));
+                room.playCard(player.id(), player.card());
             }
+            room.setRevealed(state.revealed());
+            room.setVersion(state.version());
+            return;
         }
-        
-        if (removedCount > 0) {
-            logger.info("Removed {} stale rooms", removedCount);
+        Room room = rooms.get(record.roomId());
+        if (room == null) {
+            return;
+        }
+        if (record instanceof JournalRecord.Joined joined) {
+            addPlayer(room, new Player(joined.playerId(), joined.playerName()));
+        } else if (record instanceof JournalRecord.Voted voted) {
+            updatePlayerCard(room, voted.playerId(), voted.card());
+        } else if (record instanceof JournalRecord.Revealed) {
+            revealCards(room);
+        } else if (record instanceof JournalRecord.Reset) {
+            resetRoom(room);
+            startRoom(room);
+        } else if (record instanceof JournalRecord.Left left) {
+            removePlayer(room, left.playerId());
+        } else if (record instanceof JournalRecord.Removed) {
+            activityIndex.remove(room.getId());
+            discard(room);
+        }
+    }
+
+    // Replaces any earlier state of the room, restored rooms count as active from now on
+    private Room restoreRoom(String id, String name) {
+        Room room = new Room(id, name);
+        Room previous = rooms.get(id);
+        if (previous != null) {
+            rooms.remove(previous);
+        }
+        rooms.put(room);
+        activityIndex.add(room, now);
+        return room;
+    }
+
+    private void touch(Room room) {
+        activityIndex.touch(room, now);
+    }
+
+    // Scheduled task: advance the clock and remove rooms inactive for longer than the stale threshold.
+    // Only the expired rooms are visited, so this can run far more often than a full scan could
+    @Scheduled(fixedRateString = "${planningpoker.rooms.expiry-interval-ms:1000}")
+    public void removeStaleRooms() {
+        now = clock.millis();
+        List<Room> expired = activityIndex.removeInactiveSince(now - TimeUnit.MINUTES.toMillis(staleThresholdMinutes));
+
+        expired.forEach(this::discard);
+        metrics.roomsExpired(expired.size());
+
+        if (!expired.isEmpty()) {
+            logger.info("Removed {} stale rooms", expired.size());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+package de.lbarden.planningpoker.service;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Negotiates the wire format per STOMP session. JSON is the default; a client that lists
+ * CompactMessageCodec.MIME_TYPE in the accept header of its CONNECT frame receives room messages
+ * in the compact encoding instead, marked by that content-type.
+ * <p>
+ * Registered on the inbound channel to track sessions and on the outbound channel to swap payloads.
+ * RoomBroadcaster attaches the compact payload to a message as COMPACT_PAYLOAD_HEADER, only while
+ * compact sessions exist, so each message is still encoded once per format, not once per session.
+ */
+@Component
+public class WireFormatNegotiator implements ChannelInterceptor {
+
+    public static final String ACCEPT_HEADER = "accept";
+    public static final String COMPACT_PAYLOAD_HEADER = "compactPayload";
+
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+
+    public boolean isCompactInUse() {
+        return !compactSessions.isEmpty();
+    }
+
+    public boolean isCompact(String sessionId) {
+        return sessionId != null && compactSessions.contains(sessionId);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor stomp = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (stomp != null && stomp.getCommand() == StompCommand.CONNECT) {
+            String accept = stomp.getFirstNativeHeader(ACCEPT_HEADER);
+            if (accept != null && accept.contains(CompactMessageCodec.MIME_TYPE.toString())) {
+                compactSessions.add(stomp.getSessionId());
+            }
+            return message;
+        }
+
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (messageType == SimpMessageType.DISCONNECT) {
+            compactSessions.remove(sessionId);
+        } else if (messageType == SimpMessageType.MESSAGE
+                && message.getHeaders().get(COMPACT_PAYLOAD_HEADER) instanceof byte[] compact
+                && isCompact(sessionId)) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            headers.removeHeader(COMPACT_PAYLOAD_HEADER);
+            headers.setContentType(CompactMessageCodec.MIME_TYPE);
+            return MessageBuilder.createMessage(compact, headers.getMessageHeaders());
+        }
+        return message;
+    }
+}
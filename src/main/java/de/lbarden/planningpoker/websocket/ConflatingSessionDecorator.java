@@ -0,0 +1,252 @@
+package de.lbarden.planningpoker.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Outbound queue of one WebSocket session. Frames are queued and written by a writer thread, so a
+ * client that reads slowly never blocks the thread handing out broadcasts; with ordered publishing
+ * its backlog would otherwise pile up unseen in the broker's per-session queue.
+ * <p>
+ * Room updates are conflated, latest state wins: once conflateAfter of them are waiting, they are all
+ * dropped for a resync marker. When the writer reaches the marker, the session is sent a fresh snapshot,
+ * and updates arriving until then are dropped as well, as the snapshot contains them. A snapshot sent
+ * to the session's resync queue replaces every update still waiting, as a session is in one room.
+ * <p>
+ * A session whose frames exceed the buffer limit, or whose current write has taken longer than the send
+ * time limit, is closed. Its client reconnects and joins again, which sends it the room's state.
+ */
+public class ConflatingSessionDecorator extends WebSocketSessionDecorator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConflatingSessionDecorator.class);
+
+    static final String ROOM_TOPIC = "/topic/room/";
+    static final String RESYNC_QUEUE = "/user/queue/room";
+
+    // Frames written per turn before the writer thread is handed back, as in RoomMailbox
+    private static final int MAX_FRAMES_PER_TURN = 64;
+
+    // Replaced for spectators, which get writers of their own; a drain in progress moves over on its next turn
+    private volatile Executor writers;
+    private final SlowConsumerPolicy policy;
+
+    // Guarded by this
+    private final Deque<Frame> pending = new ArrayDeque<>();
+    private int pendingBytes;
+    private int pendingUpdates;
+    private boolean scheduled;
+    private boolean closed;
+    // Room whose resync is queued or requested; its updates are dropped until the snapshot arrives
+    private String resyncRoomId;
+    private long resyncRequestedAt;
+
+    // System.nanoTime() at which the current write started, 0 while no write is in progress
+    private volatile long writeStartedAt;
+
+    public ConflatingSessionDecorator(WebSocketSession delegate, Executor writers, SlowConsumerPolicy policy) {
+        super(delegate);
+        this.writers = writers;
+        this.policy = policy;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        Frame frame = Frame.of(message);
+        boolean limitExceeded;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            limitExceeded = pendingBytes + frame.size() > policy.getSendBufferLimitBytes() || isSendTimeExceeded();
+            if (!limitExceeded) {
+                enqueue(frame);
+            }
+        }
+        if (limitExceeded) {
+            closeSlowConsumer();
+        }
+    }
+
+    // Called with the lock held
+    private void enqueue(Frame frame) {
+        if (frame.isSnapshot()) {
+            // The snapshot is the room's full state, so nothing waiting for the room is needed any more
+            policy.framesConflated(removePendingUpdates(null));
+            resyncRoomId = null;
+        } else if (frame.roomId() != null) {
+            if (frame.roomId().equals(resyncRoomId) && !isResyncOverdue()) {
+                policy.framesConflated(1);
+                return;
+            }
+            if (pendingUpdates >= policy.getConflateAfter()) {
+                policy.framesConflated(removePendingUpdates(frame.roomId()) + 1);
+                resyncRoomId = frame.roomId();
+                resyncRequestedAt = 0;
+                frame = Frame.resync(frame.roomId());
+            }
+        }
+        pending.add(frame);
+        pendingBytes += frame.size();
+        if (frame.roomId() != null) {
+            pendingUpdates++;
+        }
+        if (!scheduled) {
+            scheduled = true;
+            writers.execute(this::drain);
+        }
+    }
+
+    // Removes the updates and resync markers waiting for the room; null stands for every room
+    private int removePendingUpdates(String roomId) {
+        int removed = 0;
+        for (Iterator<Frame> frames = pending.iterator(); frames.hasNext(); ) {
+            Frame frame = frames.next();
+            if (frame.roomId() != null && !frame.isSnapshot() && (roomId == null || roomId.equals(frame.roomId()))) {
+                frames.remove();
+                pendingBytes -= frame.size();
+                pendingUpdates--;
+                if (!frame.isResync()) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void drain() {
+        for (int written = 0; written < MAX_FRAMES_PER_TURN; written++) {
+            Frame frame;
+            synchronized (this) {
+                frame = closed ? null : pending.poll();
+                if (frame == null) {
+                    scheduled = false;
+                    return;
+                }
+                pendingBytes -= frame.size();
+                if (frame.roomId() != null) {
+                    pendingUpdates--;
+                }
+                if (frame.isResync()) {
+                    resyncRequestedAt = System.nanoTime();
+                }
+            }
+            if (frame.isResync()) {
+                // Everything queued before the marker has been written, so the snapshot is as fresh as it gets
+                policy.requestResync(frame.roomId(), getId());
+                continue;
+            }
+            writeStartedAt = System.nanoTime();
+            try {
+                getDelegate().sendMessage(frame.message());
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Could not send to session {}: {}", getId(), e.getMessage());
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+        // Give other sessions a turn; the remaining frames are picked up by the next one
+        writers.execute(this::drain);
+    }
+
+    void setWriters(Executor writers) {
+        this.writers = writers;
+    }
+
+    // True if a write has been in progress for longer than the send time limit
+    boolean isSendTimeExceeded() {
+        long started = writeStartedAt;
+        return started != 0 && System.nanoTime() - started > policy.getSendTimeLimitNanos();
+    }
+
+    // A resync that never got its snapshot, e.g. because the room was removed, must not drop updates forever
+    private boolean isResyncOverdue() {
+        return resyncRequestedAt != 0 && System.nanoTime() - resyncRequestedAt > policy.getSendTimeLimitNanos();
+    }
+
+    synchronized int getPendingFrames() {
+        return pending.size();
+    }
+
+    void closeSlowConsumer() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+            pendingUpdates = 0;
+        }
+        policy.slowConsumerDisconnected(getId());
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not close session {}: {}", getId(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+        }
+        super.close(status);
+    }
+
+    /**
+     * A queued frame. roomId is set for room updates (/topic/room/{roomId}) and resync markers, and null
+     * for snapshots sent to the resync queue, which carry no room in their destination, and other frames.
+     */
+    record Frame(WebSocketMessage<?> message, String roomId, boolean isSnapshot, boolean isResync, int size) {
+
+        static Frame of(WebSocketMessage<?> message) {
+            if (message instanceof TextMessage text) {
+                String destination = destinationOf(text.getPayload());
+                if (destination != null && destination.startsWith(ROOM_TOPIC)) {
+                    return new Frame(message, destination.substring(ROOM_TOPIC.length()), false, false,
+                            message.getPayloadLength());
+                }
+                if (RESYNC_QUEUE.equals(destination)) {
+                    return new Frame(message, null, true, false, message.getPayloadLength());
+                }
+            }
+            return new Frame(message, null, false, false, message.getPayloadLength());
+        }
+
+        static Frame resync(String roomId) {
+            return new Frame(null, roomId, false, true, 0);
+        }
+
+        // Destination header of a STOMP MESSAGE frame, null for other frames
+        static String destinationOf(String frame) {
+            if (!frame.startsWith("MESSAGE\n")) {
+                return null;
+            }
+            int start = frame.indexOf('\n') + 1;
+            while (start < frame.length()) {
+                int end = frame.indexOf('\n', start);
+                if (end <= start) {
+                    // Blank line: end of the headers
+                    return null;
+                }
+                if (frame.startsWith("destination:", start)) {
+                    return frame.substring(start + "destination:".length(), end);
+                }
+                start = end + 1;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package de.lbarden.planningpoker.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Registered on the inbound channel: limits the room messages (/app/room) each session and each room may
+ * send, per MessageType, with token buckets. A message over a limit never reaches PokerController, so it
+ * costs neither a room task nor a broadcast.
+ * <p>
+ * JOIN, CARD_PLAYED and SYNC over the limit are held instead of dropped, because the client does not send
+ * them again. The latest message per type and player is kept and sent on once both buckets have a token
+ * again, so a player clicking through the deck ends up with the card they clicked last, and a room whose
+ * players all rejoin at once fills up at the room's JOIN rate. A session's held messages are released in
+ * the order they arrived. REVEAL and RESET over the limit are dropped. Limits apply per node; in a cluster
+ * the room limit is enforced by every node that receives messages for the room.
+ */
+@Component
+public class InboundRateLimiter implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboundRateLimiter.class);
+
+    public static final String ROOM_DESTINATION = "/app/room";
+    // Marks a held message that was admitted when it was released
+    static final String ADMITTED_HEADER = "rateLimitAdmitted";
+    // A session holding more than this is flooding; its messages over the limit are dropped from then on
+    static final int MAX_HELD_PER_SESSION = 100;
+
+    public enum Scope { SESSION, ROOM }
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final Set<MessageType> HELD_TYPES = EnumSet.of(MessageType.JOIN, MessageType.CARD_PLAYED, MessageType.SYNC);
+
+    @Value("${planningpoker.rate-limit.enabled:true}")
+    private boolean enabled = true;
+
+    // TYPE:perSecond/burst, comma separated; types not listed are not limited
+    @Value("${planningpoker.rate-limit.session:JOIN:1/3,CARD_PLAYED:5/10,REVEAL:1/3,RESET:1/3,SYNC:2/5}")
+    private String sessionLimits = "JOIN:1/3,CARD_PLAYED:5/10,REVEAL:1/3,RESET:1/3,SYNC:2/5";
+
+    @Value("${planningpoker.rate-limit.room:JOIN:20/50,CARD_PLAYED:50/100,REVEAL:2/5,RESET:2/5}")
+    private String roomLimits = "JOIN:20/50,CARD_PLAYED:50/100,REVEAL:2/5,RESET:2/5";
+
+    private Map<MessageType, Limit> sessionLimitByType = new EnumMap<>(MessageType.class);
+    private Map<MessageType, Limit> roomLimitByType = new EnumMap<>(MessageType.class);
+
+    private final Map<String, Buckets> sessionBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Buckets> roomBuckets = new ConcurrentHashMap<>();
+    // Messages over the limit per session, in arrival order and the latest per target, waiting for tokens.
+    // Only changed inside compute, which keeps a session's messages in order against the release
+    private final Map<String, Map<Target, HeldMessage>> heldMessages = new ConcurrentHashMap<>();
+    private final AtomicInteger heldCount = new AtomicInteger();
+
+    private final AtomicLongArray rejected = new AtomicLongArray(Scope.values().length * TYPES.length);
+    private final AtomicLong messagesMerged = new AtomicLong();
+
+    // Replaced by tests to control refills
+    private LongSupplier nanoClock = System::nanoTime;
+
+    @PostConstruct
+    public void init() {
+        sessionLimitByType = parseLimits(sessionLimits);
+        roomLimitByType = parseLimits(roomLimits);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (messageType == SimpMessageType.DISCONNECT) {
+            sessionBuckets.remove(sessionId);
+            heldMessages.computeIfPresent(sessionId, (id, held) -> {
+                heldCount.addAndGet(-held.size());
+                return null;
+            });
+            return message;
+        }
+        if (!enabled || messageType != SimpMessageType.MESSAGE || sessionId == null
+                || headers.containsKey(ADMITTED_HEADER)
+                || !ROOM_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(headers))
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        Target target = targetOf(payload);
+        if (target == null) {
+            // Left to the controller, which logs what it cannot handle
+            return message;
+        }
+
+        MessageType type = target.type();
+        if (HELD_TYPES.contains(type) && heldMessages.containsKey(sessionId)) {
+            // Queued behind the session's held messages even if it has tokens, so they are applied in order
+            hold(sessionId, target, message, channel);
+            return null;
+        }
+
+        Scope exceeded = tryAcquire(sessionId, target, false);
+        if (exceeded == null) {
+            if (type == MessageType.LEAVE || type == MessageType.RESET) {
+                clearHeld(sessionId, target);
+            }
+            return message;
+        }
+        rejected.incrementAndGet(exceeded.ordinal() * TYPES.length + type.ordinal());
+        if (HELD_TYPES.contains(type)) {
+            hold(sessionId, target, message, channel);
+        } else {
+            logger.debug("Dropped {} of session {} for room {} over the {} limit", type, sessionId,
+                    target.roomId(), exceeded);
+        }
+        return null;
+    }
+
+    // Sends on each session's held messages, oldest first, up to the first one without a token
+    @Scheduled(fixedDelayString = "${planningpoker.rate-limit.release-interval-ms:100}")
+    public void releaseHeldMessages() {
+        for (String sessionId : heldMessages.keySet()) {
+            List<HeldMessage> released = new ArrayList<>();
+            heldMessages.computeIfPresent(sessionId, (id, held) -> {
+                Iterator<Map.Entry<Target, HeldMessage>> entries = held.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<Target, HeldMessage> entry = entries.next();
+                    if (tryAcquire(id, entry.getKey(), true) != null) {
+                        break;
+                    }
+                    entries.remove();
+                    heldCount.decrementAndGet();
+                    released.add(entry.getValue());
+                }
+                return held.isEmpty() ? null : held;
+            });
+            for (HeldMessage message : released) {
+                message.channel().send(admitted(message.message()));
+            }
+        }
+    }
+
+    // Full buckets behave like new ones, so rooms whose buckets have refilled are forgotten
+    @Scheduled(fixedDelayString = "${planningpoker.rate-limit.prune-interval-ms:60000}")
+    public void pruneRoomBuckets() {
+        long now = nanoClock.getAsLong();
+        roomBuckets.values().removeIf(buckets -> buckets.isFull(now));
+    }
+
+    // Messages of the type and scope rejected on arrival, whether they were dropped or held
+    public long getRejected(Scope scope, MessageType type) {
+        return rejected.get(scope.ordinal() * TYPES.length + type.ordinal());
+    }
+
+    // Held messages replaced by a later one or cleared by LEAVE or RESET before they were released
+    public long getMessagesMerged() {
+        return messagesMerged.get();
+    }
+
+    public int getHeldMessages() {
+        return heldCount.get();
+    }
+
+    // Message types limited in either scope
+    public boolean isLimited(MessageType type) {
+        return sessionLimitByType.containsKey(type) || roomLimitByType.containsKey(type);
+    }
+
+    // A later message for the same target replaces the held one in its place
+    private void hold(String sessionId, Target target, Message<?> message, MessageChannel channel) {
+        heldMessages.compute(sessionId, (id, queued) -> {
+            Map<Target, HeldMessage> held = queued != null ? queued : new LinkedHashMap<>();
+            if (held.put(target, new HeldMessage(message, channel)) != null) {
+                messagesMerged.incrementAndGet();
+            } else if (held.size() > MAX_HELD_PER_SESSION) {
+                held.remove(target);
+                logger.debug("Dropped {} of session {} for room {}, which holds {} messages already", target.type(),
+                        id, target.roomId(), MAX_HELD_PER_SESSION);
+            } else {
+                heldCount.incrementAndGet();
+            }
+            return held;
+        });
+    }
+
+    // What the message would undo anyway: LEAVE the player's held messages, RESET the held votes of the room
+    private void clearHeld(String sessionId, Target clearing) {
+        heldMessages.computeIfPresent(sessionId, (id, held) -> {
+            int before = held.size();
+            held.keySet().removeIf(target -> Objects.equals(target.roomId(), clearing.roomId())
+                    && (clearing.type() == MessageType.LEAVE
+                            ? Objects.equals(target.playerId(), clearing.playerId())
+                            : target.type() == MessageType.CARD_PLAYED));
+            int cleared = before - held.size();
+            heldCount.addAndGet(-cleared);
+            messagesMerged.addAndGet(cleared);
+            return held.isEmpty() ? null : held;
+        });
+    }
+
+    // Takes a token from the session's and the room's bucket; returns the scope without one, null if admitted
+    private Scope tryAcquire(String sessionId, Target target, boolean held) {
+        long now = nanoClock.getAsLong();
+        MessageType type = target.type();
+        Limit sessionLimit = sessionLimitByType.get(type);
+        TokenBucket sessionBucket = null;
+        if (sessionLimit != null) {
+            sessionBucket = sessionBuckets.computeIfAbsent(sessionId, id -> new Buckets()).bucket(type, sessionLimit, now);
+            if (!sessionBucket.tryAcquire(now)) {
+                return Scope.SESSION;
+            }
+        }
+        Limit roomLimit = roomLimitByType.get(type);
+        if (roomLimit != null && target.roomId() != null && !roomBuckets.computeIfAbsent(target.roomId(), id -> new Buckets())
+                .bucket(type, roomLimit, now).tryAcquire(now)) {
+            // A new message loses the session's token, which is what it gets for pushing a busy room. A held
+            // message gets it back, or its retries would use up the session's limit while the room is busy
+            if (held && sessionBucket != null) {
+                sessionBucket.giveBack();
+            }
+            return Scope.ROOM;
+        }
+        return null;
+    }
+
+    // A fresh message, without the ordering headers the held one carried when it was received
+    private static Message<?> admitted(Message<?> held) {
+        MessageHeaders headers = held.getHeaders();
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(SimpMessageHeaderAccessor.getSessionId(headers));
+        accessor.setSessionAttributes(SimpMessageHeaderAccessor.getSessionAttributes(headers));
+        accessor.setUser(SimpMessageHeaderAccessor.getUser(headers));
+        accessor.setDestination(SimpMessageHeaderAccessor.getDestination(headers));
+        accessor.setContentType(SimpMessageHeaderAccessor.wrap(held).getContentType());
+        accessor.setHeader(ADMITTED_HEADER, Boolean.TRUE);
+        return MessageBuilder.createMessage(held.getPayload(), accessor.getMessageHeaders());
+    }
+
+    // Reads type, roomId and playerId from the JSON payload without binding the whole message
+    static Target targetOf(byte[] payload) {
+        String type = null;
+        String roomId = null;
+        String playerId = null;
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (type == null || roomId == null || playerId == null)) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("type".equals(field)) {
+                    type = parser.getValueAsString();
+                } else if ("roomId".equals(field)) {
+                    roomId = parser.getValueAsString();
+                } else if ("playerId".equals(field)) {
+                    playerId = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (type == null) {
+            return null;
+        }
+        try {
+            return new Target(MessageType.valueOf(type), roomId, playerId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static Map<MessageType, Limit> parseLimits(String limits) {
+        Map<MessageType, Limit> byType = new EnumMap<>(MessageType.class);
+        for (String entry : limits.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] typeAndLimit = entry.trim().split(":");
+            String[] rateAndBurst = typeAndLimit.length == 2 ? typeAndLimit[1].split("/") : new String[0];
+            if (rateAndBurst.length != 2) {
+                throw new IllegalArgumentException("Rate limit must be TYPE:perSecond/burst, got " + entry);
+            }
+            double perSecond = Double.parseDouble(rateAndBurst[0]);
+            int burst = Integer.parseInt(rateAndBurst[1]);
+            if (perSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate limit needs a positive rate and burst, got " + entry);
+            }
+            byType.put(MessageType.valueOf(typeAndLimit[0].trim()), new Limit(perSecond, burst));
+        }
+        return byType;
+    }
+
+    // What a held message is merged by: one session can play several players, as simulatePlayers does
+    record Target(MessageType type, String roomId, String playerId) { }
+
+    record Limit(double perSecond, int burst) { }
+
+    private record HeldMessage(Message<?> message, MessageChannel channel) { }
+
+    // The buckets of one session or room, created per message type on first use
+    private static final class Buckets {
+        private final TokenBucket[] byType = new TokenBucket[TYPES.length];
+
+        synchronized TokenBucket bucket(MessageType type, Limit limit, long now) {
+            TokenBucket bucket = byType[type.ordinal()];
+            if (bucket == null) {
+                bucket = new TokenBucket(limit, now);
+                byType[type.ordinal()] = bucket;
+            }
+            return bucket;
+        }
+
+        synchronized boolean isFull(long now) {
+            for (TokenBucket bucket : byType) {
+                if (bucket != null && !bucket.isFull(now)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final int burst;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(Limit limit, long now) {
+            tokensPerNano = limit.perSecond() / TimeUnit.SECONDS.toNanos(1);
+            burst = limit.burst();
+            tokens = burst;
+            refilledAt = now;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized void giveBack() {
+            tokens = Math.min(burst, tokens + 1);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package de.lbarden.planningpoker.websocket;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subscription registry of the simple broker. Subscriptions to a room topic ({@code /topic/room/{id}}) are
+ * kept in a map from room ID to the room's subscribers, so finding the recipients of a broadcast is one
+ * lookup however many rooms are live. Every other destination, such as the user queues, goes to Spring's
+ * DefaultSubscriptionRegistry.
+ * <p>
+ * The subscribers of a room are an immutable map that is copied on subscribe and unsubscribe, which happen
+ * once per session, while broadcasts read it without locking or copying. Room topics only match exactly:
+ * a subscription with a pattern such as {@code /topic/room/*} never receives room broadcasts, and selector
+ * headers are ignored for them.
+ */
+public class RoomSubscriptionRegistry extends AbstractSubscriptionRegistry {
+
+    public static final String ROOM_TOPIC = "/topic/room/";
+
+    private static final MultiValueMap<String, String> NO_SUBSCRIBERS =
+            CollectionUtils.unmodifiableMultiValueMap(new LinkedMultiValueMap<>());
+
+    // Room ID -> session ID -> subscription IDs; a room without subscribers has no entry
+    private final Map<String, MultiValueMap<String, String>> rooms = new ConcurrentHashMap<>();
+
+    // Session ID -> subscription ID -> room ID, to clean up on unsubscribe and disconnect
+    private final Map<String, Map<String, String>> sessionRooms = new ConcurrentHashMap<>();
+
+    private final SubscriptionRegistry otherDestinations;
+
+    public RoomSubscriptionRegistry() {
+        this(new DefaultSubscriptionRegistry());
+    }
+
+    public RoomSubscriptionRegistry(SubscriptionRegistry otherDestinations) {
+        this.otherDestinations = otherDestinations;
+    }
+
+    @Override
+    protected void addSubscriptionInternal(String sessionId, String subscriptionId, String destination,
+                                           Message<?> message) {
+        String roomId = roomIdOf(destination);
+        if (roomId == null) {
+            otherDestinations.registerSubscription(message);
+            return;
+        }
+        String previous = sessionRooms.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscriptionId, roomId);
+        if (previous != null) {
+            // A subscription ID reused by the session replaces the subscription it named before
+            rooms.computeIfPresent(previous, (id, subscribers) -> without(subscribers, sessionId, subscriptionId));
+        }
+        rooms.compute(roomId, (id, subscribers) -> with(subscribers, sessionId, subscriptionId));
+    }
+
+    @Override
+    protected void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        Map<String, String> subscriptions = sessionRooms.get(sessionId);
+        String roomId = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+        if (roomId == null) {
+            otherDestinations.unregisterSubscription(message);
+            return;
+        }
+        if (subscriptions.isEmpty()) {
+            sessionRooms.remove(sessionId, subscriptions);
+        }
+        rooms.computeIfPresent(roomId, (id, subscribers) -> without(subscribers, sessionId, subscriptionId));
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subscriptions = sessionRooms.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, roomId) ->
+                    rooms.computeIfPresent(roomId, (id, subscribers) -> without(subscribers, sessionId, subscriptionId)));
+        }
+        otherDestinations.unregisterAllSubscriptions(sessionId);
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        String roomId = roomIdOf(destination);
+        if (roomId == null) {
+            return otherDestinations.findSubscriptions(message);
+        }
+        return rooms.getOrDefault(roomId, NO_SUBSCRIBERS);
+    }
+
+    // Rooms with at least one subscriber
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    // Sessions subscribed to the room, 0 if none
+    public int getSubscriberCount(String roomId) {
+        return rooms.getOrDefault(roomId, NO_SUBSCRIBERS).size();
+    }
+
+    // Room ID of an exact room topic, null for every other destination including patterns
+    static String roomIdOf(String destination) {
+        if (!destination.startsWith(ROOM_TOPIC) || destination.length() == ROOM_TOPIC.length()) {
+            return null;
+        }
+        for (int i = ROOM_TOPIC.length(); i < destination.length(); i++) {
+            char c = destination.charAt(i);
+            if (c == '/' || c == '*' || c == '?' || c == '{') {
+                return null;
+            }
+        }
+        return destination.substring(ROOM_TOPIC.length());
+    }
+
+    private static MultiValueMap<String, String> with(MultiValueMap<String, String> subscribers,
+                                                      String sessionId, String subscriptionId) {
+        MultiValueMap<String, String> copy = copyOf(subscribers);
+        copy.add(sessionId, subscriptionId);
+        return CollectionUtils.unmodifiableMultiValueMap(copy);
+    }
+
+    // Null, which removes the room's entry, once the last subscription is gone
+    private static MultiValueMap<String, String> without(MultiValueMap<String, String> subscribers,
+                                                         String sessionId, String subscriptionId) {
+        MultiValueMap<String, String> copy = copyOf(subscribers);
+        List<String> ids = copy.get(sessionId);
+        if (ids != null) {
+            ids.remove(subscriptionId);
+            if (ids.isEmpty()) {
+                copy.remove(sessionId);
+            }
+        }
+        return copy.isEmpty() ? null : CollectionUtils.unmodifiableMultiValueMap(copy);
+    }
+
+    private static MultiValueMap<String, String> copyOf(MultiValueMap<String, String> subscribers) {
+        MultiValueMap<String, String> copy = new LinkedMultiValueMap<>();
+        if (subscribers != null) {
+            subscribers.forEach((sessionId, ids) -> copy.put(sessionId, new ArrayList<>(ids)));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,200 @@
+package de.lbarden.planningpoker.websocket;
+
+import de.lbarden.planningpoker.cluster.ClusterEventBus;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives every WebSocket session a ConflatingSessionDecorator, below the decorator Spring adds for its own
+ * send limits, and resyncs or disconnects sessions that cannot keep up.
+ */
+@Component
+public class SlowConsumerPolicy implements WebSocketHandlerDecoratorFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerPolicy.class);
+
+    // A write taking longer than this closes the session
+    @Value("${planningpoker.websocket.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs = 10_000;
+
+    // Bytes that may wait for a session before it is closed
+    @Value("${planningpoker.websocket.send-buffer-limit-kb:512}")
+    private int sendBufferLimitKb = 512;
+
+    // Room updates that may wait for a session before they are replaced by a resync
+    @Value("${planningpoker.websocket.conflate-after:8}")
+    private int conflateAfter = 8;
+
+    // Threads writing to the sockets; a slow client holds one for at most the send time limit
+    @Value("${planningpoker.websocket.writer-threads:16}")
+    private int writerThreads = 16;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Looked up lazily: the broadcaster needs the messaging template, which is built after this factory
+    @Autowired
+    private ObjectProvider<RoomService> roomService;
+
+    @Autowired
+    private ObjectProvider<RoomBroadcaster> roomBroadcaster;
+
+    @Autowired
+    private ObjectProvider<RoomDispatcher> roomDispatcher;
+
+    @Autowired
+    private ObjectProvider<ClusterEventBus> clusterEventBus;
+
+    private final Map<String, ConflatingSessionDecorator> sessions = new ConcurrentHashMap<>();
+    private Executor writers;
+
+    private final AtomicLong framesConflated = new AtomicLong();
+    private final AtomicLong resyncsRequested = new AtomicLong();
+    private final AtomicLong slowConsumersDisconnected = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (virtualThreads) {
+            writers = new VirtualThreadTaskExecutor("ws-writer-");
+        } else {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ws-writer-");
+            threadFactory.setDaemon(true);
+            writers = Executors.newFixedThreadPool(writerThreads, threadFactory);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writers instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                ConflatingSessionDecorator decorated = new ConflatingSessionDecorator(session, writers,
+                        SlowConsumerPolicy.this);
+                sessions.put(session.getId(), decorated);
+                super.afterConnectionEstablished(decorated);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    // Closes sessions stuck in a write even when no further frame arrives for them
+    @Scheduled(fixedRateString = "${planningpoker.websocket.slow-consumer-check-ms:1000}")
+    public void closeStuckSessions() {
+        for (ConflatingSessionDecorator session : sessions.values()) {
+            if (session.isSendTimeExceeded()) {
+                session.closeSlowConsumer();
+            }
+        }
+    }
+
+    // Sends the session a fresh snapshot of the room from the room's mailbox, or asks the owning node for one
+    void requestResync(String roomId, String sessionId) {
+        resyncsRequested.incrementAndGet();
+        RoomService rooms = roomService.getIfAvailable();
+        Room room = rooms != null ? rooms.getRoom(roomId) : null;
+        if (room != null) {
+            roomDispatcher.getObject().dispatch(room, () -> roomBroadcaster.getObject().sendSnapshotToSession(room, sessionId));
+            return;
+        }
+        ClusterEventBus cluster = clusterEventBus.getIfAvailable();
+        if (cluster != null && !cluster.isLocal(roomId)) {
+            PokerMessage sync = new PokerMessage();
+            sync.setType(MessageType.SYNC);
+            sync.setRoomId(roomId);
+            cluster.forward(sync, sessionId);
+        }
+    }
+
+    // The session with its outbound queue, null once it is closed
+    WebSocketSession getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    void framesConflated(int count) {
+        if (count > 0) {
+            framesConflated.addAndGet(count);
+        }
+    }
+
+    void slowConsumerDisconnected(String sessionId) {
+        slowConsumersDisconnected.incrementAndGet();
+        logger.warn("Closing session {}: it did not keep up with its messages", sessionId);
+    }
+
+    public long getSendTimeLimitMs() {
+        return sendTimeLimitMs;
+    }
+
+    long getSendTimeLimitNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+    }
+
+    public int getSendBufferLimitBytes() {
+        return sendBufferLimitKb * 1024;
+    }
+
+    int getConflateAfter() {
+        return conflateAfter;
+    }
+
+    public long getFramesConflated() {
+        return framesConflated.get();
+    }
+
+    public long getResyncsRequested() {
+        return resyncsRequested.get();
+    }
+
+    public long getSlowConsumersDisconnected() {
+        return slowConsumersDisconnected.get();
+    }
+
+    // Frames waiting in all session queues
+    public long getPendingFrames() {
+        long pending = 0;
+        for (ConflatingSessionDecorator session : sessions.values()) {
+            pending += session.getPendingFrames();
+        }
+        return pending;
+    }
+}
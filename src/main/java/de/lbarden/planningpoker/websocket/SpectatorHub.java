@@ -0,0 +1,312 @@
+package de.lbarden.planningpoker.websocket;
+
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.service.CompactMessageCodec;
+import de.lbarden.planningpoker.service.WireFormatNegotiator;
+import de.lbarden.planningpoker.websocket.InboundRateLimiter.Target;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only spectators. A session subscribing to /topic/spectate/{roomId} watches the room without joining
+ * it: it is no player, and its subscription is kept here instead of in the broker. Every room broadcast
+ * on this node is encoded once into a complete STOMP frame per wire format and subscription ID, and that
+ * same frame is queued for every spectator of the room. The fan-out runs on its own threads once the
+ * broker has handed the broadcast to the players, and spectator sessions are written by their own writer
+ * threads, so a player's frame never waits behind the audience's.
+ * <p>
+ * Spectators may only send SYNC, which gets them the room's snapshot. Their number is limited per room
+ * and in total; a session subscribing beyond a limit is closed.
+ * <p>
+ * Registered on the inbound channel for the subscriptions and on the broker channel for the broadcasts.
+ */
+@Component
+public class SpectatorHub implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpectatorHub.class);
+
+    public static final String SPECTATE_TOPIC = "/topic/spectate/";
+
+    private static final String MESSAGE_ID_PREFIX = "spectate-";
+
+    // Spectators of one room, 0 disables spectating
+    @Value("${planningpoker.spectators.max-per-room:1000}")
+    private int maxPerRoom = 1000;
+
+    // Spectators of all rooms on this node
+    @Value("${planningpoker.spectators.max-total:10000}")
+    private int maxTotal = 10_000;
+
+    // A room always fans out on the same thread, which keeps its frames in order; 0 fans out on the publisher
+    @Value("${planningpoker.spectators.fanout-threads:2}")
+    private int fanoutThreads = 2;
+
+    // Threads writing to spectator sockets, in place of SlowConsumerPolicy's writers; 0 keeps those
+    @Value("${planningpoker.spectators.writer-threads:2}")
+    private int writerThreads = 2;
+
+    @Autowired(required = false)
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    @Autowired(required = false)
+    private WireFormatNegotiator wireFormatNegotiator = new WireFormatNegotiator();
+
+    // Replaced as a whole on every change, so a fan-out iterates a list nobody modifies
+    private final Map<String, List<Spectator>> audiences = new ConcurrentHashMap<>();
+    // Room and subscription of each spectating session
+    private final Map<String, Subscription> sessionSubscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger spectators = new AtomicInteger();
+
+    private final StompEncoder encoder = new StompEncoder();
+    private ExecutorService[] fanoutExecutors = new ExecutorService[0];
+    private ExecutorService writers;
+
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong framesEncoded = new AtomicLong();
+    private final AtomicLong framesQueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spectator-fanout-");
+        threadFactory.setDaemon(true);
+        fanoutExecutors = new ExecutorService[fanoutThreads];
+        for (int i = 0; i < fanoutThreads; i++) {
+            fanoutExecutors[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        if (writerThreads > 0) {
+            CustomizableThreadFactory writerFactory = new CustomizableThreadFactory("spectator-writer-");
+            writerFactory.setDaemon(true);
+            writers = Executors.newFixedThreadPool(writerThreads, writerFactory);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (ExecutorService executor : fanoutExecutors) {
+            executor.shutdown();
+        }
+        if (writers != null) {
+            writers.shutdown();
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (messageType == null || sessionId == null) {
+            return message;
+        }
+        switch (messageType) {
+            case SUBSCRIBE -> {
+                String destination = SimpMessageHeaderAccessor.getDestination(headers);
+                if (destination == null || !destination.startsWith(SPECTATE_TOPIC)) {
+                    return message;
+                }
+                String roomId = destination.substring(SPECTATE_TOPIC.length());
+                subscribe(roomId, sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+                // The broker never publishes to the spectate topic, so it does not need to know
+                return null;
+            }
+            case UNSUBSCRIBE -> {
+                Subscription subscription = sessionSubscriptions.get(sessionId);
+                if (subscription != null
+                        && subscription.subscriptionId().equals(SimpMessageHeaderAccessor.getSubscriptionId(headers))) {
+                    unsubscribe(sessionId);
+                    return null;
+                }
+            }
+            case DISCONNECT -> unsubscribe(sessionId);
+            case MESSAGE -> {
+                if (sessionSubscriptions.containsKey(sessionId)
+                        && InboundRateLimiter.ROOM_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(headers))
+                        && message.getPayload() instanceof byte[] payload) {
+                    Target target = InboundRateLimiter.targetOf(payload);
+                    if (target == null || target.type() != MessageType.SYNC) {
+                        logger.debug("Dropped message of spectator session {}", sessionId);
+                        return null;
+                    }
+                }
+            }
+            default -> { }
+        }
+        return message;
+    }
+
+    // Room broadcasts, after the broker has passed them on to the subscribed players
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        if (!sent || audiences.isEmpty()) {
+            return;
+        }
+        MessageHeaders headers = message.getHeaders();
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || destination == null || !destination.startsWith(RoomSubscriptionRegistry.ROOM_TOPIC)
+                || !(message.getPayload() instanceof byte[] json)) {
+            return;
+        }
+        String roomId = destination.substring(RoomSubscriptionRegistry.ROOM_TOPIC.length());
+        if (!audiences.containsKey(roomId)) {
+            return;
+        }
+        byte[] compact = headers.get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER) instanceof byte[] bytes ? bytes : null;
+        if (fanoutExecutors.length == 0) {
+            fanOut(roomId, destination, json, compact);
+        } else {
+            fanoutExecutors[Math.floorMod(roomId.hashCode(), fanoutExecutors.length)]
+                    .execute(() -> fanOut(roomId, destination, json, compact));
+        }
+    }
+
+    public int getSpectatorCount() {
+        return spectators.get();
+    }
+
+    // Spectators of the room, 0 if none
+    public int getSpectatorCount(String roomId) {
+        List<Spectator> audience = audiences.get(roomId);
+        return audience != null ? audience.size() : 0;
+    }
+
+    public long getFramesEncoded() {
+        return framesEncoded.get();
+    }
+
+    public long getFramesQueued() {
+        return framesQueued.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void subscribe(String roomId, String sessionId, String subscriptionId) {
+        // A session watches one room; subscribing again moves it
+        unsubscribe(sessionId);
+        WebSocketSession session = slowConsumerPolicy != null ? slowConsumerPolicy.getSession(sessionId) : null;
+        Spectator spectator = new Spectator(sessionId, subscriptionId, wireFormatNegotiator.isCompact(sessionId), session);
+
+        boolean admitted = false;
+        if (spectators.incrementAndGet() <= maxTotal) {
+            List<Spectator> audience = audiences.compute(roomId, (id, current) -> {
+                int size = current != null ? current.size() : 0;
+                if (size >= maxPerRoom) {
+                    return current;
+                }
+                List<Spectator> updated = new ArrayList<>(size + 1);
+                if (current != null) {
+                    updated.addAll(current);
+                }
+                updated.add(spectator);
+                return List.copyOf(updated);
+            });
+            admitted = audience != null && audience.contains(spectator);
+        }
+        if (admitted) {
+            sessionSubscriptions.put(sessionId, new Subscription(roomId, subscriptionId));
+            if (writers != null && session instanceof ConflatingSessionDecorator queue) {
+                queue.setWriters(writers);
+            }
+            return;
+        }
+        spectators.decrementAndGet();
+        rejected.incrementAndGet();
+        logger.info("Closing session {}: spectator limit reached for room {}", sessionId, roomId);
+        if (session != null) {
+            try {
+                session.close(CloseStatus.SERVICE_OVERLOAD);
+            } catch (IOException e) {
+                logger.debug("Could not close session {}: {}", sessionId, e.getMessage());
+            }
+        }
+    }
+
+    private void unsubscribe(String sessionId) {
+        Subscription subscription = sessionSubscriptions.remove(sessionId);
+        if (subscription == null) {
+            return;
+        }
+        audiences.computeIfPresent(subscription.roomId(), (id, current) -> {
+            List<Spectator> updated = new ArrayList<>(current);
+            updated.removeIf(spectator -> spectator.sessionId().equals(sessionId));
+            return updated.isEmpty() ? null : List.copyOf(updated);
+        });
+        spectators.decrementAndGet();
+    }
+
+    private void fanOut(String roomId, String destination, byte[] json, byte[] compact) {
+        List<Spectator> audience = audiences.get(roomId);
+        if (audience == null) {
+            return;
+        }
+        String messageId = MESSAGE_ID_PREFIX + messageIds.incrementAndGet();
+        // Usually one entry: browser spectators all subscribe with the same ID
+        Map<FrameKey, TextMessage> frames = new HashMap<>();
+        for (Spectator spectator : audience) {
+            if (spectator.session() == null) {
+                continue;
+            }
+            boolean useCompact = compact != null && spectator.compact();
+            TextMessage frame = frames.computeIfAbsent(new FrameKey(spectator.subscriptionId(), useCompact),
+                    key -> encode(destination, key.subscriptionId(), messageId, useCompact ? compact : json, useCompact));
+            try {
+                // Only queues the frame; the session's writer thread sends it
+                spectator.session().sendMessage(frame);
+                framesQueued.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Could not send to spectator session {}: {}", spectator.sessionId(), e.getMessage());
+            }
+        }
+        framesEncoded.addAndGet(frames.size());
+    }
+
+    // The same frame StompSubProtocolHandler would write for a broker subscription
+    private TextMessage encode(String destination, String subscriptionId, String messageId, byte[] payload,
+                               boolean compact) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        headers.setDestination(destination);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setMessageId(messageId);
+        headers.setContentType(compact ? CompactMessageCodec.MIME_TYPE : MimeTypeUtils.APPLICATION_JSON);
+        return new TextMessage(encoder.encode(headers.getMessageHeaders(), payload));
+    }
+
+    private record Spectator(String sessionId, String subscriptionId, boolean compact, WebSocketSession session) { }
+
+    private record Subscription(String roomId, String subscriptionId) { }
+
+    private record FrameKey(String subscriptionId, boolean compact) { }
+}
@@ -2,37 +2,326 @@
 let stompClient = null;
 let playerId = null;
 let joined = false;
+let spectating = false; // Watching the room without being one of its players
+// Every spectator uses this subscription ID, so the server can send all of them the same frame
+const SPECTATOR_SUBSCRIPTION = "spectator";
 let lastCards = {}
 let knownPlayers = {} // Track players we've seen before
+let roomState = null; // Local copy of the room, kept current by snapshots and deltas
+let syncPending = false;
+// Until the reveal the server sends played cards as HIDDEN_CARD; only our own card comes to us, as OWN_CARD
+const HIDDEN_CARD = "*";
+let ownCard = null;
+const RECONNECT_DELAY_MS = 2000;
+// Close code of a spectator turned away because the room has as many spectators as the server allows
+const CLOSE_SERVICE_OVERLOAD = 1013;
+let lastCloseCode = null;
+
+// Compact wire format (see CompactMessageCodec.java); JSON stays the default, open the room with ?wire=compact to opt in
+const COMPACT_CONTENT_TYPE = "application/vnd.planningpoker.compact";
+const COMPACT_CARDS = ["0", "1/2", "1", "2", "3", "5", "8", "13", "20", "40", "100", "?"];
+const COMPACT_TYPES = [null, "UPDATE", "PLAYER_VOTED", "PLAYER_LEFT", "CARDS_REVEALED", "ROOM_RESET"];
+const useCompactWire = new URLSearchParams(window.location.search).get("wire") === "compact";
+let compactSlots = new Map(); // Player slot -> player ID, refilled by every compact snapshot
 
 function connect(callback) {
     let socket = new SockJS('/ws');
+    // stomp.js does not pass the close code on to the error callback
+    lastCloseCode = null;
+    socket.addEventListener('close', event => lastCloseCode = event.code);
     stompClient = Stomp.over(socket);
-    stompClient.connect({}, function (frame) {
+    let connectHeaders = useCompactWire ? {accept: COMPACT_CONTENT_TYPE} : {};
+    stompClient.connect(connectHeaders, function (frame) {
         console.log('Connected: ' + frame);
-        // Subscribe to updates for this room only
-        stompClient.subscribe('/topic/room/' + roomId, function (message) {
-            let data = JSON.parse(message.body);
-            updateRoom(data);
+        if (spectating) {
+            // Same room messages, from the server's spectator fan-out instead of the broker
+            stompClient.subscribe('/topic/spectate/' + roomId, function (message) {
+                handleMessage(parseMessage(message));
+            }, {id: SPECTATOR_SUBSCRIPTION});
+        } else {
+            // Subscribe to updates for this room only
+            stompClient.subscribe('/topic/room/' + roomId, function (message) {
+                handleMessage(parseMessage(message));
+            });
+            // Our own card, which the room's messages hide until the reveal
+            stompClient.subscribe('/user/queue/card', function (message) {
+                handleMessage(parseMessage(message));
+            });
+        }
+        // Resync snapshots are sent to this session only
+        stompClient.subscribe('/user/queue/room', function (message) {
+            handleMessage(parseMessage(message));
         });
         if (callback) {
             callback();
         }
+    }, function (error) {
+        // SockJS runs stomp.js's close handler, which calls this, before the close listener above
+        setTimeout(() => connectionLost(error, callback), 0);
     });
 }
 
-function updateRoom(data) {
-    let playersList = document.getElementById('playersList');
-    playersList.innerHTML = "";
+// Reconnect and join again as the same player, which the server keeps for a grace period
+function connectionLost(error, callback) {
+    if (spectating && lastCloseCode === CLOSE_SERVICE_OVERLOAD) {
+        // The room is full of spectators; reconnecting would only be turned away again
+        spectating = false;
+        document.getElementById('gameArea').style.display = 'none';
+        document.getElementById('gameArea').classList.remove('spectating');
+        document.getElementById('userForm').style.display = 'block';
+        alert("Der Raum ist voll: Es können keine weiteren Zuschauer zusehen. Versuch es später noch einmal.");
+        return;
+    }
+    if (joined || spectating) {
+        console.log('Connection lost, reconnecting: ' + error);
+        setTimeout(() => connect(callback), RECONNECT_DELAY_MS);
+    }
+}
+
+// The server marks every message with its format, so both can arrive on the same subscription
+function parseMessage(message) {
+    let contentType = message.headers['content-type'] || "";
+    if (contentType.indexOf(COMPACT_CONTENT_TYPE) === 0) {
+        return decodeCompact(message.body);
+    }
+    return JSON.parse(message.body);
+}
+
+/**
+ * Decodes a base64 encoded compact message into the same shape as its JSON counterpart.
+ * A delta referring to an unknown player slot has no playerId, which makes handleMessage resync.
+ */
+function decodeCompact(body) {
+    let binary = atob(body);
+    let bytes = new Uint8Array(binary.length);
+    for (let i = 0; i < binary.length; i++) {
+        bytes[i] = binary.charCodeAt(i);
+    }
+    let position = 0;
+    let utf8 = new TextDecoder();
+
+    function readByte() {
+        return bytes[position++];
+    }
+    function readVarint() {
+        let value = 0;
+        let multiplier = 1;
+        let b;
+        do {
+            b = readByte();
+            value += (b & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while (b & 0x80);
+        return value;
+    }
+    function readString() {
+        let length = readVarint();
+        let value = utf8.decode(bytes.subarray(position, position + length));
+        position += length;
+        return value;
+    }
+    function readCard() {
+        let code = readByte();
+        if (code === 255) {
+            return HIDDEN_CARD;
+        }
+        return code === 0 ? "" : COMPACT_CARDS[code - 1];
+    }
+    function readPlayer() {
+        let ref = readVarint();
+        return ref === 0 ? readString() : compactSlots.get(ref - 1);
+    }
+
+    let data = {type: COMPACT_TYPES[readByte()], version: readVarint()};
+    switch (data.type) {
+        case "UPDATE":
+            let flags = readByte();
+            data.revealed = (flags & 1) !== 0;
+            data.reset = (flags & 2) !== 0;
+            data.players = [];
+            compactSlots = new Map();
+            let count = readVarint();
+            for (let i = 0; i < count; i++) {
+                let slot = readVarint();
+                let player = {id: readString(), name: readString(), card: readCard()};
+                compactSlots.set(slot, player.id);
+                data.players.push(player);
+            }
+            break;
+        case "PLAYER_VOTED":
+            data.playerId = readPlayer();
+            data.card = readCard();
+            break;
+        case "PLAYER_LEFT":
+            data.playerId = readPlayer();
+            break;
+    }
+    return data;
+}
+
+/**
+ * Applies a full snapshot (UPDATE) or a delta to the local room state.
+ * Deltas must arrive with consecutive versions; on a gap the server is asked for a snapshot.
+ */
+function handleMessage(data) {
+    if (data.type === "OWN_CARD") {
+        // Sent to this session only and outside the version sequence
+        ownCard = data.card;
+        if (roomState !== null) {
+            renderRoomState();
+        }
+        return;
+    }
+    if (data.type === "UPDATE") {
+        if (roomState !== null && data.version < roomState.version) {
+            return; // Older than what we already have
+        }
+        roomState = {
+            version: data.version,
+            revealed: data.revealed,
+            players: new Map(data.players.map(player => [player.id, player])),
+            // Compact snapshots carry no stats, so the vote count is taken from the players once
+            votes: data.stats ? data.stats.votes : data.players.filter(player => hasCard(player)).length,
+            stats: data.stats && data.stats.histogram ? data.stats : null
+        };
+        syncPending = false;
+        if (data.reset) {
+            lastCards = {}
+        }
+        let self = roomState.players.get(playerId);
+        if (!self || !hasCard(self)) {
+            ownCard = null;
+        }
+        if (data.revealed && !roomState.stats) {
+            fetchStats(data.version); // The reveal arrives as a snapshot, which the compact format sends without stats
+        }
+        renderRoomState();
+        return;
+    }
+
+    if (roomState === null || data.version <= roomState.version) {
+        return; // Nothing to apply the delta to yet, or already applied
+    }
+    if (data.version !== roomState.version + 1) {
+        requestSync();
+        return;
+    }
+
+    switch (data.type) {
+        case "PLAYER_VOTED":
+            let player = roomState.players.get(data.playerId);
+            if (!player) {
+                requestSync();
+                return;
+            }
+            // Keep the vote count current without scanning all players
+            if (!hasCard(player) && data.card) {
+                roomState.votes++;
+            }
+            player.card = data.card;
+            if (data.playerId === playerId && !data.card) {
+                ownCard = null;
+            }
+            break;
+        case "PLAYER_LEFT":
+            let leaving = roomState.players.get(data.playerId);
+            if (leaving && hasCard(leaving)) {
+                roomState.votes--;
+            }
+            roomState.players.delete(data.playerId);
+            break;
+        case "CARDS_REVEALED":
+            roomState.revealed = true;
+            if (data.stats) {
+                roomState.stats = data.stats;
+            } else {
+                fetchStats(data.version); // The compact format leaves the stats out
+            }
+            break;
+        case "ROOM_RESET":
+            roomState.revealed = false;
+            roomState.players.forEach(player => player.card = "");
+            roomState.votes = 0;
+            roomState.stats = null;
+            lastCards = {}
+            ownCard = null;
+            break;
+        default:
+            console.warn("Unknown message type: " + data.type);
+            return;
+    }
+    roomState.version = data.version;
+    renderRoomState();
+}
+
+function requestSync() {
+    if (syncPending) return;
+    syncPending = true;
+    sendMessage({
+        type: "SYNC",
+        roomId: roomId,
+        playerId: playerId, // The server sends our hidden card again along with the snapshot
+        version: roomState !== null ? roomState.version : 0
+    });
+}
+
+function hasCard(player) {
+    return player.card && player.card.trim() !== "";
+}
+
+function fetchStats(version) {
+    fetch('/room/' + roomId + '/stats')
+        .then(response => response.json())
+        .then(stats => {
+            if (roomState !== null && roomState.version === version) {
+                roomState.stats = stats;
+                renderRoomState();
+            }
+        });
+}
 
-    // Check whether every player in the room has played a card.
-    let allPlayed = data.players.length > 0 && data.players.every(function(player) {
-        return player.card && player.card.trim() !== "";
+function renderRoomState() {
+    // Our own card is shown face up even though the room state only says that we voted
+    let players = Array.from(roomState.players.values(), player =>
+        player.id === playerId && player.card === HIDDEN_CARD && ownCard ? {...player, card: ownCard} : player);
+    updateRoom({
+        players: players,
+        revealed: roomState.revealed,
+        votes: roomState.votes
     });
+    renderStats(roomState.revealed ? roomState.stats : null);
+}
 
-    if (data.reset) {
-        lastCards = {}
+// Shows the statistics the server computed for the revealed round
+function renderStats(stats) {
+    let statsArea = document.getElementById('voteStats');
+    if (!stats || !stats.histogram) {
+        statsArea.style.display = 'none';
+        return;
+    }
+    let parts = [];
+    if (stats.mean !== undefined) {
+        parts.push("Ø " + formatNumber(stats.mean));
+        parts.push("Median " + formatNumber(stats.median));
+        parts.push("Spanne " + formatNumber(stats.spread));
+    }
+    if (stats.consensus) {
+        parts.push("Konsens!");
     }
+    statsArea.textContent = parts.join(" · ");
+    statsArea.style.display = parts.length > 0 ? 'block' : 'none';
+}
+
+function formatNumber(value) {
+    return Number.isInteger(value) ? String(value) : value.toFixed(1);
+}
+
+function updateRoom(data) {
+    let playersList = document.getElementById('playersList');
+    playersList.innerHTML = "";
+
+    // Every player has played a card; the vote count is kept up to date by handleMessage
+    let allPlayed = data.players.length > 0 && data.votes === data.players.length;
 
     // Get the Reveal Cards button and card area.
     let revealBtn = document.getElementById('revealBtn');
@@ -176,6 +465,13 @@ function sendMessage(message) {
 }
 
 function leaveRoom() {
+    if (spectating) {
+        spectating = false;
+        stompClient.disconnect(() => {
+            console.log("Stopped watching the room.");
+        });
+        return;
+    }
     if (!joined) return;
 
     let leaveMsg = {
@@ -184,6 +480,7 @@ function leaveRoom() {
         playerId: playerId
     };
     sendMessage(leaveMsg);
+    joined = false;
 
     if (stompClient !== null) {
         stompClient.disconnect(() => {
@@ -216,6 +513,18 @@ document.addEventListener('DOMContentLoaded', function () {
         joined = true;
     });
 
+    // Watch the room: a spectator never joins, it only asks for the room's state
+    document.getElementById('spectateBtn').addEventListener('click', function () {
+        spectating = true;
+        connect(function() {
+            syncPending = false;
+            requestSync();
+        });
+        document.getElementById('userForm').style.display = 'none';
+        document.getElementById('gameArea').classList.add('spectating');
+        document.getElementById('gameArea').style.display = 'block';
+    });
+
     // When a card is clicked, send the card selection
     document.querySelectorAll('.card').forEach(function(cardElem) {
         cardElem.addEventListener('click', function () {
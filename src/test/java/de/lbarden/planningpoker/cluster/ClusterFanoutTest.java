@@ -0,0 +1,166 @@
+package de.lbarden.planningpoker.cluster;
+
+import de.lbarden.planningpoker.PlanningPokerApplication;
+import de.lbarden.planningpoker.model.Deck;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts two nodes in this JVM, connected by the loopback transport, with real STOMP clients on both.
+ */
+public class ClusterFanoutTest {
+
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    @BeforeAll
+    static void startNodes() {
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodeB.close();
+        nodeA.close();
+    }
+
+    @AfterEach
+    void disconnect() {
+        sessions.forEach(StompSession::disconnect);
+    }
+
+    @Test
+    @DisplayName("A vote cast on node A reaches subscribers on node B")
+    void testVoteReachesOtherNode() throws Exception {
+        Room room = nodeA.getBean(RoomService.class).createRoom("Cluster Room");
+        assertEquals("node-a", nodeB.getBean(ClusterEventBus.class).ownerOf(room.getId()));
+        assertNull(nodeB.getBean(RoomService.class).getRoom(room.getId()), "Node B must not hold the room");
+
+        // Bob joins through node B; his snapshot coming back proves the subscription is in place
+        BlockingQueue<PokerMessage> receivedOnB = new LinkedBlockingQueue<>();
+        StompSession bob = connect(nodeB, room.getId(), receivedOnB);
+        bob.send("/app/room", message(MessageType.JOIN, room.getId(), "bob"));
+        assertEquals(MessageType.UPDATE, awaitType(receivedOnB, MessageType.UPDATE).getType());
+
+        StompSession alice = connect(nodeA, room.getId(), new LinkedBlockingQueue<>());
+        alice.send("/app/room", message(MessageType.JOIN, room.getId(), "alice"));
+        PokerMessage vote = message(MessageType.CARD_PLAYED, room.getId(), "alice");
+        vote.setCard("8");
+        alice.send("/app/room", vote);
+
+        PokerMessage delta = awaitType(receivedOnB, MessageType.PLAYER_VOTED);
+        assertEquals("alice", delta.getPlayerId());
+        // Bob sees that Alice voted, not what
+        assertEquals(Deck.HIDDEN, delta.getCard());
+        assertEquals(room.getVersion(), delta.getVersion());
+    }
+
+    @Test
+    @DisplayName("Messages sent to another node are handled by the room owner")
+    void testMessagesRoutedToOwner() throws Exception {
+        Room room = nodeA.getBean(RoomService.class).createRoom("Routed Room");
+
+        BlockingQueue<PokerMessage> receivedOnA = new LinkedBlockingQueue<>();
+        StompSession observer = connect(nodeA, room.getId(), receivedOnA);
+        observer.send("/app/room", message(MessageType.JOIN, room.getId(), "observer"));
+        awaitType(receivedOnA, MessageType.UPDATE);
+
+        StompSession carol = connect(nodeB, room.getId(), new LinkedBlockingQueue<>());
+        carol.send("/app/room", message(MessageType.JOIN, room.getId(), "carol"));
+        PokerMessage vote = message(MessageType.CARD_PLAYED, room.getId(), "carol");
+        vote.setCard("3");
+        carol.send("/app/room", vote);
+
+        PokerMessage delta = awaitType(receivedOnA, MessageType.PLAYER_VOTED);
+        assertEquals("carol", delta.getPlayerId());
+        assertTrue(room.getPlayers().containsKey("carol"));
+        assertTrue(nodeB.getBean(ClusterEventBus.class).getMutationsForwarded() >= 2);
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId) {
+        // Command line arguments, because defaults set on the builder lose to application.properties
+        return new SpringApplicationBuilder(PlanningPokerApplication.class)
+                .run("--server.port=0",
+                        "--spring.application.name=" + nodeId,
+                        "--planningpoker.cluster.enabled=true",
+                        "--planningpoker.cluster.node-id=" + nodeId,
+                        "--planningpoker.cluster.members=node-a,node-b",
+                        "--planningpoker.cluster.loopback-network=cluster-fanout-test");
+    }
+
+    private StompSession connect(ConfigurableApplicationContext node, String roomId, BlockingQueue<PokerMessage> received)
+            throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        StompSession session = stompClient.connectAsync("http://localhost:" + port + "/ws",
+                new StompSessionHandlerAdapter() {}).get(5, TimeUnit.SECONDS);
+        sessions.add(session);
+        session.subscribe("/topic/room/" + roomId, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return PokerMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((PokerMessage) payload);
+            }
+        });
+        return session;
+    }
+
+    private static PokerMessage message(MessageType type, String roomId, String playerId) {
+        PokerMessage message = new PokerMessage();
+        message.setType(type);
+        message.setRoomId(roomId);
+        message.setPlayerId(playerId);
+        message.setPlayerName(playerId);
+        return message;
+    }
+
+    // Skips messages of other types, e.g. the snapshots of players joining
+    private static PokerMessage awaitType(BlockingQueue<PokerMessage> received, MessageType type) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        PokerMessage message;
+        while ((message = received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+            if (message.getType() == type) {
+                return message;
+            }
+        }
+        fail("No " + type + " message received within 5 s");
+        return null;
+    }
+}
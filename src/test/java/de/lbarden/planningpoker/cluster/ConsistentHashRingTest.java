@@ -0,0 +1,67 @@
+package de.lbarden.planningpoker.cluster;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 30_000;
+
+    @Test
+    @DisplayName("Keys are spread evenly over the nodes")
+    void testEvenSpread() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-1", "node-2", "node-3"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.ownerOf(UUID.randomUUID().toString()), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        // Within 25% of a third each
+        counts.values().forEach(count -> assertTrue(Math.abs(count - KEYS / 3) < KEYS / 12, "Share: " + count));
+    }
+
+    @Test
+    @DisplayName("Adding a node only moves keys to the new node")
+    void testAddingNodeMovesFewKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node-1", "node-2", "node-3"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node-1", "node-2", "node-3", "node-4"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = UUID.randomUUID().toString();
+            String owner = after.ownerOf(key);
+            if (!owner.equals(before.ownerOf(key))) {
+                assertEquals("node-4", owner);
+                moved++;
+            }
+        }
+        // About a quarter of the keys belong to the new node
+        assertTrue(moved > KEYS / 6 && moved < KEYS / 3, "Moved: " + moved);
+    }
+
+    @Test
+    @DisplayName("Every ring built from the same members agrees on the owner")
+    void testOwnerIsStable() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-1", "node-2"), 64);
+        ConsistentHashRing sameMembers = new ConsistentHashRing(List.of("node-2", "node-1"), 64);
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "room-" + i;
+            assertEquals(ring.ownerOf(key), sameMembers.ownerOf(key));
+        }
+    }
+
+    @Test
+    @DisplayName("A ring needs at least one node")
+    void testEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of(), 128));
+    }
+}
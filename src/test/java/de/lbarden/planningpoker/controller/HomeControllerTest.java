@@ -1,6 +1,8 @@
 package de.lbarden.planningpoker.controller;
 
+import de.lbarden.planningpoker.model.Player;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomExistenceCache;
 import de.lbarden.planningpoker.service.RoomService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -11,14 +13,15 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
-import org.springframework.util.ReflectionUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import java.lang.reflect.Field;
-import java.util.concurrent.ConcurrentMap;
+import java.time.Clock;
+import java.time.Duration;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -33,6 +36,12 @@ public class HomeControllerTest {
     @Mock
     private RoomService roomService;
     
+    @Autowired
+    private RoomExistenceCache roomExistenceCache;
+
+    @Autowired
+    private RoomService realRoomService;
+
     @Autowired
     private HomeController homeController;
 
@@ -72,48 +81,91 @@ public class HomeControllerTest {
     @DisplayName("Room Route uses existence cache for known nonexistent rooms")
     void testRoomRoute_UsesExistenceCache() throws Exception {
         // Set up the cache to know a room doesn't exist
-        Field cacheField = ReflectionUtils.findField(HomeController.class, "roomExistenceCache");
-        cacheField.setAccessible(true);
-        ConcurrentMap<String, Boolean> cache = (ConcurrentMap<String, Boolean>) cacheField.get(homeController);
-        cache.put("nonexistent", false);
+        roomExistenceCache.put("nonexistent", false);
+        long hitsBefore = roomExistenceCache.getHits();
         
         // Access the nonexistent room
         mockMvc.perform(get("/room/nonexistent"))
                 .andExpect(status().is3xxRedirection())
                 .andExpect(redirectedUrl("/"));
         
-        // Verify RoomService was not called
-        verify(roomService, never()).getRoom("nonexistent");
+        // The answer came from the cache
+        assertEquals(hitsBefore + 1, roomExistenceCache.getHits());
     }
     
     @Test
-    @DisplayName("Admin prune cache removes nonexistent rooms")
+    @DisplayName("Admin prune cache removes expired entries")
     void testPruneCache() throws Exception {
-        // Set up the cache with both existing and nonexistent rooms
-        Field cacheField = ReflectionUtils.findField(HomeController.class, "roomExistenceCache");
-        cacheField.setAccessible(true);
-        ConcurrentMap<String, Boolean> cache = (ConcurrentMap<String, Boolean>) cacheField.get(homeController);
-        
-        cache.put("existing", true);
-        cache.put("nonexistent1", true);
-        cache.put("nonexistent2", false);
-        
-        // Mock RoomService to return room only for "existing"
-        when(roomService.getRoom("existing")).thenReturn(new Room("existing", "Existing Room"));
-        when(roomService.getRoom("nonexistent1")).thenReturn(null);
-        when(roomService.getRoom("nonexistent2")).thenReturn(null);
-        
-        // Call the prune endpoint
-        MvcResult result = mockMvc.perform(get("/admin/prune-cache"))
+        roomExistenceCache.put("existing", true);
+        roomExistenceCache.put("nonexistent", false);
+        int sizeBefore = roomExistenceCache.size();
+
+        // Move past the negative TTL but not the positive one
+        Clock clock = (Clock) ReflectionTestUtils.getField(roomExistenceCache, "clock");
+        ReflectionTestUtils.setField(roomExistenceCache, "clock", Clock.offset(clock, Duration.ofMinutes(1)));
+        try {
+            MvcResult result = mockMvc.perform(get("/admin/prune-cache"))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            String response = result.getResponse().getContentAsString();
+            assertTrue(response.contains(sizeBefore + " -> "), "Should report the size before pruning");
+            assertNull(roomExistenceCache.get("nonexistent"));
+            assertEquals(Boolean.TRUE, roomExistenceCache.get("existing"));
+        } finally {
+            ReflectionTestUtils.setField(roomExistenceCache, "clock", clock);
+        }
+    }
+
+    @Test
+    @DisplayName("Admin cache stats exposes hits, misses and evictions")
+    void testCacheStats() throws Exception {
+        mockMvc.perform(get("/admin/cache-stats"))
                 .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").isNumber())
+                .andExpect(jsonPath("$.hits").isNumber())
+                .andExpect(jsonPath("$.misses").isNumber())
+                .andExpect(jsonPath("$.evictions").isNumber());
+    }
+
+    @Test
+    @DisplayName("Room stats endpoint returns the statistics of an existing room")
+    void testRoomStats() throws Exception {
+        mockMvc.perform(asyncDispatch(mockMvc.perform(get("/room/nonexistent/stats")).andReturn()))
+                .andExpect(status().isNotFound());
+
+        Room room = realRoomService.createRoom("Stats Room");
+        realRoomService.addPlayer(room, new Player("player-1", "Alice"));
+        realRoomService.updatePlayerCard(room, "player-1", "8");
+        realRoomService.revealCards(room);
+
+        // Answered once the room's mailbox has computed the stats
+        MvcResult result = mockMvc.perform(get("/room/" + room.getId() + "/stats"))
+                .andExpect(request().asyncStarted())
                 .andReturn();
-        
-        // Verify result contains correct counts
-        String response = result.getResponse().getContentAsString();
-        assertTrue(response.contains("3 -> 0"), "Should indicate 3 rooms before, 0 after");
-        
-        // Verify only the existing room remains in cache
-        assertEquals(0, cache.size());
-        assertFalse(cache.containsKey("existing"));
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.votes").value(1))
+                .andExpect(jsonPath("$.histogram['8']").value(1))
+                .andExpect(jsonPath("$.mean").value(8.0))
+                .andExpect(jsonPath("$.consensus").value(true));
+    }
+
+    @Test
+    @DisplayName("Room stats fail the request when computing them throws")
+    void testRoomStatsFailure() throws Exception {
+        Room room = realRoomService.createRoom("Broken Stats Room");
+        RoomService failing = spy(realRoomService);
+        doThrow(new IllegalStateException("broken")).when(failing).getVoteStats(room);
+        Object original = ReflectionTestUtils.getField(homeController, "roomService");
+        ReflectionTestUtils.setField(homeController, "roomService", failing);
+        try {
+            MvcResult result = mockMvc.perform(get("/room/" + room.getId() + "/stats"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            assertInstanceOf(IllegalStateException.class, result.getAsyncResult(5000));
+        } finally {
+            ReflectionTestUtils.setField(homeController, "roomService", original);
+        }
     }
-}
\ No newline at end of file
+}
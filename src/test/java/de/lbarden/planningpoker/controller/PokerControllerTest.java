@@ -1,18 +1,29 @@
 package de.lbarden.planningpoker.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.Deck;
 import de.lbarden.planningpoker.model.PokerMessage;
 import de.lbarden.planningpoker.model.PokerMessage.MessageType;
 import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PlayerState;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.model.RoomMailbox;
+import de.lbarden.planningpoker.service.PresenceTracker;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomDispatcher;
 import de.lbarden.planningpoker.service.RoomService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,18 +38,61 @@ class PokerControllerTest {
     @Mock
     private SimpMessagingTemplate messagingTemplate;
 
+    @Spy
+    private RoomBroadcaster roomBroadcaster = new RoomBroadcaster();
+
+    // Runs mailbox tasks on the calling thread so the assertions see their effects
+    @Spy
+    private RoomDispatcher roomDispatcher = new RoomDispatcher(Runnable::run);
+
+    @Spy
+    private PresenceTracker presenceTracker = new PresenceTracker();
+
     @InjectMocks
     private PokerController pokerController;
 
     @Mock
     private Room testRoom;
 
+    private SimpMessageHeaderAccessor headerAccessor;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(roomBroadcaster, "messagingTemplate", messagingTemplate);
+        headerAccessor = SimpMessageHeaderAccessor.create();
+        headerAccessor.setSessionId("session1");
+        headerAccessor.setSessionAttributes(new HashMap<>());
         // Assume the Room constructor takes an id and name
 //        testRoom = new Room("testRoom", "Test Room");
         when(roomService.getRoom("testRoom")).thenReturn(testRoom);
+        when(testRoom.getMailbox()).thenReturn(new RoomMailbox());
+        when(testRoom.getId()).thenReturn("testRoom");
+        when(roomService.updatePlayerCard(any(Room.class), anyString(), anyString())).thenReturn(true);
+        when(messagingTemplate.getUserDestinationPrefix()).thenReturn("/user/");
+    }
+
+    // Snapshots are sent pre-encoded, so tests decode the payload to inspect them
+    private PokerMessage decode(Message<?> message) throws Exception {
+        return new ObjectMapper().readValue((byte[]) message.getPayload(), PokerMessage.class);
+    }
+
+    @Test
+    @DisplayName("A player reconnecting within the grace period is not added again")
+    void testJoinAfterReconnect() {
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.JOIN);
+        message.setRoomId("testRoom");
+        message.setPlayerId("player1");
+        message.setPlayerName("Alice");
+        doReturn(true).when(presenceTracker).join(testRoom, "player1", "session1");
+        when(testRoom.getPlayers()).thenReturn(Map.of("player1", new Player("player1", "Alice")));
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        // The player keeps their card; the reconnected client still gets a snapshot
+        verify(roomService, never()).addPlayer(any(Room.class), any(Player.class));
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), any(Message.class));
     }
 
     @Test
@@ -50,17 +104,17 @@ class PokerControllerTest {
         message.setPlayerId("player1");
         message.setPlayerName("Alice");
 
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
 
         // Verify that addPlayer was called
         ArgumentCaptor<Player> playerCaptor = ArgumentCaptor.forClass(Player.class);
-        verify(roomService).addPlayer(eq("testRoom"), playerCaptor.capture());
+        verify(roomService).addPlayer(eq(testRoom), playerCaptor.capture());
         Player addedPlayer = playerCaptor.getValue();
         assertEquals("player1", addedPlayer.getId());
         assertEquals("Alice", addedPlayer.getName());
 
         // Verify that an update message is sent
-        verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), any(Message.class));
     }
 
     @Test
@@ -72,9 +126,9 @@ class PokerControllerTest {
         message.setPlayerId("player1");
         message.setCard("5");
 
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
 
-        verify(roomService).updatePlayerCard("testRoom", "player1", "5");
+        verify(roomService).updatePlayerCard(testRoom, "player1", "5");
         verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
     }
 
@@ -85,10 +139,10 @@ class PokerControllerTest {
         message.setType(MessageType.REVEAL);
         message.setRoomId("testRoom");
 
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
 
-        verify(roomService).revealCards("testRoom");
-        verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
+        verify(roomService).revealCards(testRoom);
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), any(Message.class));
     }
 
     @Test
@@ -98,9 +152,9 @@ class PokerControllerTest {
         message.setType(MessageType.RESET);
         message.setRoomId("testRoom");
 
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
 
-        verify(roomService).resetRoom("testRoom");
+        verify(roomService).resetRoom(testRoom);
         verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
     }
 
@@ -112,9 +166,9 @@ class PokerControllerTest {
         message.setRoomId("testRoom");
         message.setPlayerId("player1");
 
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
 
-        verify(roomService).removePlayer("testRoom", "player1");
+        verify(roomService).removePlayer(testRoom, "player1");
         verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
     }
     
@@ -127,11 +181,11 @@ class PokerControllerTest {
         message.setPlayerName("Alice");
         // PlayerId is intentionally not set
         
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
         
         // Verify that a player ID is generated
         ArgumentCaptor<Player> playerCaptor = ArgumentCaptor.forClass(Player.class);
-        verify(roomService).addPlayer(eq("testRoom"), playerCaptor.capture());
+        verify(roomService).addPlayer(eq(testRoom), playerCaptor.capture());
         Player addedPlayer = playerCaptor.getValue();
         
         assertNotNull(addedPlayer.getId());
@@ -151,11 +205,12 @@ class PokerControllerTest {
         message.setPlayerName("Alice");
         
         // Should not throw exception
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
         
         // Verify no service methods were called
-        verify(roomService, never()).addPlayer(anyString(), any(Player.class));
+        verify(roomService, never()).addPlayer(any(Room.class), any(Player.class));
         verify(messagingTemplate, never()).convertAndSend(anyString(), any(PokerMessage.class));
+        verify(messagingTemplate, never()).send(anyString(), any(Message.class));
     }
     
     @Test
@@ -165,44 +220,45 @@ class PokerControllerTest {
         message.setType(MessageType.UPDATE); // UPDATE is for internal use
         message.setRoomId("testRoom");
         
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
         
         // Verify the service call was made to update the client
-        verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), any(Message.class));
         
         // But no room service methods were called
-        verify(roomService, never()).addPlayer(anyString(), any(Player.class));
-        verify(roomService, never()).updatePlayerCard(anyString(), anyString(), anyString());
-        verify(roomService, never()).revealCards(anyString());
-        verify(roomService, never()).resetRoom(anyString());
-        verify(roomService, never()).removePlayer(anyString(), anyString());
+        verify(roomService, never()).addPlayer(any(Room.class), any(Player.class));
+        verify(roomService, never()).updatePlayerCard(any(Room.class), anyString(), anyString());
+        verify(roomService, never()).revealCards(any(Room.class));
+        verify(roomService, never()).resetRoom(any(Room.class));
+        verify(roomService, never()).removePlayer(any(Room.class), anyString());
     }
     
     @Test
     @DisplayName("Test error handling when exception occurs")
-    void testErrorHandling() {
+    void testErrorHandling() throws Exception {
         PokerMessage message = new PokerMessage();
         message.setType(MessageType.CARD_PLAYED);
         message.setRoomId("testRoom");
         message.setPlayerId("player1");
+        message.setCard("5");
         
         // Setup room players collection
-        Collection<Player> players = Collections.singletonList(new Player("player1", "Alice"));
+        List<PlayerState> players = List.of(new PlayerState("player1", "Alice", ""));
         testRoom.setRevealed(true);
-        when(testRoom.getPlayerList()).thenReturn(players);
+        when(testRoom.getPlayerStates()).thenReturn(players);
         
         // Make updatePlayerCard throw an exception
         doThrow(new RuntimeException("Test exception")).when(roomService)
-            .updatePlayerCard(anyString(), anyString(), anyString());
+            .updatePlayerCard(any(Room.class), anyString(), anyString());
         
         // Should not throw exception
-        pokerController.handleRoomMessage(message);
+        pokerController.handleRoomMessage(message, headerAccessor);
         
         // Verify error message was sent
-        ArgumentCaptor<PokerMessage> messageCaptor = ArgumentCaptor.forClass(PokerMessage.class);
-        verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), messageCaptor.capture());
+        ArgumentCaptor<Message<?>> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), messageCaptor.capture());
         
-        PokerMessage errorMessage = messageCaptor.getValue();
+        PokerMessage errorMessage = decode(messageCaptor.getValue());
         assertEquals(MessageType.UPDATE, errorMessage.getType());
         assertEquals("testRoom", errorMessage.getRoomId());
         assertEquals(players, errorMessage.getPlayers());
@@ -210,24 +266,215 @@ class PokerControllerTest {
     }
     
     @Test
-    @DisplayName("Test message reuse in controller")
-    void testMessageReuse() {
+    @DisplayName("Test REVEAL broadcasts the full snapshot with every card")
+    void testRevealBroadcastsFullSnapshot() throws Exception {
         PokerMessage message = new PokerMessage();
         message.setType(MessageType.REVEAL);
         message.setRoomId("testRoom");
-        
-        // Setup room players collection
-        Collection<Player> players = Collections.singletonList(new Player("player1", "Alice"));
-        when(testRoom.getPlayerList()).thenReturn(players);
-        
-        pokerController.handleRoomMessage(message);
-        
-        // Verify the same message object is reused
+
+        List<PlayerState> players = List.of(new PlayerState("player1", "Alice", "5"),
+                new PlayerState("player2", "Bob", ""));
+        when(testRoom.getPlayerStates()).thenReturn(players);
+        when(testRoom.isRevealed()).thenReturn(true);
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        ArgumentCaptor<Message<?>> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), messageCaptor.capture());
+        verify(messagingTemplate, never()).convertAndSend(eq("/topic/room/testRoom"), any(PokerMessage.class));
+
+        PokerMessage snapshot = decode(messageCaptor.getValue());
+        assertEquals(MessageType.UPDATE, snapshot.getType());
+        assertTrue(snapshot.isRevealed());
+        assertEquals(players, snapshot.getPlayers());
+    }
+
+    @Test
+    @DisplayName("Test snapshots before the reveal hide the cards")
+    void testSnapshotHidesCardsBeforeReveal() throws Exception {
+        when(testRoom.getPlayerStates()).thenReturn(List.of(new PlayerState("player1", "Alice", "13"),
+                new PlayerState("player2", "Bob", "")));
+
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.SYNC);
+        message.setRoomId("testRoom");
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        ArgumentCaptor<Message<?>> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/user/session1/queue/room"), messageCaptor.capture());
+        assertEquals(List.of(new PlayerState("player1", "Alice", Deck.HIDDEN), new PlayerState("player2", "Bob", "")),
+                decode(messageCaptor.getValue()).getPlayers());
+    }
+
+    @Test
+    @DisplayName("Test CARD_PLAYED broadcasts a versioned delta with the card hidden, and the card to the voter")
+    void testCardPlayedBroadcastsDelta() throws Exception {
+        when(testRoom.getVersion()).thenReturn(7L);
+        when(testRoom.getCard("player1")).thenReturn("5");
+
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.CARD_PLAYED);
+        message.setRoomId("testRoom");
+        message.setPlayerId("player1");
+        message.setCard("5");
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
         ArgumentCaptor<PokerMessage> messageCaptor = ArgumentCaptor.forClass(PokerMessage.class);
         verify(messagingTemplate).convertAndSend(eq("/topic/room/testRoom"), messageCaptor.capture());
-        
-        PokerMessage sentMessage = messageCaptor.getValue();
-        assertSame(message, sentMessage, "The same message object should be reused");
-        assertEquals(MessageType.UPDATE, sentMessage.getType());
+
+        PokerMessage delta = messageCaptor.getValue();
+        assertEquals(MessageType.PLAYER_VOTED, delta.getType());
+        assertEquals(7L, delta.getVersion());
+        assertEquals("player1", delta.getPlayerId());
+        assertEquals(Deck.HIDDEN, delta.getCard());
+        assertNull(delta.getPlayers(), "A delta must not carry the player list");
+        verify(testRoom, never()).getPlayerStates();
+
+        ArgumentCaptor<Message<?>> ownCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/user/session1/queue/card"), ownCaptor.capture());
+        PokerMessage ownCard = decode(ownCaptor.getValue());
+        assertEquals(MessageType.OWN_CARD, ownCard.getType());
+        assertEquals("5", ownCard.getCard());
+        assertEquals("session1", SimpMessageHeaderAccessor.getSessionId(ownCaptor.getValue().getHeaders()));
+    }
+
+    @Test
+    @DisplayName("Test JOIN broadcasts a full versioned snapshot")
+    void testJoinBroadcastsSnapshot() throws Exception {
+        List<PlayerState> players = List.of(new PlayerState("player1", "Alice", ""));
+        when(testRoom.getVersion()).thenReturn(3L);
+        when(testRoom.getPlayerStates()).thenReturn(players);
+
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.JOIN);
+        message.setRoomId("testRoom");
+        message.setPlayerId("player1");
+        message.setPlayerName("Alice");
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        ArgumentCaptor<Message<?>> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/topic/room/testRoom"), messageCaptor.capture());
+
+        PokerMessage snapshot = decode(messageCaptor.getValue());
+        assertEquals(MessageType.UPDATE, snapshot.getType());
+        assertEquals(3L, snapshot.getVersion());
+        assertEquals(players, snapshot.getPlayers());
+    }
+
+    @Test
+    @DisplayName("Test SYNC sends a snapshot to the requesting session only")
+    void testSyncSendsSnapshotToSession() throws Exception {
+        List<PlayerState> players = List.of(new PlayerState("player1", "Alice", ""));
+        when(testRoom.getVersion()).thenReturn(12L);
+        when(testRoom.getPlayerStates()).thenReturn(players);
+
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.SYNC);
+        message.setRoomId("testRoom");
+        message.setVersion(9L);
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        ArgumentCaptor<Message<?>> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/user/session1/queue/room"), messageCaptor.capture());
+        verify(messagingTemplate, never()).send(eq("/topic/room/testRoom"), any(Message.class));
+
+        PokerMessage snapshot = decode(messageCaptor.getValue());
+        assertEquals("session1", SimpMessageHeaderAccessor.getSessionId(messageCaptor.getValue().getHeaders()));
+        assertEquals(MessageType.UPDATE, snapshot.getType());
+        assertEquals(12L, snapshot.getVersion());
+        assertEquals(players, snapshot.getPlayers());
+    }
+
+    @Test
+    @DisplayName("Test SYNC sends the hidden card only to the session joined as the player")
+    void testSyncSendsOwnCardToPlayerSessionOnly() {
+        when(testRoom.getCard("player1")).thenReturn("5");
+        PokerMessage join = new PokerMessage();
+        join.setType(MessageType.JOIN);
+        join.setRoomId("testRoom");
+        join.setPlayerId("player1");
+        join.setPlayerName("Alice");
+        pokerController.handleRoomMessage(join, headerAccessor);
+
+        // Another session, e.g. a spectator, asking for a snapshot in the player's name
+        SimpMessageHeaderAccessor foreign = SimpMessageHeaderAccessor.create();
+        foreign.setSessionId("session2");
+        foreign.setSessionAttributes(new HashMap<>());
+        PokerMessage sync = new PokerMessage();
+        sync.setType(MessageType.SYNC);
+        sync.setRoomId("testRoom");
+        sync.setPlayerId("player1");
+        pokerController.handleRoomMessage(sync, foreign);
+
+        verify(messagingTemplate).send(eq("/user/session2/queue/room"), any(Message.class));
+        verify(messagingTemplate, never()).send(eq("/user/session2/queue/card"), any(Message.class));
+
+        pokerController.handleRoomMessage(sync, headerAccessor);
+        // Once after the JOIN and once after the player's own SYNC
+        verify(messagingTemplate, times(2)).send(eq("/user/session1/queue/card"), any(Message.class));
+    }
+
+    @Test
+    @DisplayName("Test JOIN binds the room to the session and later messages skip the lookup")
+    void testRoomIsBoundToSessionAtJoin() {
+        Room room = new Room("boundRoom", "Bound Room");
+        when(roomService.getRoom("boundRoom")).thenReturn(room);
+
+        PokerMessage join = new PokerMessage();
+        join.setType(MessageType.JOIN);
+        join.setRoomId("boundRoom");
+        join.setPlayerId("player1");
+        join.setPlayerName("Alice");
+        pokerController.handleRoomMessage(join, headerAccessor);
+
+        assertSame(room, headerAccessor.getSessionAttributes().get(PokerController.ROOM_ATTRIBUTE));
+
+        PokerMessage vote = new PokerMessage();
+        vote.setType(MessageType.CARD_PLAYED);
+        vote.setRoomId("boundRoom");
+        vote.setPlayerId("player1");
+        vote.setCard("3");
+        pokerController.handleRoomMessage(vote, headerAccessor);
+
+        verify(roomService, times(1)).getRoom("boundRoom");
+        verify(roomService).updatePlayerCard(room, "player1", "3");
+    }
+
+    @Test
+    @DisplayName("Test a closed bound room is looked up again")
+    void testClosedBoundRoomIsNotReused() {
+        Room closedRoom = new Room("boundRoom", "Bound Room");
+        closedRoom.setClosed(true);
+        headerAccessor.getSessionAttributes().put(PokerController.ROOM_ATTRIBUTE, closedRoom);
+        when(roomService.getRoom("boundRoom")).thenReturn(null);
+
+        PokerMessage vote = new PokerMessage();
+        vote.setType(MessageType.CARD_PLAYED);
+        vote.setRoomId("boundRoom");
+        vote.setPlayerId("player1");
+        vote.setCard("3");
+        pokerController.handleRoomMessage(vote, headerAccessor);
+
+        verify(roomService).getRoom("boundRoom");
+        verify(roomService, never()).updatePlayerCard(any(Room.class), anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("Test a card outside the deck is not broadcast")
+    void testInvalidCardIsNotBroadcast() {
+        when(roomService.updatePlayerCard(testRoom, "player1", "42")).thenReturn(false);
+
+        PokerMessage message = new PokerMessage();
+        message.setType(MessageType.CARD_PLAYED);
+        message.setRoomId("testRoom");
+        message.setPlayerId("player1");
+        message.setCard("42");
+
+        pokerController.handleRoomMessage(message, headerAccessor);
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(PokerMessage.class));
     }
-}
\ No newline at end of file
+}
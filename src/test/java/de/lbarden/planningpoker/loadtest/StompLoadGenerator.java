@@ -0,0 +1,585 @@
+package de.lbarden.planningpoker.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.lbarden.planningpoker.PlanningPokerApplication;
+import de.lbarden.planningpoker.model.PlayerState;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.service.RoomService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless capacity test. Starts the application on a random port and drives simulated players over
+ * real STOMP WebSocket sessions, spread evenly over the rooms. Once every player has joined, each room
+ * plays its rounds: every player votes after a random think time, and the room's first player reveals
+ * once all votes are in and then resets the room. For every vote, reveal and reset it measures how long
+ * the message takes from being sent until each subscriber of the room has received it, and how many
+ * messages per second the clients send and receive. With --spectators, that many read-only spectators
+ * watch each room from before the first round, to measure what an audience costs the players.
+ * Not a test; run the main method from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=de.lbarden.planningpoker.loadtest.StompLoadGenerator -Dexec.classpathScope=test -Dexec.args="--clients=2000 --rooms=200"}.
+ * Arguments other than those of {@link Settings} are passed on to the application, e.g.
+ * {@code --planningpoker.broadcast.coalesce-window-ms=50}. The report is printed and written as JSON
+ * to target/load-report.json.
+ */
+public class StompLoadGenerator {
+
+    private static final String[] CARDS = {"0", "1", "2", "3", "5", "8", "13", "20", "40", "100", "?"};
+
+    // Handshakes in progress at once; thousands at the same time only measure the accept backlog
+    private static final int CONNECTS_IN_FLIGHT = 50;
+
+    private final Settings settings;
+    private final List<SimulatedRoom> rooms = new ArrayList<>();
+    private final List<SimulatedClient> clients = new ArrayList<>();
+
+    // Runs think times and sends, so no client sends from the thread delivering its messages
+    private final ScheduledExecutorService script = Executors.newScheduledThreadPool(2);
+
+    private final Latencies voteLatencies = new Latencies();
+    private final Latencies revealLatencies = new Latencies();
+    private final Latencies resetLatencies = new Latencies();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong spectatorMessagesReceived = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger clientsReady = new AtomicInteger();
+    private final CountDownLatch allReady = new CountDownLatch(1);
+    private final CountDownLatch spectatorsReady;
+    private final CountDownLatch roomsDone;
+
+    // spectators is per room
+    public record Settings(int clients, int rooms, int rounds, long thinkTimeMs, long timeoutMs, int spectators) {
+
+        public Settings(int clients, int rooms, int rounds, long thinkTimeMs, long timeoutMs) {
+            this(clients, rooms, rounds, thinkTimeMs, timeoutMs, 0);
+        }
+
+        public static Settings defaults() {
+            return new Settings(2000, 200, 5, 2000, TimeUnit.MINUTES.toMillis(5));
+        }
+
+        // Takes --clients, --rooms, --rounds, --think-ms, --timeout-s and --spectators; everything else is left
+        // for the application
+        public static Settings parse(String[] args, List<String> remaining) {
+            Settings settings = defaults();
+            for (String arg : args) {
+                String[] option = arg.split("=", 2);
+                long value = option.length == 2 && option[1].matches("\\d+") ? Long.parseLong(option[1]) : -1;
+                switch (option[0]) {
+                    case "--clients" -> settings = new Settings((int) value, settings.rooms, settings.rounds,
+                            settings.thinkTimeMs, settings.timeoutMs, settings.spectators);
+                    case "--rooms" -> settings = new Settings(settings.clients, (int) value, settings.rounds,
+                            settings.thinkTimeMs, settings.timeoutMs, settings.spectators);
+                    case "--rounds" -> settings = new Settings(settings.clients, settings.rooms, (int) value,
+                            settings.thinkTimeMs, settings.timeoutMs, settings.spectators);
+                    case "--think-ms" -> settings = new Settings(settings.clients, settings.rooms, settings.rounds,
+                            value, settings.timeoutMs, settings.spectators);
+                    case "--timeout-s" -> settings = new Settings(settings.clients, settings.rooms, settings.rounds,
+                            settings.thinkTimeMs, TimeUnit.SECONDS.toMillis(value), settings.spectators);
+                    case "--spectators" -> settings = new Settings(settings.clients, settings.rooms, settings.rounds,
+                            settings.thinkTimeMs, settings.timeoutMs, (int) value);
+                    default -> {
+                        remaining.add(arg);
+                        continue;
+                    }
+                }
+                if (value < 0) {
+                    throw new IllegalArgumentException("Not a number: " + arg);
+                }
+            }
+            return settings;
+        }
+    }
+
+    // Latencies in milliseconds
+    public record Percentiles(long count, double p50, double p90, double p99, double p999, double max) { }
+
+    public record LoadReport(Settings settings, long joinMillis, long runMillis, int roomsCompleted,
+                             long messagesSent, long messagesReceived, double sentPerSecond, double receivedPerSecond,
+                             long spectatorMessagesReceived, long errors, Percentiles voteLatency,
+                             Percentiles revealLatency, Percentiles resetLatency) {
+
+        public String format() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d clients in %d rooms, %d rounds, think time up to %d ms%n",
+                    settings.clients(), settings.rooms(), settings.rounds(), settings.thinkTimeMs()));
+            report.append(String.format("joined in %d ms, rounds played in %d ms, %d of %d rooms completed, %d errors%n",
+                    joinMillis, runMillis, roomsCompleted, settings.rooms(), errors));
+            report.append(String.format("messages sent %d (%.0f/s), received %d (%.0f/s)%n",
+                    messagesSent, sentPerSecond, messagesReceived, receivedPerSecond));
+            if (settings.spectators() > 0) {
+                report.append(String.format("%d spectators per room received %d messages%n",
+                        settings.spectators(), spectatorMessagesReceived));
+            }
+            report.append(String.format("%-8s %9s %9s %9s %9s %9s %9s%n",
+                    "latency", "samples", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+            appendLine(report, "vote", voteLatency);
+            appendLine(report, "reveal", revealLatency);
+            appendLine(report, "reset", resetLatency);
+            return report.toString();
+        }
+
+        private static void appendLine(StringBuilder report, String name, Percentiles latency) {
+            report.append(String.format("%-8s %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, latency.count(),
+                    latency.p50(), latency.p90(), latency.p99(), latency.p999(), latency.max()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> applicationArgs = new ArrayList<>();
+        Settings settings = Settings.parse(args, applicationArgs);
+        LoadReport report = run(settings, applicationArgs.toArray(new String[0]));
+        System.out.print(report.format());
+        Path file = Path.of("target", "load-report.json");
+        Files.createDirectories(file.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+        System.out.println("Report written to " + file.toAbsolutePath());
+    }
+
+    public static LoadReport run(Settings settings, String... applicationArgs) throws Exception {
+        List<String> args = new ArrayList<>(List.of("--server.port=0",
+                // Every room is created up front and must survive until its last round
+                "--planningpoker.rooms.max-rooms=" + Math.max(1000, settings.rooms())));
+        args.addAll(Arrays.asList(applicationArgs));
+        // Devtools would restart the application by calling the main method of this class again
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        // Command line arguments, because defaults set on the builder lose to application.properties
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(PlanningPokerApplication.class)
+                .run(args.toArray(new String[0]))) {
+            return new StompLoadGenerator(settings).run(context);
+        }
+    }
+
+    private StompLoadGenerator(Settings settings) {
+        this.settings = settings;
+        this.spectatorsReady = new CountDownLatch(settings.rooms() * settings.spectators());
+        this.roomsDone = new CountDownLatch(settings.rooms());
+    }
+
+    private LoadReport run(ConfigurableApplicationContext context) throws Exception {
+        RoomService roomService = context.getBean(RoomService.class);
+        for (int i = 0; i < settings.rooms(); i++) {
+            rooms.add(new SimulatedRoom(roomService.createRoom("Load room " + i).getId()));
+        }
+        for (int i = 0; i < settings.clients(); i++) {
+            SimulatedRoom room = rooms.get(i % rooms.size());
+            SimulatedClient client = new SimulatedClient(room, "load-player-" + i);
+            room.players.add(client);
+            clients.add(client);
+        }
+
+        // SockJS serves plain WebSocket clients at /websocket below its endpoint, without the info request
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        String url = "ws://localhost:" + port + "/ws/websocket";
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        // The clients keep no scheduler, so they must not promise heartbeats
+        stompClient.setDefaultHeartbeat(new long[] {0, 0});
+        stompClient.setInboundMessageSizeLimit(1024 * 1024);
+        // Spectators only count what they receive, so their payloads are handed over undecoded
+        WebSocketStompClient spectatorClient = new WebSocketStompClient(new StandardWebSocketClient());
+        spectatorClient.setMessageConverter(new SimpleMessageConverter());
+        spectatorClient.setDefaultHeartbeat(new long[] {0, 0});
+        spectatorClient.setInboundMessageSizeLimit(1024 * 1024);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.timeoutMs());
+        List<SimulatedSpectator> spectators = new ArrayList<>();
+        try {
+            Semaphore connecting = new Semaphore(CONNECTS_IN_FLIGHT);
+            // The audience is in place before the players join, so every round is played in front of it
+            for (SimulatedRoom room : rooms) {
+                for (int i = 0; i < settings.spectators(); i++) {
+                    SimulatedSpectator spectator = new SimulatedSpectator(room.id);
+                    spectators.add(spectator);
+                    connecting.acquire();
+                    spectatorClient.connectAsync(url, spectator).whenComplete((session, failure) -> {
+                        connecting.release();
+                        if (failure != null) {
+                            errors.incrementAndGet();
+                        }
+                    });
+                }
+            }
+            spectatorsReady.await(remaining(deadline), TimeUnit.NANOSECONDS);
+
+            long joinStart = System.nanoTime();
+            for (SimulatedClient client : clients) {
+                connecting.acquire();
+                stompClient.connectAsync(url, client).whenComplete((session, failure) -> {
+                    connecting.release();
+                    if (failure != null) {
+                        errors.incrementAndGet();
+                    }
+                });
+            }
+            allReady.await(remaining(deadline), TimeUnit.NANOSECONDS);
+            long runStart = System.nanoTime();
+            roomsDone.await(remaining(deadline), TimeUnit.NANOSECONDS);
+            long runEnd = System.nanoTime();
+
+            double seconds = Math.max(1, runEnd - runStart) / 1e9;
+            return new LoadReport(settings, TimeUnit.NANOSECONDS.toMillis(runStart - joinStart),
+                    TimeUnit.NANOSECONDS.toMillis(runEnd - runStart), settings.rooms() - (int) roomsDone.getCount(),
+                    messagesSent.get(), messagesReceived.get(), messagesSent.get() / seconds,
+                    messagesReceived.get() / seconds, spectatorMessagesReceived.get(), errors.get(),
+                    voteLatencies.percentiles(),
+                    revealLatencies.percentiles(), resetLatencies.percentiles());
+        } finally {
+            script.shutdownNow();
+            for (SimulatedClient client : clients) {
+                client.disconnect();
+            }
+            for (SimulatedSpectator spectator : spectators) {
+                spectator.disconnect();
+            }
+            stompClient.stop();
+            spectatorClient.stop();
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    // Called once every client has seen itself in its room; the counters only cover the rounds
+    private void clientReady() {
+        if (clientsReady.incrementAndGet() == settings.clients()) {
+            messagesSent.set(0);
+            messagesReceived.set(0);
+            spectatorMessagesReceived.set(0);
+            allReady.countDown();
+            rooms.forEach(room -> script.execute(room::startRound));
+        }
+    }
+
+    private enum Phase { JOINING, VOTING, REVEALING, RESETTING, DONE }
+
+    private final class SimulatedRoom {
+        final String id;
+        final List<SimulatedClient> players = new ArrayList<>();
+
+        // Send times of the current round, read by every client of the room when the broadcast arrives
+        final Map<String, Long> voteSentAt = new ConcurrentHashMap<>();
+        volatile long revealSentAt;
+        volatile long resetSentAt;
+
+        // Script state, driven by what the room's first player receives
+        private Phase phase = Phase.JOINING;
+        private int round;
+        private final Set<String> voted = new HashSet<>();
+        private int finalResets;
+
+        SimulatedRoom(String id) {
+            this.id = id;
+        }
+
+        SimulatedClient moderator() {
+            return players.get(0);
+        }
+
+        synchronized void startRound() {
+            round++;
+            phase = Phase.VOTING;
+            voted.clear();
+            voteSentAt.clear();
+            for (SimulatedClient player : players) {
+                long thinkTime = settings.thinkTimeMs() > 0 ? ThreadLocalRandom.current().nextLong(settings.thinkTimeMs()) : 0;
+                script.schedule(player::vote, thinkTime, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void voteSeen(String playerId) {
+            if (phase == Phase.VOTING && voted.add(playerId) && voted.size() == players.size()) {
+                phase = Phase.REVEALING;
+                script.execute(() -> {
+                    revealSentAt = System.nanoTime();
+                    moderator().send(MessageType.REVEAL, null);
+                });
+            }
+        }
+
+        synchronized void revealSeen() {
+            if (phase == Phase.REVEALING) {
+                phase = Phase.RESETTING;
+                script.execute(() -> {
+                    resetSentAt = System.nanoTime();
+                    moderator().send(MessageType.RESET, null);
+                });
+            }
+        }
+
+        // The first player starts the next round; after the last round the room is done once every player has
+        // the reset, so the report includes every delivery
+        synchronized void resetSeen(SimulatedClient player, int resets) {
+            if (resets < settings.rounds()) {
+                if (player == moderator() && phase == Phase.RESETTING) {
+                    script.execute(this::startRound);
+                }
+            } else if (++finalResets == players.size()) {
+                phase = Phase.DONE;
+                roomsDone.countDown();
+            }
+        }
+    }
+
+    private final class SimulatedClient extends StompSessionHandlerAdapter {
+        final SimulatedRoom room;
+        final String playerId;
+        volatile StompSession session;
+        private boolean ready;
+
+        // What this session has already measured in the current round; a vote may arrive as a delta
+        // and again in a snapshot
+        private final Set<String> votesMeasured = new HashSet<>();
+        private boolean revealMeasured;
+        private boolean resetMeasured;
+        private int resetsMeasured;
+
+        SimulatedClient(SimulatedRoom room, String playerId) {
+            this.room = room;
+            this.playerId = playerId;
+        }
+
+        @Override
+        public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+            this.session = session;
+            // Receive order is preserved, so the subscription is in place before the join is handled
+            session.subscribe("/topic/room/" + room.id, this);
+            // Resync snapshots, e.g. after the server conflated updates this client fell behind on
+            session.subscribe("/user/queue/room", this);
+            send(MessageType.JOIN, null);
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return PokerMessage.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            messagesReceived.incrementAndGet();
+            long now = System.nanoTime();
+            PokerMessage message = (PokerMessage) payload;
+            switch (message.getType()) {
+                case PLAYER_VOTED -> voteReceived(message.getPlayerId(), now);
+                case CARDS_REVEALED -> revealReceived(now);
+                case ROOM_RESET -> resetReceived(now);
+                case UPDATE -> snapshotReceived(message, now);
+                default -> { }
+            }
+        }
+
+        // Snapshots replace deltas when the broadcaster coalesces them
+        private void snapshotReceived(PokerMessage snapshot, long now) {
+            if (snapshot.getPlayers() == null) {
+                return;
+            }
+            if (!ready && snapshot.getPlayers().stream().anyMatch(player -> playerId.equals(player.id()))) {
+                ready = true;
+                clientReady();
+            }
+            if (snapshot.isReset()) {
+                resetReceived(now);
+            } else if (snapshot.isRevealed()) {
+                revealReceived(now);
+            } else {
+                for (PlayerState player : snapshot.getPlayers()) {
+                    if (!player.card().isEmpty()) {
+                        voteReceived(player.id(), now);
+                    }
+                }
+            }
+        }
+
+        private void voteReceived(String votedId, long now) {
+            Long sentAt = room.voteSentAt.get(votedId);
+            if (sentAt != null && votesMeasured.add(votedId)) {
+                voteLatencies.add(now - sentAt);
+                resetMeasured = false;
+                if (this == room.moderator()) {
+                    room.voteSeen(votedId);
+                }
+            }
+        }
+
+        private void revealReceived(long now) {
+            if (!revealMeasured && room.revealSentAt != 0) {
+                revealMeasured = true;
+                revealLatencies.add(now - room.revealSentAt);
+                if (this == room.moderator()) {
+                    room.revealSeen();
+                }
+            }
+        }
+
+        private void resetReceived(long now) {
+            if (!resetMeasured && room.resetSentAt != 0) {
+                resetMeasured = true;
+                votesMeasured.clear();
+                revealMeasured = false;
+                resetLatencies.add(now - room.resetSentAt);
+                room.resetSeen(this, ++resetsMeasured);
+            }
+        }
+
+        void vote() {
+            String card = CARDS[ThreadLocalRandom.current().nextInt(CARDS.length)];
+            room.voteSentAt.put(playerId, System.nanoTime());
+            send(MessageType.CARD_PLAYED, card);
+        }
+
+        // Sessions are not safe for concurrent sends
+        synchronized void send(MessageType type, String card) {
+            PokerMessage message = new PokerMessage();
+            message.setType(type);
+            message.setRoomId(room.id);
+            message.setPlayerId(playerId);
+            message.setCard(card);
+            if (type == MessageType.JOIN) {
+                message.setPlayerName("Player " + playerId);
+            }
+            messagesSent.incrementAndGet();
+            session.send("/app/room", message);
+        }
+
+        synchronized void disconnect() {
+            StompSession current = session;
+            if (current != null && current.isConnected()) {
+                current.disconnect();
+            }
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                    byte[] payload, Throwable exception) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            errors.incrementAndGet();
+        }
+    }
+
+    // Watches a room: subscribes to the spectator topic and asks for the room's state once, never sends anything else
+    private final class SimulatedSpectator extends StompSessionHandlerAdapter {
+        final String roomId;
+        volatile StompSession session;
+        private boolean ready;
+
+        SimulatedSpectator(String roomId) {
+            this.roomId = roomId;
+        }
+
+        @Override
+        public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+            this.session = session;
+            StompHeaders subscription = new StompHeaders();
+            subscription.setDestination("/topic/spectate/" + roomId);
+            // Same ID for every spectator, as in room.js, so the server encodes one frame for all of them
+            subscription.setId("spectator");
+            session.subscribe(subscription, this);
+            session.subscribe("/user/queue/room", this);
+            StompHeaders sync = new StompHeaders();
+            sync.setDestination("/app/room");
+            sync.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            session.send(sync, ("{\"type\":\"SYNC\",\"roomId\":\"" + roomId + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Only counted: decoding would take CPU from the players sharing the machine
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public synchronized void handleFrame(StompHeaders headers, Object payload) {
+            if (!ready) {
+                ready = true;
+                spectatorsReady.countDown();
+            } else {
+                spectatorMessagesReceived.incrementAndGet();
+            }
+        }
+
+        void disconnect() {
+            StompSession current = session;
+            if (current != null && current.isConnected()) {
+                current.disconnect();
+            }
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                    byte[] payload, Throwable exception) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            errors.incrementAndGet();
+        }
+    }
+
+    // Collects every sample, so the percentiles are exact
+    private static final class Latencies {
+        private long[] samples = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = nanos;
+        }
+
+        synchronized Percentiles percentiles() {
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return new Percentiles(size, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), size == 0 ? 0 : sorted[size - 1] / 1e6);
+        }
+
+        // Nearest rank
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+    }
+}
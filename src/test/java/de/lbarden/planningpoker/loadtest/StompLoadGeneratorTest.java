@@ -0,0 +1,36 @@
+package de.lbarden.planningpoker.loadtest;
+
+import de.lbarden.planningpoker.loadtest.StompLoadGenerator.LoadReport;
+import de.lbarden.planningpoker.loadtest.StompLoadGenerator.Settings;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StompLoadGeneratorTest {
+
+    @Test
+    @DisplayName("A small load run with spectators completes every room and measures every delivery")
+    void testSmallLoadRun() throws Exception {
+        int clients = 40;
+        int rooms = 8;
+        int rounds = 2;
+        int spectators = 3;
+        LoadReport report = StompLoadGenerator.run(
+                new Settings(clients, rooms, rounds, 20, TimeUnit.SECONDS.toMillis(60), spectators));
+
+        assertEquals(rooms, report.roomsCompleted(), report.format());
+        assertEquals(0, report.errors(), report.format());
+        // Every vote reaches every player of its room
+        int playersPerRoom = clients / rooms;
+        assertEquals((long) clients * playersPerRoom * rounds, report.voteLatency().count(), report.format());
+        assertEquals((long) clients * rounds, report.revealLatency().count());
+        assertEquals((long) clients * rounds, report.resetLatency().count());
+        assertTrue(report.voteLatency().p50() <= report.voteLatency().p99());
+        assertTrue(report.receivedPerSecond() > 0);
+        // Spectators see at least the reveal and the reset of every round
+        assertTrue(report.spectatorMessagesReceived() >= (long) rooms * spectators * rounds * 2, report.format());
+    }
+}
@@ -0,0 +1,65 @@
+package de.lbarden.planningpoker.metrics;
+
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.service.RoomService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+public class MetricsEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private RoomService roomService;
+
+    @Autowired
+    private PokerMetrics pokerMetrics;
+
+    @Test
+    @DisplayName("The Prometheus endpoint exposes the room, latency, cache and channel meters")
+    void testPrometheusEndpoint() throws Exception {
+        roomService.createRoom("Metrics Room");
+        pokerMetrics.recordMessage(MessageType.CARD_PLAYED, System.nanoTime());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("poker_rooms ")))
+                .andExpect(content().string(containsString("poker_players ")))
+                .andExpect(content().string(containsString(
+                        "poker_message_latency_seconds_count{type=\"CARD_PLAYED\"}")))
+                .andExpect(content().string(containsString("poker_room_cache_requests_total{result=\"hit\"}")))
+                .andExpect(content().string(containsString("poker_rooms_removed_total{reason=\"expired\"}")))
+                .andExpect(content().string(containsString("poker_channel_queued{channel=\"inbound\"}")));
+    }
+
+    @Test
+    @DisplayName("Eviction counters count every removed room once")
+    void testRoomsRemovedCounter() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        PokerMetrics metrics = new PokerMetrics(registry);
+
+        metrics.roomsExpired(3);
+        metrics.roomsEvictedForCapacity(2);
+        metrics.roomRemovedEmpty();
+
+        assertEquals(3, registry.get("poker.rooms.removed").tag("reason", "expired").counter().count());
+        assertEquals(2, registry.get("poker.rooms.removed").tag("reason", "capacity").counter().count());
+        assertEquals(1, registry.get("poker.rooms.removed").tag("reason", "empty").counter().count());
+    }
+}
@@ -14,7 +14,7 @@ class PlayerTest {
         
         assertEquals("player-1", player.getId());
         assertEquals("Alice", player.getName());
-        assertEquals("", player.getCard());
+        assertEquals(0, player.getSlot());
     }
     
     @Test
@@ -24,7 +24,6 @@ class PlayerTest {
         
         assertNull(player.getId());
         assertNull(player.getName());
-        assertNull(player.getCard());
     }
     
     @Test
@@ -34,11 +33,11 @@ class PlayerTest {
         
         player.setId("player-id");
         player.setName("Bob");
-        player.setCard("8");
+        player.setSlot(3);
         
         assertEquals("player-id", player.getId());
         assertEquals("Bob", player.getName());
-        assertEquals("8", player.getCard());
+        assertEquals(3, player.getSlot());
     }
     
     @Test
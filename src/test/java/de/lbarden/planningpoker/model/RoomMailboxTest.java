@@ -0,0 +1,98 @@
+package de.lbarden.planningpoker.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomMailboxTest {
+
+    private ExecutorService workers;
+
+    @BeforeEach
+    void setUp() {
+        workers = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Tasks of one mailbox run in submission order")
+    void testTasksRunInOrder() throws InterruptedException {
+        RoomMailbox mailbox = new RoomMailbox();
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            final int task = i;
+            mailbox.submit(() -> {
+                executed.add(task);
+                done.countDown();
+            }, workers);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, executed.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Tasks of one mailbox never run concurrently")
+    void testSingleWriter() throws InterruptedException {
+        RoomMailbox mailbox = new RoomMailbox();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        int[] unsynchronizedCounter = new int[1];
+        int producers = 8;
+        int tasksPerProducer = 500;
+        CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+        ExecutorService producerPool = Executors.newFixedThreadPool(producers);
+
+        for (int p = 0; p < producers; p++) {
+            producerPool.submit(() -> {
+                for (int i = 0; i < tasksPerProducer; i++) {
+                    mailbox.submit(() -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        unsynchronizedCounter[0]++;
+                        running.decrementAndGet();
+                        done.countDown();
+                    }, workers);
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        producerPool.shutdown();
+        assertEquals(1, maxRunning.get(), "Only one task may run at a time");
+        assertEquals(producers * tasksPerProducer, unsynchronizedCounter[0]);
+    }
+
+    @Test
+    @DisplayName("A failing task does not stop the mailbox")
+    void testFailingTask() throws InterruptedException {
+        RoomMailbox mailbox = new RoomMailbox();
+        CountDownLatch done = new CountDownLatch(1);
+
+        mailbox.submit(() -> {
+            throw new IllegalStateException("Test exception");
+        }, workers);
+        mailbox.submit(done::countDown, workers);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
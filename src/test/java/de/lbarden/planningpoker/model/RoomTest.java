@@ -222,4 +222,134 @@ class RoomTest {
             throw exception.get();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Votes are stored as deck codes and cards outside the deck are rejected")
+    void testPlayCardUsesDeck() {
+        Room room = new Room("test-id", "Test Room");
+        room.addPlayer("player-1", new Player("player-1", "Alice"));
+
+        assertTrue(room.playCard("player-1", "1/2"));
+        assertEquals("1/2", room.getCard("player-1"));
+        assertEquals(Deck.code("1/2"), room.getVote(room.getPlayers().get("player-1")));
+
+        assertFalse(room.playCard("player-1", "coffee"));
+        assertEquals("1/2", room.getCard("player-1"));
+        assertFalse(room.playCard("nobody", "5"));
+    }
+
+    @Test
+    @DisplayName("Clearing cards removes every vote")
+    void testClearCards() {
+        Room room = new Room("test-id", "Test Room");
+        for (int i = 0; i < 20; i++) {
+            room.addPlayer("player-" + i, new Player("player-" + i, "Player " + i));
+            room.playCard("player-" + i, "8");
+        }
+        assertEquals(20, room.countVotes());
+
+        room.clearCards();
+
+        assertEquals(0, room.countVotes());
+        assertEquals("", room.getCard("player-7"));
+    }
+
+    @Test
+    @DisplayName("A player joining again keeps the slot and loses the vote")
+    void testRejoinKeepsSlot() {
+        Room room = new Room("test-id", "Test Room");
+        room.addPlayer("player-1", new Player("player-1", "Alice"));
+        room.addPlayer("player-2", new Player("player-2", "Bob"));
+        room.playCard("player-2", "3");
+
+        Player rejoined = new Player("player-2", "Bob");
+        room.addPlayer("player-2", rejoined);
+
+        assertEquals(1, rejoined.getSlot());
+        assertEquals("", room.getCard("player-2"));
+        assertEquals(0, room.countVotes());
+    }
+
+    @Test
+    @DisplayName("Slots of players who left are handed out again")
+    void testSlotsAreReused() {
+        Room room = new Room("test-id", "Test Room");
+        room.addPlayer("player-1", new Player("player-1", "Alice"));
+        room.addPlayer("player-2", new Player("player-2", "Bob"));
+        room.playCard("player-2", "8");
+        // Churn: every newcomer takes the slot of the player who just left
+        for (int i = 0; i < 1000; i++) {
+            room.removePlayer("player-2");
+            Player newcomer = new Player("player-2", "Bob " + i);
+            room.addPlayer("player-2", newcomer);
+            assertEquals(1, newcomer.getSlot());
+        }
+
+        assertEquals("", room.getCard("player-2"), "A reused slot starts without a vote");
+        assertEquals(0, room.countVotes());
+        room.addPlayer("player-3", new Player("player-3", "Carol"));
+        assertEquals(2, room.getPlayers().get("player-3").getSlot());
+    }
+
+    @Test
+    @DisplayName("Vote statistics follow every vote change")
+    void testVoteStats() {
+        Room room = new Room("test-id", "Test Room");
+        String[] cards = {"3", "5", "8", "5", "?"};
+        for (int i = 0; i < cards.length; i++) {
+            room.addPlayer("player-" + i, new Player("player-" + i, "Player " + i));
+            room.playCard("player-" + i, cards[i]);
+        }
+        // Changing a vote and leaving must be reflected without recounting
+        room.playCard("player-0", "2");
+        room.addPlayer("player-5", new Player("player-5", "Player 5"));
+
+        // Before the reveal only the progress is visible
+        VoteStats hidden = room.getVoteStats();
+        assertEquals(5, hidden.votes());
+        assertEquals(6, hidden.players());
+        assertFalse(hidden.allVoted());
+        assertNull(hidden.histogram());
+
+        room.setRevealed(true);
+        VoteStats stats = room.getVoteStats();
+        assertEquals(Map.of("2", 1, "5", 2, "8", 1, "?", 1), stats.histogram());
+        assertEquals(5.0, stats.mean());
+        assertEquals(5.0, stats.median());
+        assertEquals(6.0, stats.spread());
+        assertFalse(stats.consensus());
+
+        room.removePlayer("player-1");
+        room.removePlayer("player-2");
+        stats = room.getVoteStats();
+        assertEquals(3, stats.votes());
+        assertEquals(3.5, stats.median());
+        assertEquals(3.5, stats.mean());
+    }
+
+    @Test
+    @DisplayName("Consensus requires identical votes from every player and reset clears the statistics")
+    void testConsensusAndReset() {
+        Room room = new Room("test-id", "Test Room");
+        for (int i = 0; i < 3; i++) {
+            room.addPlayer("player-" + i, new Player("player-" + i, "Player " + i));
+        }
+        room.playCard("player-0", "13");
+        room.setRevealed(true);
+        assertFalse(room.getVoteStats().consensus(), "One vote out of three is no consensus");
+
+        room.playCard("player-1", "13");
+        room.playCard("player-2", "13");
+        VoteStats stats = room.getVoteStats();
+        assertTrue(stats.consensus());
+        assertTrue(stats.allVoted());
+        assertEquals(0.0, stats.spread());
+
+        room.clearCards();
+        stats = room.getVoteStats();
+        assertEquals(0, stats.votes());
+        assertTrue(stats.histogram().isEmpty());
+        assertNull(stats.mean());
+        assertFalse(stats.consensus());
+    }
+}
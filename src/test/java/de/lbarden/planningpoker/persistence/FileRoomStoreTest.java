@@ -0,0 +1,41 @@
+package de.lbarden.planningpoker.persistence;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileRoomStoreTest extends PassivatingRoomStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Override
+    protected PassivatingRoomStore createPassivatingStore() {
+        FileRoomStore store = new FileRoomStore();
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        try {
+            store.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return store;
+    }
+
+    @Test
+    @DisplayName("Chunk files left by a previous run are deleted on startup")
+    void testLeftoverChunksAreDeleted() throws IOException {
+        Path leftover = Files.createFile(directory.resolve("rooms-000042.chunk"));
+
+        createPassivatingStore();
+
+        assertFalse(Files.exists(leftover));
+    }
+}
@@ -0,0 +1,164 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class JournalServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<JournalService> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (JournalService journal : opened) {
+            journal.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Rooms are restored from the journal after a restart")
+    public void testRestoreAfterRestart() throws IOException {
+        JournalService journal = openJournal(16);
+        RoomService roomService = openRoomService(journal);
+        Room room = roomService.createRoom("Sprint 42");
+        roomService.addPlayer(room, new Player("p1", "Alice"));
+        roomService.addPlayer(room, new Player("p2", "Bob"));
+        roomService.addPlayer(room, new Player("p3", "Carol"));
+        roomService.updatePlayerCard(room, "p1", "5");
+        roomService.updatePlayerCard(room, "p2", "8");
+        roomService.removePlayer(room, "p3");
+        roomService.revealCards(room);
+        Room removed = roomService.createRoom("Gone");
+        roomService.addPlayer(removed, new Player("p4", "Dave"));
+        roomService.removePlayer(removed, "p4");
+        journal.close();
+        opened.remove(journal);
+
+        RoomService restored = openRoomService(openJournal(16));
+
+        assertEquals(1, restored.getRooms().size());
+        Room restoredRoom = restored.getRoom(room.getId());
+        assertEquals("Sprint 42", restoredRoom.getName());
+        assertEquals(2, restoredRoom.getPlayers().size());
+        assertEquals("5", restoredRoom.getCard("p1"));
+        assertEquals("8", restoredRoom.getCard("p2"));
+        assertTrue(restoredRoom.isRevealed());
+        assertNull(restored.getRoom(removed.getId()));
+    }
+
+    @Test
+    @DisplayName("Compaction deletes old segments and keeps the room state")
+    public void testCompaction() throws IOException {
+        JournalService journal = openJournal(4);
+        RoomService roomService = openRoomService(journal);
+        Room room = roomService.createRoom("Compacted");
+        roomService.addPlayer(room, new Player("p1", "Alice"));
+        roomService.addPlayer(room, new Player("p2", "Bob"));
+        // Each vote record takes about 60 bytes, so this fills several 4 KB segments
+        String[] cards = {"1", "2", "3", "5", "8", "13"};
+        for (int i = 0; i < 500; i++) {
+            roomService.updatePlayerCard(room, "p1", cards[i % cards.length]);
+            journal.flush();
+        }
+        roomService.resetRoom(room);
+        roomService.startRoom(room);
+        roomService.updatePlayerCard(room, "p2", "13");
+        journal.flush();
+        // The first flush starts the compaction, the State records and the marker are written by the next
+        journal.flush();
+
+        assertTrue(journal.getCompactions() > 0);
+        assertTrue(journal.getSegmentCount() <= 3, "Segments after compaction: " + journal.getSegmentCount());
+        journal.close();
+        opened.remove(journal);
+
+        Room restoredRoom = openRoomService(openJournal(4)).getRoom(room.getId());
+        assertEquals(2, restoredRoom.getPlayers().size());
+        assertEquals("", restoredRoom.getCard("p1"));
+        assertEquals("13", restoredRoom.getCard("p2"));
+        assertFalse(restoredRoom.isRevealed());
+    }
+
+    @Test
+    @DisplayName("Replay stops at a record that was only partly written")
+    public void testTornRecordIsIgnored() throws IOException {
+        JournalService journal = openJournal(16);
+        RoomService roomService = openRoomService(journal);
+        Room room = roomService.createRoom("Torn");
+        roomService.addPlayer(room, new Player("p1", "Alice"));
+        journal.flush();
+        roomService.updatePlayerCard(room, "p1", "3");
+        journal.close();
+        opened.remove(journal);
+
+        // Corrupt the last byte of the vote record, as if the crash hit while it was being written
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long end = 0;
+            int length;
+            while (true) {
+                file.seek(end);
+                if ((length = file.readInt()) == 0) {
+                    break;
+                }
+                end += 8 + length;
+            }
+            file.seek(end - 1);
+            int lastByte = file.readByte();
+            file.seek(end - 1);
+            file.writeByte(lastByte ^ 0xFF);
+        }
+
+        Room restoredRoom = openRoomService(openJournal(16)).getRoom(room.getId());
+        assertTrue(restoredRoom.getPlayers().containsKey("p1"));
+        assertEquals("", restoredRoom.getCard("p1"));
+    }
+
+    // The writer thread never runs during a test, flush() is called explicitly instead
+    private JournalService openJournal(int segmentSizeKb) throws IOException {
+        JournalService journal = new JournalService();
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentSizeKb", segmentSizeKb);
+        ReflectionTestUtils.setField(journal, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(journal, "compactAfterSegments", 2);
+        ReflectionTestUtils.setField(journal, "roomDispatcher", new RoomDispatcher(Runnable::run));
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RoomService openRoomService(JournalService journal) throws IOException {
+        RoomService roomService = new RoomService();
+        ReflectionTestUtils.setField(roomService, "journal", journal);
+        ObjectProvider<RoomService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(roomService);
+        ReflectionTestUtils.setField(journal, "roomService", provider);
+        roomService.restore();
+        return roomService;
+    }
+}
@@ -0,0 +1,9 @@
+package de.lbarden.planningpoker.persistence;
+
+public class OffHeapRoomStoreTest extends PassivatingRoomStoreTest {
+
+    @Override
+    protected PassivatingRoomStore createPassivatingStore() {
+        return new OffHeapRoomStore();
+    }
+}
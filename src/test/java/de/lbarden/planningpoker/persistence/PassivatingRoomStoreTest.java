@@ -0,0 +1,150 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomServiceTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the RoomService contract against a passivating store that keeps only two rooms resident,
+ * so rooms are passivated and activated all the time, plus checks of the passivation itself.
+ */
+public abstract class PassivatingRoomStoreTest extends RoomServiceTest {
+
+    protected abstract PassivatingRoomStore createPassivatingStore();
+
+    @Override
+    protected RoomStore createStore() {
+        PassivatingRoomStore store = createPassivatingStore();
+        ReflectionTestUtils.setField(store, "residentRooms", 2);
+        ReflectionTestUtils.setField(store, "chunkSizeKb", 1);
+        // Sweep and passivation run right away on the calling thread
+        ReflectionTestUtils.setField(store, "passivator", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(store, "roomDispatcher", new RoomDispatcher(Runnable::run));
+        return store;
+    }
+
+    @AfterEach
+    void closeStore() {
+        ((PassivatingRoomStore) store).close();
+    }
+
+    @Test
+    @DisplayName("Idle rooms leave the heap and come back on their next use")
+    void testPassivationAndActivation() {
+        PassivatingRoomStore passivating = (PassivatingRoomStore) store;
+        List<Room> rooms = createRoomsWithPlayers(10);
+
+        Room idle = rooms.get(0);
+        assertTrue(idle.isPassivated());
+        assertTrue(idle.getPlayers().isEmpty());
+        assertTrue(passivating.getResidentCount() <= 3, "Resident rooms: " + passivating.getResidentCount());
+        assertTrue(passivating.getChunkCount() > 0);
+
+        roomService.revealCards(idle);
+
+        assertFalse(idle.isPassivated());
+        assertEquals(2, idle.getPlayers().size());
+        assertEquals("13", idle.getCard("player-2"));
+        assertTrue(passivating.getActivations() > 0);
+    }
+
+    @Test
+    @DisplayName("Chunks are released once the rooms in them are gone")
+    void testChunksAreReleased() {
+        PassivatingRoomStore passivating = (PassivatingRoomStore) store;
+        List<Room> rooms = createRoomsWithPlayers(40);
+        int chunks = passivating.getChunkCount();
+        assertTrue(chunks > 1, "Chunks in use: " + chunks);
+
+        for (Room room : rooms) {
+            roomService.removePlayer(room, "player-1");
+            roomService.removePlayer(room, "player-2");
+        }
+
+        assertEquals(0, store.size());
+        assertEquals(0, passivating.getResidentCount());
+        assertTrue(passivating.getChunkCount() <= 1, "Chunks in use: " + passivating.getChunkCount());
+    }
+
+    @Test
+    @DisplayName("Messages queued behind a passivation run on a room worker")
+    void testPassivationRunsOnRoomWorkers() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the first passivation inside the room's mailbox until a message is queued behind it
+        PassivatingRoomStore blocking = new PassivatingRoomStore() {
+            @Override
+            protected ByteBuffer allocateChunk(int index, int size) throws IOException {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return ByteBuffer.allocate(size);
+            }
+
+            @Override
+            protected void releaseChunk(int index, ByteBuffer buffer) {
+            }
+        };
+        ExecutorService workers = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("test-worker-"));
+        RoomDispatcher dispatcher = new RoomDispatcher(workers);
+        ReflectionTestUtils.setField(dispatcher, "roomStore", blocking);
+        ReflectionTestUtils.setField(blocking, "roomDispatcher", dispatcher);
+        ReflectionTestUtils.setField(blocking, "residentRooms", 1);
+        ExecutorService passivator = (ExecutorService) ReflectionTestUtils.getField(blocking, "passivator");
+        try {
+            Room idle = new Room("idle", "Idle");
+            idle.addPlayer("player-1", new Player("player-1", "Alice"));
+            blocking.put(idle);
+            blocking.put(new Room("second", "Second"));
+            // Waits for the sweep, so the next one finds the other two rooms unused
+            passivator.submit(() -> { }).get(10, TimeUnit.SECONDS);
+            blocking.put(new Room("third", "Third"));
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            CompletableFuture<String> thread = new CompletableFuture<>();
+            dispatcher.dispatch(idle, () -> thread.complete(Thread.currentThread().getName()));
+            release.countDown();
+
+            assertTrue(thread.get(10, TimeUnit.SECONDS).startsWith("test-worker-"), thread.get());
+            assertEquals(1, idle.getPlayers().size());
+        } finally {
+            release.countDown();
+            blocking.close();
+            workers.shutdown();
+        }
+    }
+
+    private List<Room> createRoomsWithPlayers(int count) {
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Room room = roomService.createRoom("Room " + i);
+            roomService.addPlayer(room, new Player("player-1", "Alice"));
+            roomService.addPlayer(room, new Player("player-2", "Bob"));
+            roomService.updatePlayerCard(room, "player-2", "13");
+            rooms.add(room);
+        }
+        return rooms;
+    }
+}
@@ -0,0 +1,91 @@
+package de.lbarden.planningpoker.persistence;
+
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SnapshotServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Rooms are restored from the last snapshot")
+    public void testSnapshotAndRestore() throws Exception {
+        SnapshotService snapshots = newSnapshotService();
+        RoomService roomService = newRoomService(snapshots);
+        Room room = roomService.createRoom("Sprint 42");
+        roomService.addPlayer(room, new Player("p1", "Alice"));
+        roomService.addPlayer(room, new Player("p2", "Bob"));
+        roomService.updatePlayerCard(room, "p1", "?");
+        roomService.revealCards(room);
+        Room empty = roomService.createRoom("Empty");
+
+        assertTrue(snapshots.snapshot());
+        assertEquals(2, snapshots.getLastSnapshot().rooms());
+        assertEquals(Files.size(directory.resolve("rooms.snapshot")), snapshots.getLastSnapshot().bytes());
+        assertFalse(Files.exists(directory.resolve("rooms.snapshot.tmp")));
+
+        SnapshotService restoredSnapshots = newSnapshotService();
+        RoomService restored = newRoomService(restoredSnapshots);
+
+        assertEquals(2, restoredSnapshots.getLastRestore().rooms());
+        Room restoredRoom = restored.getRoom(room.getId());
+        assertEquals("Sprint 42", restoredRoom.getName());
+        assertEquals(room.getVersion(), restoredRoom.getVersion());
+        assertEquals("?", restoredRoom.getCard("p1"));
+        assertEquals("", restoredRoom.getCard("p2"));
+        assertTrue(restoredRoom.isRevealed());
+        assertTrue(restored.getRoom(empty.getId()).getPlayers().isEmpty());
+    }
+
+    @Test
+    @DisplayName("A corrupt snapshot is ignored")
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        SnapshotService snapshots = newSnapshotService();
+        RoomService roomService = newRoomService(snapshots);
+        roomService.createRoom("Sprint 42");
+        snapshots.snapshot();
+
+        Path file = directory.resolve("rooms.snapshot");
+        byte[] data = Files.readAllBytes(file);
+        data[data.length / 2] ^= 0xFF;
+        Files.write(file, data);
+
+        SnapshotService restoredSnapshots = newSnapshotService();
+        RoomService restored = newRoomService(restoredSnapshots);
+        assertTrue(restored.getRooms().isEmpty());
+        assertNull(restoredSnapshots.getLastRestore());
+    }
+
+    private SnapshotService newSnapshotService() {
+        SnapshotService snapshots = new SnapshotService();
+        ReflectionTestUtils.setField(snapshots, "file", directory.resolve("rooms.snapshot").toString());
+        ReflectionTestUtils.setField(snapshots, "roomDispatcher", new RoomDispatcher(Runnable::run));
+        return snapshots;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RoomService newRoomService(SnapshotService snapshots) throws IOException {
+        RoomService roomService = new RoomService();
+        ReflectionTestUtils.setField(roomService, "snapshots", snapshots);
+        ObjectProvider<RoomService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(roomService);
+        ReflectionTestUtils.setField(snapshots, "roomService", provider);
+        roomService.restore();
+        return roomService;
+    }
+}
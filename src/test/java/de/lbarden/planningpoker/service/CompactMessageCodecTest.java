@@ -0,0 +1,112 @@
+package de.lbarden.planningpoker.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.Deck;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PlayerState;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactMessageCodecTest {
+
+    private Room room;
+
+    @BeforeEach
+    void setUp() {
+        room = new Room("room-1", "Test Room");
+        room.addPlayer("player-1", new Player("player-1", "Alice"));
+        room.addPlayer("player-2", new Player("player-2", "Björn"));
+        room.playCard("player-1", "13");
+        room.playCard("player-2", "?");
+        room.setRevealed(true);
+        room.setVersion(300);
+    }
+
+    @Test
+    @DisplayName("Snapshots survive a round trip")
+    void testSnapshotRoundTrip() {
+        Map<Integer, String> slots = new HashMap<>();
+
+        PokerMessage decoded = CompactMessageCodec.decode(CompactMessageCodec.encodeSnapshot(room), slots);
+
+        assertEquals(MessageType.UPDATE, decoded.getType());
+        assertEquals(300, decoded.getVersion());
+        assertTrue(decoded.isRevealed());
+        assertFalse(decoded.isReset());
+        assertEquals(room.getPlayerStates(), List.copyOf(decoded.getPlayers()));
+        assertEquals(Map.of(0, "player-1", 1, "player-2"), slots);
+    }
+
+    @Test
+    @DisplayName("Votes are hidden in snapshots before the reveal")
+    void testSnapshotHidesVotesBeforeReveal() {
+        room.setRevealed(false);
+        room.playCard("player-2", "");
+
+        PokerMessage decoded = CompactMessageCodec.decode(CompactMessageCodec.encodeSnapshot(room), new HashMap<>());
+
+        assertEquals(room.getPlayerStates().stream().map(PlayerState::hidden).toList(), List.copyOf(decoded.getPlayers()));
+        assertTrue(decoded.getPlayers().contains(new PlayerState("player-1", "Alice", Deck.HIDDEN)));
+    }
+
+    @Test
+    @DisplayName("Vote deltas refer to players by slot")
+    void testVoteDeltaUsesSlot() {
+        Map<Integer, String> slots = new HashMap<>();
+        CompactMessageCodec.decode(CompactMessageCodec.encodeSnapshot(room), slots);
+
+        PokerMessage vote = new PokerMessage();
+        vote.setType(MessageType.PLAYER_VOTED);
+        vote.setVersion(301);
+        vote.setPlayerId("player-2");
+        vote.setCard("5");
+        byte[] encoded = CompactMessageCodec.encodeDelta(room, vote);
+
+        // type, version (2 bytes), slot, card
+        assertEquals(5, encoded.length);
+        PokerMessage decoded = CompactMessageCodec.decode(encoded, slots);
+        assertEquals(MessageType.PLAYER_VOTED, decoded.getType());
+        assertEquals(301, decoded.getVersion());
+        assertEquals("player-2", decoded.getPlayerId());
+        assertEquals("5", decoded.getCard());
+    }
+
+    @Test
+    @DisplayName("Players without a slot are sent by ID")
+    void testLeftPlayerIsSentById() {
+        room.removePlayer("player-1");
+
+        PokerMessage left = new PokerMessage();
+        left.setType(MessageType.PLAYER_LEFT);
+        left.setVersion(301);
+        left.setPlayerId("player-1");
+
+        PokerMessage decoded = CompactMessageCodec.decode(CompactMessageCodec.encodeDelta(room, left), new HashMap<>());
+        assertEquals(MessageType.PLAYER_LEFT, decoded.getType());
+        assertEquals("player-1", decoded.getPlayerId());
+    }
+
+    @Test
+    @DisplayName("Compact snapshots are smaller than JSON")
+    void testSmallerThanJson() throws Exception {
+        PokerMessage json = new PokerMessage();
+        json.setType(MessageType.UPDATE);
+        json.setRoomId(room.getId());
+        json.setVersion(room.getVersion());
+        json.setPlayers(room.getPlayerStates());
+        json.setRevealed(true);
+
+        int jsonSize = new ObjectMapper().writeValueAsBytes(json).length;
+        assertTrue(CompactMessageCodec.encodeSnapshot(room).length * 2 < jsonSize);
+    }
+}
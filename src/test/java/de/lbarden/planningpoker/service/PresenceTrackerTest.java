@@ -0,0 +1,183 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.Room;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PresenceTrackerTest {
+
+    private PresenceTracker presenceTracker;
+    private RoomService roomService;
+    private RoomBroadcaster roomBroadcaster;
+    private TaskScheduler taskScheduler;
+    private Room room;
+
+    @BeforeEach
+    void setUp() {
+        roomService = new RoomService();
+        roomBroadcaster = mock(RoomBroadcaster.class);
+        taskScheduler = mock(TaskScheduler.class);
+        presenceTracker = new PresenceTracker();
+        ReflectionTestUtils.setField(presenceTracker, "roomService", roomService);
+        ReflectionTestUtils.setField(presenceTracker, "roomBroadcaster", roomBroadcaster);
+        ReflectionTestUtils.setField(presenceTracker, "taskScheduler", taskScheduler);
+        // Runs mailbox tasks on the calling thread so the assertions see their effects
+        ReflectionTestUtils.setField(presenceTracker, "roomDispatcher", new RoomDispatcher(Runnable::run));
+
+        room = roomService.createRoom("Presence Room");
+        roomService.addPlayer(room, new Player("stays", "Stays"));
+    }
+
+    private void join(String playerId, String sessionId) {
+        if (!presenceTracker.join(room, playerId, sessionId)) {
+            roomService.addPlayer(room, new Player(playerId, playerId));
+        }
+    }
+
+    // Runs the removal the tracker scheduled for the end of the grace period
+    private void endGracePeriod() {
+        ArgumentCaptor<Runnable> removal = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskScheduler).schedule(removal.capture(), any(Instant.class));
+        removal.getValue().run();
+    }
+
+    @Test
+    @DisplayName("A player whose session ends without LEAVE is removed after the grace period")
+    void testGhostRemovedAfterGracePeriod() {
+        join("ghost", "session1");
+
+        presenceTracker.sessionEnded("session1");
+        assertTrue(room.getPlayers().containsKey("ghost"), "Still there during the grace period");
+
+        endGracePeriod();
+        assertFalse(room.getPlayers().containsKey("ghost"));
+        verify(roomBroadcaster).broadcastDelta(eq(room), any(PokerMessage.class), eq(MessageType.PLAYER_LEFT));
+        assertEquals(1, presenceTracker.getPlayersRemoved());
+        assertEquals(0, presenceTracker.getSessionCount());
+        assertEquals(0, presenceTracker.getPlayerCount());
+    }
+
+    @Test
+    @DisplayName("A player reconnecting within the grace period keeps their place and card")
+    void testReconnectWithinGracePeriod() {
+        join("player1", "session1");
+        roomService.updatePlayerCard(room, "player1", "5");
+        presenceTracker.sessionEnded("session1");
+
+        assertTrue(presenceTracker.join(room, "player1", "session2"), "Should be recognised as a reconnect");
+        endGracePeriod();
+
+        assertTrue(room.getPlayers().containsKey("player1"));
+        assertEquals("5", room.getCard("player1"));
+        assertEquals(1, presenceTracker.getReconnects());
+        assertEquals(0, presenceTracker.getPlayersRemoved());
+        verifyNoInteractions(roomBroadcaster);
+    }
+
+    @Test
+    @DisplayName("A second tab joining as a connected player is not a reconnect")
+    void testSecondSessionIsNoReconnect() {
+        join("player1", "session1");
+
+        assertFalse(presenceTracker.join(room, "player1", "session2"));
+
+        // The first tab closing does not remove the player the second tab now holds
+        presenceTracker.sessionEnded("session1");
+        endGracePeriod();
+        assertTrue(room.getPlayers().containsKey("player1"));
+    }
+
+    @Test
+    @DisplayName("LEAVE removes the session's entries, so its disconnect changes nothing")
+    void testLeaveBeforeDisconnect() {
+        join("player1", "session1");
+
+        presenceTracker.leave(room, "player1", "session1");
+        roomService.removePlayer(room, "player1");
+        presenceTracker.sessionEnded("session1");
+
+        verifyNoInteractions(taskScheduler);
+        assertEquals(0, presenceTracker.getDisconnects());
+        assertEquals(0, presenceTracker.getSessionCount());
+        assertEquals(0, presenceTracker.getPlayerCount());
+    }
+
+    @Test
+    @DisplayName("All players a session joined are removed when it ends")
+    void testSessionWithSeveralPlayers() {
+        join("player1", "session1");
+        join("simulated", "session1");
+
+        presenceTracker.sessionEnded("session1");
+        endGracePeriod();
+
+        assertEquals(1, room.getPlayers().size());
+        assertEquals(2, presenceTracker.getPlayersRemoved());
+    }
+
+    @Test
+    @DisplayName("The last ghost leaving removes the room")
+    void testLastGhostRemovesRoom() {
+        join("stays", "session0");
+        presenceTracker.sessionEnded("session0");
+        endGracePeriod();
+
+        assertTrue(room.isClosed());
+        assertNull(roomService.getRoom(room.getId()));
+    }
+
+    @Test
+    @DisplayName("A JOIN processed after its session ended still removes the player after the grace period")
+    void testDisconnectBeforeQueuedJoin() {
+        // The socket drops while the JOIN waits in the room's mailbox
+        presenceTracker.sessionEnded("session1");
+        join("late", "session1");
+
+        assertEquals(0, presenceTracker.getSessionCount());
+        assertEquals(1, presenceTracker.getDisconnects());
+        assertTrue(room.getPlayers().containsKey("late"), "Still there during the grace period");
+
+        endGracePeriod();
+        assertFalse(room.getPlayers().containsKey("late"));
+        assertEquals(1, presenceTracker.getPlayersRemoved());
+        assertEquals(0, presenceTracker.getPlayerCount());
+    }
+
+    @Test
+    @DisplayName("Memory stays bounded while clients churn")
+    void testChurnLeavesNothingBehind() {
+        ReflectionTestUtils.setField(presenceTracker, "gracePeriodMs", 0L);
+        for (int i = 0; i < 10_000; i++) {
+            join("player" + i, "session" + i);
+            presenceTracker.sessionEnded("session" + i);
+        }
+
+        assertEquals(0, presenceTracker.getSessionCount());
+        assertEquals(0, presenceTracker.getPlayerCount());
+        assertEquals(10_000, presenceTracker.getPlayersRemoved());
+        assertEquals(1, room.getPlayers().size());
+
+        // Ended sessions are forgotten with the next disconnect after a minute
+        ReflectionTestUtils.setField(presenceTracker, "clock",
+                Clock.offset(Clock.systemUTC(), Duration.ofMinutes(2)));
+        presenceTracker.sessionEnded("last");
+        assertEquals(1, ((Map<?, ?>) ReflectionTestUtils.getField(presenceTracker, "endedSessions")).size());
+    }
+}
@@ -0,0 +1,74 @@
+package de.lbarden.planningpoker.service;
+
+import de.lbarden.planningpoker.model.Room;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomActivityIndexTest {
+
+    @Test
+    @DisplayName("Only rooms inactive since the cutoff are removed, oldest first")
+    void testRemoveInactiveSince() {
+        RoomActivityIndex index = new RoomActivityIndex();
+        Room oldest = new Room("room-1", "Room 1");
+        Room older = new Room("room-2", "Room 2");
+        Room recent = new Room("room-3", "Room 3");
+        index.add(oldest, 1000);
+        index.add(older, 2000);
+        index.add(recent, 3000);
+
+        List<Room> expired = index.removeInactiveSince(2500);
+
+        assertEquals(List.of(oldest, older), expired);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Touching a room moves it behind all other rooms")
+    void testTouchReordersRooms() {
+        RoomActivityIndex index = new RoomActivityIndex();
+        Room first = new Room("room-1", "Room 1");
+        Room second = new Room("room-2", "Room 2");
+        index.add(first, 1000);
+        index.add(second, 2000);
+
+        index.touch(first, 3000);
+
+        assertEquals(3000, first.getLastActivity());
+        assertEquals(List.of(second), index.removeInactiveSince(2500));
+    }
+
+    @Test
+    @DisplayName("Touching a removed room does not add it back")
+    void testTouchRemovedRoom() {
+        RoomActivityIndex index = new RoomActivityIndex();
+        Room room = new Room("room-1", "Room 1");
+        index.add(room, 1000);
+        index.remove(room.getId());
+
+        index.touch(room, 2000);
+
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    @DisplayName("Capacity eviction takes the least recently active rooms")
+    void testRemoveLeastRecentlyActive() {
+        RoomActivityIndex index = new RoomActivityIndex();
+        Room first = new Room("room-1", "Room 1");
+        Room second = new Room("room-2", "Room 2");
+        Room third = new Room("room-3", "Room 3");
+        index.add(first, 1000);
+        index.add(second, 2000);
+        index.add(third, 3000);
+        index.touch(first, 4000);
+
+        assertEquals(List.of(second, third), index.removeLeastRecentlyActive(2));
+        assertEquals(List.of(first), index.removeLeastRecentlyActive(5));
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,197 @@
+package de.lbarden.planningpoker.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.lbarden.planningpoker.model.Player;
+import de.lbarden.planningpoker.model.PokerMessage;
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.model.Room;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RoomBroadcasterTest {
+
+    private SimpMessagingTemplate messagingTemplate;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private RoomBroadcaster roomBroadcaster;
+    private Room room;
+
+    @BeforeEach
+    void setUp() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+
+        roomBroadcaster = new RoomBroadcaster();
+        ReflectionTestUtils.setField(roomBroadcaster, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(roomBroadcaster, "taskScheduler", taskScheduler);
+        ReflectionTestUtils.setField(roomBroadcaster, "roomDispatcher", new RoomDispatcher(Runnable::run));
+
+        room = new Room("room-1", "Test Room");
+        for (int i = 0; i < 10; i++) {
+            room.addPlayer("player-" + i, new Player("player-" + i, "Player " + i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        taskScheduler.shutdown();
+    }
+
+    @Test
+    @DisplayName("Without a window every delta is sent immediately")
+    void testNoCoalescingByDefault() {
+        for (int i = 0; i < 5; i++) {
+            roomBroadcaster.broadcastDelta(room, vote("player-" + i), MessageType.PLAYER_VOTED);
+        }
+
+        verify(messagingTemplate, times(5)).convertAndSend(eq("/topic/room/room-1"), any(PokerMessage.class));
+        assertEquals(5, roomBroadcaster.getBroadcastsSent());
+        assertEquals(0, roomBroadcaster.getMessagesCoalesced());
+    }
+
+    @Test
+    @DisplayName("A burst of votes inside the window collapses into one snapshot")
+    void testVoteBurstIsCoalesced() throws Exception {
+        ReflectionTestUtils.setField(roomBroadcaster, "coalesceWindowMs", 50L);
+
+        for (int i = 0; i < 10; i++) {
+            room.incrementVersion();
+            roomBroadcaster.broadcastDelta(room, vote("player-" + i), MessageType.PLAYER_VOTED);
+        }
+
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, timeout(1000)).send(eq("/topic/room/room-1"), captor.capture());
+
+        PokerMessage snapshot = decode(captor.getValue());
+        assertEquals(MessageType.UPDATE, snapshot.getType());
+        assertEquals(room.getVersion(), snapshot.getVersion());
+        assertEquals(10, snapshot.getPlayers().size());
+        assertEquals(1, roomBroadcaster.getBroadcastsSent());
+        assertEquals(9, roomBroadcaster.getMessagesCoalesced());
+    }
+
+    @Test
+    @DisplayName("A single delta in the window is sent as is")
+    void testSingleDeltaIsNotTurnedIntoSnapshot() {
+        ReflectionTestUtils.setField(roomBroadcaster, "coalesceWindowMs", 20L);
+
+        roomBroadcaster.broadcastDelta(room, vote("player-1"), MessageType.PLAYER_VOTED);
+
+        ArgumentCaptor<PokerMessage> captor = ArgumentCaptor.forClass(PokerMessage.class);
+        verify(messagingTemplate, timeout(1000)).convertAndSend(eq("/topic/room/room-1"), captor.capture());
+        assertEquals(MessageType.PLAYER_VOTED, captor.getValue().getType());
+        assertEquals(0, roomBroadcaster.getMessagesCoalesced());
+    }
+
+    @Test
+    @DisplayName("Reveal flushes pending votes immediately")
+    void testRevealFlushesImmediately() throws Exception {
+        ReflectionTestUtils.setField(roomBroadcaster, "coalesceWindowMs", 60_000L);
+
+        roomBroadcaster.broadcastDelta(room, vote("player-1"), MessageType.PLAYER_VOTED);
+        roomBroadcaster.broadcastDelta(room, vote("player-2"), MessageType.PLAYER_VOTED);
+        verify(messagingTemplate, never()).convertAndSend(eq("/topic/room/room-1"), any(PokerMessage.class));
+
+        PokerMessage reveal = new PokerMessage();
+        reveal.setRoomId("room-1");
+        roomBroadcaster.broadcastDelta(room, reveal, MessageType.CARDS_REVEALED);
+
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq("/topic/room/room-1"), captor.capture());
+        verify(messagingTemplate, never()).convertAndSend(eq("/topic/room/room-1"), any(PokerMessage.class));
+        List<Message<?>> sent = captor.getAllValues();
+        assertEquals(1, sent.size());
+        assertEquals(MessageType.UPDATE, decode(sent.get(0)).getType());
+        assertEquals(2, roomBroadcaster.getMessagesCoalesced());
+    }
+
+    @Test
+    @DisplayName("Reveal without pending votes is sent as a delta")
+    void testRevealWithoutPendingVotes() {
+        ReflectionTestUtils.setField(roomBroadcaster, "coalesceWindowMs", 60_000L);
+
+        PokerMessage reset = new PokerMessage();
+        reset.setRoomId("room-1");
+        roomBroadcaster.broadcastDelta(room, reset, MessageType.ROOM_RESET);
+
+        ArgumentCaptor<PokerMessage> captor = ArgumentCaptor.forClass(PokerMessage.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/room/room-1"), captor.capture());
+        assertEquals(MessageType.ROOM_RESET, captor.getValue().getType());
+    }
+
+    @Test
+    @DisplayName("A snapshot is encoded once per version and shared by all sends")
+    void testSnapshotIsEncodedOncePerVersion() {
+        when(messagingTemplate.getUserDestinationPrefix()).thenReturn("/user/");
+
+        roomBroadcaster.broadcastSnapshot(room);
+        roomBroadcaster.broadcastSnapshot(room);
+        roomBroadcaster.sendSnapshotToSession(room, "session-1");
+        roomBroadcaster.sendSnapshotToSession(room, "session-2");
+
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(4)).send(anyString(), captor.capture());
+        byte[] payload = (byte[]) captor.getAllValues().get(0).getPayload();
+        captor.getAllValues().forEach(message -> assertSame(payload, message.getPayload()));
+        assertEquals(1, roomBroadcaster.getSnapshotsEncoded());
+
+        // A mutation bumps the version and invalidates the cached snapshot
+        room.incrementVersion();
+        roomBroadcaster.broadcastSnapshot(room);
+        assertEquals(2, roomBroadcaster.getSnapshotsEncoded());
+    }
+
+    @Test
+    @DisplayName("The compact payload is attached only while compact sessions are connected")
+    void testCompactPayloadAttachedForCompactSessions() {
+        WireFormatNegotiator negotiator = new WireFormatNegotiator();
+        ReflectionTestUtils.setField(roomBroadcaster, "wireFormatNegotiator", negotiator);
+
+        roomBroadcaster.broadcastSnapshot(room);
+
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId("compact-session");
+        connect.setNativeHeader(WireFormatNegotiator.ACCEPT_HEADER, CompactMessageCodec.MIME_TYPE.toString());
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()), null);
+
+        roomBroadcaster.broadcastSnapshot(room);
+
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(2)).send(eq("/topic/room/room-1"), captor.capture());
+        assertNull(captor.getAllValues().get(0).getHeaders().get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER));
+        byte[] compact = (byte[]) captor.getAllValues().get(1).getHeaders().get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER);
+        PokerMessage decoded = CompactMessageCodec.decode(Base64.getDecoder().decode(compact), new HashMap<>());
+        assertEquals(10, decoded.getPlayers().size());
+    }
+
+    private PokerMessage decode(Message<?> message) throws Exception {
+        return new ObjectMapper().readValue((byte[]) message.getPayload(), PokerMessage.class);
+    }
+
+    private PokerMessage vote(String playerId) {
+        PokerMessage message = new PokerMessage();
+        message.setRoomId("room-1");
+        message.setPlayerId(playerId);
+        message.setCard("5");
+        return message;
+    }
+}
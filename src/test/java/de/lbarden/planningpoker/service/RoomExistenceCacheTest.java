@@ -0,0 +1,75 @@
+package de.lbarden.planningpoker.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomExistenceCacheTest {
+
+    private RoomExistenceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new RoomExistenceCache();
+        setClock(Instant.parse("2025-01-01T00:00:00Z"));
+    }
+
+    private void setClock(Instant instant) {
+        ReflectionTestUtils.setField(cache, "clock", Clock.fixed(instant, ZoneOffset.UTC));
+    }
+
+    @Test
+    @DisplayName("Cache size stays bounded under requests for random room IDs")
+    void testSizeIsBounded() {
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("random-" + i, false);
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(9_900, cache.getEvictions());
+        // The most recent entries survive
+        assertEquals(Boolean.FALSE, cache.get("random-9999"));
+        assertNull(cache.get("random-0"));
+    }
+
+    @Test
+    @DisplayName("Negative entries expire before positive entries")
+    void testSeparateTtls() {
+        cache.put("existing", true);
+        cache.put("missing", false);
+
+        setClock(Instant.parse("2025-01-01T00:01:00Z"));
+        assertEquals(Boolean.TRUE, cache.get("existing"));
+        assertNull(cache.get("missing"));
+
+        setClock(Instant.parse("2025-01-01T00:10:00Z"));
+        assertNull(cache.get("existing"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Hits, misses and evictions are counted")
+    void testStatistics() {
+        cache.put("room", true);
+
+        cache.get("room");
+        cache.get("room");
+        cache.get("unknown");
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        setClock(Instant.parse("2025-01-01T01:00:00Z"));
+        assertEquals(1, cache.removeExpired());
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -2,35 +2,44 @@ package de.lbarden.planningpoker.service;
 
 import de.lbarden.planningpoker.model.Player;
 import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.model.VoteStats;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
-import org.mockito.Spy;
-import org.mockito.junit.jupiter.MockitoExtension;
+import de.lbarden.planningpoker.persistence.HeapRoomStore;
+import de.lbarden.planningpoker.persistence.RoomStore;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
-@ExtendWith(MockitoExtension.class)
+/**
+ * Contract of RoomService, which every RoomStore must pass: subclasses run it against the other stores.
+ */
 public class RoomServiceTest {
 
-    @InjectMocks
-    private RoomService roomService;
+    protected RoomService roomService;
 
-    @Spy
-    private Map<String, Room> roomsMap = new ConcurrentHashMap<>();
+    protected RoomStore store;
+
+    protected RoomStore createStore() {
+        return new HeapRoomStore();
+    }
 
     @BeforeEach
     void setUp() {
-        // Inject the spy map into the roomService using reflection
-        ReflectionTestUtils.setField(roomService, "rooms", roomsMap);
+        roomService = new RoomService();
+        // Inject a spy of the store into the roomService using reflection
+        store = spy(createStore());
+        ReflectionTestUtils.setField(roomService, "rooms", store);
     }
 
     @Test
@@ -61,7 +70,7 @@ public class RoomServiceTest {
         roomService.addPlayer(room.getId(), player);
         roomService.updatePlayerCard(room.getId(), "player-1", "5");
         Room fetchedRoom = roomService.getRoom(room.getId());
-        assertEquals("5", fetchedRoom.getPlayers().get("player-1").getCard());
+        assertEquals("5", fetchedRoom.getCard("player-1"));
     }
 
     @Test
@@ -86,7 +95,27 @@ public class RoomServiceTest {
         roomService.resetRoom(room.getId());
         Room fetchedRoom = roomService.getRoom(room.getId());
         assertFalse(fetchedRoom.isRevealed());
-        assertEquals("", fetchedRoom.getPlayers().get("player-1").getCard());
+        assertEquals("", fetchedRoom.getCard("player-1"));
+    }
+
+    @Test
+    @DisplayName("Every mutation bumps the room state version")
+    public void testMutationsIncrementVersion() {
+        Room room = roomService.createRoom("Test Room");
+        long initialVersion = room.getVersion();
+
+        roomService.addPlayer(room.getId(), new Player("player-1", "Alice"));
+        roomService.addPlayer(room.getId(), new Player("player-2", "Bob"));
+        roomService.updatePlayerCard(room.getId(), "player-1", "5");
+        roomService.revealCards(room.getId());
+        roomService.resetRoom(room.getId());
+        roomService.removePlayer(room.getId(), "player-2");
+
+        assertEquals(initialVersion + 6, room.getVersion());
+
+        // startRoom only clears the one-shot reset flag and is not a visible state change
+        roomService.startRoom(room.getId());
+        assertEquals(initialVersion + 6, room.getVersion());
     }
 
     @Test
@@ -127,77 +156,194 @@ public class RoomServiceTest {
     }
     
     @Test
-    @DisplayName("Room cache is used for frequently accessed rooms")
-    void testRoomCache() {
-        // Create a room and access it to cache it
+    @DisplayName("Get Room returns the registered room for each ID")
+    void testGetRoomAcrossRooms() {
+        Room first = roomService.createRoom("First Room");
+        Room second = roomService.createRoom("Second Room");
+
+        // Alternating lookups must never return a mismatched room
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, roomService.getRoom(first.getId()));
+            assertSame(second, roomService.getRoom(second.getId()));
+        }
+        verify(store, times(10)).get(first.getId());
+    }
+
+    @Test
+    @DisplayName("Removed rooms are marked closed")
+    void testRemovedRoomIsClosed() {
         Room room = roomService.createRoom("Test Room");
-        String roomId = room.getId();
-        
-        // Get the room to cache it
-        Room cachedRoom = roomService.getRoom(roomId);
-        assertNotNull(cachedRoom);
-        
-        // Verify that the same instance is returned from cache
-        assertSame(room, cachedRoom, "The same room instance should be returned from cache");
-        
-        // Spy the rooms map to verify it's not accessed when using cache
-        verify(roomsMap, times(0)).get(roomId);
+        roomService.addPlayer(room.getId(), new Player("player-1", "Alice"));
+        assertFalse(room.isClosed());
+
+        roomService.removePlayer(room.getId(), "player-1");
+
+        assertTrue(room.isClosed());
     }
     
     @Test
     @DisplayName("Remove Stale Rooms removes inactive rooms")
     void testRemoveStaleRooms() {
-        // Create a room and set its last activity 61 minutes ago
-        Room staleRoom = new Room("stale-room", "Stale Room");
-        long staleThreshold = TimeUnit.MINUTES.toMillis(60);
-        staleRoom.setLastActivity(System.currentTimeMillis() - (staleThreshold + 1000)); // 61 minutes ago
-        
-        // Add room directly to the map
-        roomsMap.put(staleRoom.getId(), staleRoom);
-        
-        // Create a fresh room
+        Instant start = Instant.now();
+        setClock(start);
+
+        // Create a room that will be inactive for 61 minutes
+        Room staleRoom = roomService.createRoom("Stale Room");
+
+        // Create a fresh room 30 minutes later
+        setClock(start.plus(Duration.ofMinutes(30)));
         Room freshRoom = roomService.createRoom("Fresh Room");
         
         // Verify both rooms exist
-        assertEquals(2, roomsMap.size());
+        assertEquals(2, store.size());
         
-        // Run the cleanup
-        roomService.removeStaleRooms();
+        // Run the cleanup 61 minutes after the stale room was last active
+        setClock(start.plus(Duration.ofMinutes(61)));
         
         // Verify only the fresh room exists
-        assertEquals(1, roomsMap.size());
+        assertEquals(1, store.size());
         assertNull(roomService.getRoom(staleRoom.getId()), "Stale room should be removed");
         assertNotNull(roomService.getRoom(freshRoom.getId()), "Fresh room should remain");
     }
+
+    @Test
+    @DisplayName("Activity in a room keeps it from going stale")
+    void testActivityKeepsRoomAlive() {
+        Instant start = Instant.now();
+        setClock(start);
+        Room room = roomService.createRoom("Busy Room");
+        roomService.addPlayer(room.getId(), new Player("player-1", "Alice"));
+
+        setClock(start.plus(Duration.ofMinutes(50)));
+        roomService.updatePlayerCard(room.getId(), "player-1", "5");
+
+        setClock(start.plus(Duration.ofMinutes(100)));
+        assertNotNull(roomService.getRoom(room.getId()), "Room active 50 minutes ago should remain");
+
+        setClock(start.plus(Duration.ofMinutes(111)));
+        assertNull(store.get(room.getId()), "Room inactive for 61 minutes should be removed");
+    }
+
+    @Test
+    @DisplayName("Stale threshold is configurable")
+    void testConfigurableStaleThreshold() {
+        ReflectionTestUtils.setField(roomService, "staleThresholdMinutes", 5L);
+        Instant start = Instant.now();
+        setClock(start);
+        Room room = roomService.createRoom("Short Lived Room");
+
+        setClock(start.plus(Duration.ofMinutes(4)));
+        assertNotNull(store.get(room.getId()));
+
+        setClock(start.plus(Duration.ofMinutes(6)));
+        assertNull(store.get(room.getId()));
+    }
     
     @Test
     @DisplayName("Remove Oldest Rooms when capacity limit is reached")
     void testRemoveOldestRooms() throws Exception {
-        // Create MAX_ROOMS + 1 rooms with increasing last activity times
-        int maxRooms = (int) ReflectionTestUtils.getField(roomService, "MAX_ROOMS");
-        
-        // Mock a smaller MAX_ROOMS for testing
-        ReflectionTestUtils.setField(roomService, "MAX_ROOMS", 10);
+        // Use a smaller room limit for testing
+        ReflectionTestUtils.setField(roomService, "maxRooms", 10);
+        Instant start = Instant.now();
         
         // Create 11 rooms with increasing activity times
+        List<String> roomIds = new ArrayList<>();
         for (int i = 0; i < 11; i++) {
-            Room room = roomService.createRoom("Room " + i);
-            room.setLastActivity(System.currentTimeMillis() + (i * 1000)); // Each room is newer
-            Thread.sleep(10); // Ensure different timestamps
+            setClock(start.plusSeconds(i)); // Each room is newer
+            roomIds.add(roomService.createRoom("Room " + i).getId());
         }
         
         // Trying to create one more room should trigger cleanup
         Room newRoom = roomService.createRoom("New Room");
         
         // We should have max 10 rooms, and the oldest should be removed
-        assertTrue(roomsMap.size() <= 10, "Room count should be at most 10");
+        assertTrue(store.size() <= 10, "Room count should be at most 10");
         assertNotNull(roomService.getRoom(newRoom.getId()), "Newest room should exist");
-        assertNull(roomService.getRoom("Room 0"), "Oldest room should be removed");
-        
-        // Reset MAX_ROOMS
-        ReflectionTestUtils.setField(roomService, "MAX_ROOMS", maxRooms);
+        assertNull(roomService.getRoom(roomIds.get(0)), "Oldest room should be removed");
+        assertNull(roomService.getRoom(roomIds.get(1)), "Second oldest room should be removed");
+        assertNotNull(roomService.getRoom(roomIds.get(2)), "Only as many rooms as needed should be removed");
+    }
+
+    @Test
+    @DisplayName("Capacity eviction removes the least recently active room, not the oldest one")
+    void testCapacityEvictionIsLeastRecentlyActive() {
+        ReflectionTestUtils.setField(roomService, "maxRooms", 3);
+        Instant start = Instant.now();
+        setClock(start);
+        Room first = roomService.createRoom("Room 1");
+        Room second = roomService.createRoom("Room 2");
+        Room third = roomService.createRoom("Room 3");
+
+        // Activity in the first room makes the second one the least recently active
+        setClock(start.plusSeconds(5));
+        roomService.addPlayer(first.getId(), new Player("player-1", "Alice"));
+
+        Room fourth = roomService.createRoom("Room 4");
+
+        assertEquals(3, store.size());
+        assertNotNull(store.get(first.getId()));
+        assertNull(store.get(second.getId()));
+        assertNotNull(store.get(third.getId()));
+        assertNotNull(store.get(fourth.getId()));
     }
     
+    @Test
+    @DisplayName("Rooms keep players, votes and slots while many rooms are in use")
+    void testRoomStateSurvivesManyRooms() {
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Room room = roomService.createRoom("Room " + i);
+            roomService.addPlayer(room, new Player("player-1", "Alice"));
+            roomService.addPlayer(room, new Player("player-2", "Bob"));
+            roomService.addPlayer(room, new Player("player-3", "Carol " + i));
+            roomService.updatePlayerCard(room, "player-1", "5");
+            roomService.updatePlayerCard(room, "player-3", "?");
+            if (i % 2 == 0) {
+                roomService.revealCards(room);
+            }
+            rooms.add(room);
+        }
+
+        for (int i = 0; i < rooms.size(); i++) {
+            Room room = rooms.get(i);
+            assertTrue(roomService.updatePlayerCard(room, "player-2", "8"));
+            assertSame(room, roomService.getRoom(room.getId()));
+            assertEquals("5", room.getCard("player-1"));
+            assertEquals("8", room.getCard("player-2"));
+            assertEquals("?", room.getCard("player-3"));
+            assertEquals("Carol " + i, room.getPlayers().get("player-3").getName());
+            assertEquals(2, room.getPlayers().get("player-3").getSlot());
+            assertEquals(3, room.countVotes());
+            assertEquals(i % 2 == 0, room.isRevealed());
+        }
+        assertEquals(20, store.size());
+    }
+
+    @Test
+    @DisplayName("Vote statistics of a room survive while many rooms are in use")
+    void testVoteStatsSurviveManyRooms() {
+        Room room = roomService.createRoom("Stats Room");
+        roomService.addPlayer(room, new Player("player-1", "Alice"));
+        roomService.addPlayer(room, new Player("player-2", "Bob"));
+        roomService.addPlayer(room, new Player("player-3", "Carol"));
+        roomService.updatePlayerCard(room, "player-1", "5");
+        roomService.updatePlayerCard(room, "player-2", "8");
+        roomService.revealCards(room);
+        // Enough other rooms to push the first one off the heap in passivating stores
+        for (int i = 0; i < 10; i++) {
+            Room other = roomService.createRoom("Room " + i);
+            roomService.addPlayer(other, new Player("player-1", "Alice"));
+        }
+
+        VoteStats stats = roomService.getVoteStats(room);
+
+        assertEquals(2, stats.votes());
+        assertEquals(3, stats.players());
+        assertEquals(Map.of("5", 1, "8", 1), stats.histogram());
+        assertEquals(6.5, stats.mean());
+        assertFalse(stats.consensus());
+    }
+
     @Test
     @DisplayName("Get Room handles null roomId gracefully")
     void testGetRoom_WithNullId() {
@@ -219,6 +365,12 @@ public class RoomServiceTest {
         roomService.removePlayer(nonexistentId, "player-1");
         
         // Verify no rooms were created
-        assertTrue(roomsMap.isEmpty(), "No rooms should be created");
+        assertEquals(0, store.size(), "No rooms should be created");
+    }
+
+    // Moves the service clock and runs the expiry job, which is what advances the room clock
+    private void setClock(Instant instant) {
+        ReflectionTestUtils.setField(roomService, "clock", Clock.fixed(instant, ZoneOffset.UTC));
+        roomService.removeStaleRooms();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package de.lbarden.planningpoker.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireFormatNegotiatorTest {
+
+    private final WireFormatNegotiator negotiator = new WireFormatNegotiator();
+
+    @Test
+    @DisplayName("Sessions stay on JSON unless they accept the compact format")
+    void testJsonIsDefault() {
+        connect("json-session", null);
+
+        Message<?> sent = negotiator.preSend(outbound("json-session"), null);
+
+        assertFalse(negotiator.isCompactInUse());
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, sent.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertArrayEquals("{}".getBytes(), (byte[]) sent.getPayload());
+    }
+
+    @Test
+    @DisplayName("Compact sessions receive the compact payload until they disconnect")
+    void testCompactSession() {
+        connect("compact-session", CompactMessageCodec.MIME_TYPE.toString());
+        assertTrue(negotiator.isCompactInUse());
+
+        Message<?> sent = negotiator.preSend(outbound("compact-session"), null);
+        assertEquals(CompactMessageCodec.MIME_TYPE, sent.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) sent.getPayload());
+        assertNull(sent.getHeaders().get(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER));
+
+        SimpMessageHeaderAccessor disconnect = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        disconnect.setSessionId("compact-session");
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()), null);
+        assertFalse(negotiator.isCompactInUse());
+    }
+
+    private void connect(String sessionId, String accept) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.CONNECT);
+        headers.setSessionId(sessionId);
+        if (accept != null) {
+            headers.setNativeHeader(WireFormatNegotiator.ACCEPT_HEADER, accept);
+        }
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), null);
+    }
+
+    private Message<byte[]> outbound(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headers.setHeader(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER, new byte[] {1, 2, 3});
+        return MessageBuilder.createMessage("{}".getBytes(), headers.getMessageHeaders());
+    }
+}
@@ -0,0 +1,218 @@
+package de.lbarden.planningpoker.websocket;
+
+import de.lbarden.planningpoker.model.PokerMessage.MessageType;
+import de.lbarden.planningpoker.websocket.InboundRateLimiter.Scope;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class InboundRateLimiterTest {
+
+    private InboundRateLimiter limiter;
+    private MessageChannel channel;
+    private final AtomicLong now = new AtomicLong();
+
+    @BeforeEach
+    void setUp() {
+        limiter = new InboundRateLimiter();
+        ReflectionTestUtils.setField(limiter, "sessionLimits", "CARD_PLAYED:1/2,REVEAL:1/1");
+        ReflectionTestUtils.setField(limiter, "roomLimits", "CARD_PLAYED:10/3");
+        ReflectionTestUtils.setField(limiter, "nanoClock", (LongSupplier) now::get);
+        limiter.init();
+        channel = mock(MessageChannel.class);
+    }
+
+    private Message<?> send(String sessionId, MessageType type, String roomId, String card) {
+        return send(sessionId, sessionId, type, roomId, card);
+    }
+
+    private Message<?> send(String sessionId, String playerId, MessageType type, String roomId, String card) {
+        String json = "{\"type\":\"" + type + "\",\"roomId\":\"" + roomId + "\",\"playerId\":\"" + playerId
+                + "\"" + (card != null ? ",\"card\":\"" + card + "\"" : "") + "}";
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(InboundRateLimiter.ROOM_DESTINATION);
+        return limiter.preSend(MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8),
+                accessor.getMessageHeaders()), channel);
+    }
+
+    private void advanceSeconds(long seconds) {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    @Test
+    @DisplayName("Messages over the session limit are dropped and counted")
+    void testSessionLimit() {
+        assertNotNull(send("s1", MessageType.REVEAL, "r1", null));
+        assertNull(send("s1", MessageType.REVEAL, "r1", null));
+        // Another session has its own bucket, and unlimited types always pass
+        assertNotNull(send("s2", MessageType.REVEAL, "r1", null));
+        assertNotNull(send("s1", MessageType.RESET, "r1", null));
+        assertEquals(1, limiter.getRejected(Scope.SESSION, MessageType.REVEAL));
+
+        advanceSeconds(1);
+        assertNotNull(send("s1", MessageType.REVEAL, "r1", null));
+        verifyNoInteractions(channel);
+    }
+
+    @Test
+    @DisplayName("Votes over the limit are merged into the latest and released once tokens are back")
+    void testVotesMergedAndReleased() {
+        assertNotNull(send("s1", MessageType.CARD_PLAYED, "r1", "1"));
+        assertNotNull(send("s1", MessageType.CARD_PLAYED, "r1", "2"));
+        assertNull(send("s1", MessageType.CARD_PLAYED, "r1", "3"));
+        assertNull(send("s1", MessageType.CARD_PLAYED, "r1", "5"));
+        assertEquals(1, limiter.getHeldMessages());
+        assertEquals(1, limiter.getMessagesMerged());
+
+        limiter.releaseHeldMessages();
+        verifyNoInteractions(channel);
+
+        advanceSeconds(1);
+        // A vote arriving while one is held queues behind it, even though a token is available
+        assertNull(send("s1", MessageType.CARD_PLAYED, "r1", "8"));
+        limiter.releaseHeldMessages();
+
+        ArgumentCaptor<Message<?>> released = ArgumentCaptor.forClass(Message.class);
+        verify(channel).send(released.capture());
+        assertTrue(new String((byte[]) released.getValue().getPayload(), StandardCharsets.UTF_8).contains("\"8\""));
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(released.getValue().getHeaders()));
+        // The released message passes the limiter without taking another token
+        assertSame(released.getValue(), limiter.preSend(released.getValue(), channel));
+        assertEquals(0, limiter.getHeldMessages());
+        assertEquals(2, limiter.getMessagesMerged());
+    }
+
+    @Test
+    @DisplayName("The room limit applies across the sessions of a room")
+    void testRoomLimit() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(send("s" + i, MessageType.CARD_PLAYED, "busy", "1"));
+        }
+        assertNull(send("s3", MessageType.CARD_PLAYED, "busy", "1"));
+        assertNotNull(send("s4", MessageType.CARD_PLAYED, "quiet", "1"));
+        assertEquals(1, limiter.getRejected(Scope.ROOM, MessageType.CARD_PLAYED));
+        assertEquals(0, limiter.getRejected(Scope.SESSION, MessageType.CARD_PLAYED));
+    }
+
+    @Test
+    @DisplayName("A disconnect forgets the session's buckets and held messages")
+    void testDisconnectCleansUp() {
+        send("s1", MessageType.CARD_PLAYED, "r1", "1");
+        send("s1", MessageType.CARD_PLAYED, "r1", "2");
+        send("s1", MessageType.CARD_PLAYED, "r1", "3");
+        assertEquals(1, limiter.getHeldMessages());
+
+        SimpMessageHeaderAccessor disconnect = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        disconnect.setSessionId("s1");
+        limiter.preSend(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()), channel);
+        assertEquals(0, limiter.getHeldMessages());
+
+        advanceSeconds(60);
+        limiter.pruneRoomBuckets();
+        limiter.releaseHeldMessages();
+        verifyNoInteractions(channel);
+    }
+
+    @Test
+    @DisplayName("JOIN and SYNC over the limit are held per player and released in the order they arrived")
+    void testJoinAndSyncHeld() {
+        ReflectionTestUtils.setField(limiter, "sessionLimits", "JOIN:1/1,SYNC:1/1");
+        limiter.init();
+        // One session playing several players, as simulatePlayers does
+        assertNotNull(send("s1", "p1", MessageType.JOIN, "r1", null));
+        assertNull(send("s1", "p2", MessageType.JOIN, "r1", null));
+        assertNull(send("s1", "p3", MessageType.JOIN, "r1", null));
+        assertNull(send("s1", "p1", MessageType.SYNC, "r1", null));
+        assertNull(send("s1", "p1", MessageType.SYNC, "r1", null));
+        // The vote has tokens, but waits for the JOINs that arrived before it
+        assertNull(send("s1", "p3", MessageType.CARD_PLAYED, "r1", "5"));
+        assertEquals(4, limiter.getHeldMessages());
+        assertEquals(1, limiter.getMessagesMerged());
+
+        ArgumentCaptor<Message<?>> released = ArgumentCaptor.forClass(Message.class);
+        for (int i = 0; i < 3; i++) {
+            advanceSeconds(1);
+            limiter.releaseHeldMessages();
+        }
+        verify(channel, times(4)).send(released.capture());
+        assertEquals(List.of("JOIN p2", "JOIN p3", "SYNC p1", "CARD_PLAYED p3"), released.getAllValues().stream()
+                .map(message -> InboundRateLimiter.targetOf((byte[]) message.getPayload()))
+                .map(target -> target.type() + " " + target.playerId())
+                .toList());
+        assertEquals(0, limiter.getHeldMessages());
+        assertEquals(0, limiter.getRejected(Scope.SESSION, MessageType.CARD_PLAYED));
+    }
+
+    @Test
+    @DisplayName("LEAVE clears the player's held messages and a session holds a bounded number")
+    void testHeldMessagesCleared() {
+        ReflectionTestUtils.setField(limiter, "sessionLimits", "JOIN:1/1");
+        limiter.init();
+        send("s1", "p1", MessageType.JOIN, "r1", null);
+        assertNull(send("s1", "p2", MessageType.JOIN, "r1", null));
+        assertNull(send("s1", "p3", MessageType.JOIN, "r1", null));
+        assertNotNull(send("s1", "p2", MessageType.LEAVE, "r1", null));
+        assertEquals(1, limiter.getHeldMessages());
+
+        for (int i = 0; i < InboundRateLimiter.MAX_HELD_PER_SESSION + 10; i++) {
+            send("s1", "sim-" + i, MessageType.JOIN, "r1", null);
+        }
+        assertEquals(InboundRateLimiter.MAX_HELD_PER_SESSION, limiter.getHeldMessages());
+    }
+
+    @Test
+    @DisplayName("The default limits let 50 players join and vote in the same second, and hold the JOINs beyond")
+    void testDefaultLimitsAdmitFullRoom() {
+        limiter = new InboundRateLimiter();
+        ReflectionTestUtils.setField(limiter, "nanoClock", (LongSupplier) now::get);
+        limiter.init();
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(send("s" + i, MessageType.JOIN, "r1", null));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(send("s" + i, MessageType.CARD_PLAYED, "r1", "5"));
+        }
+        assertNotNull(send("s0", MessageType.REVEAL, "r1", null));
+
+        // A mass rejoin past the room's burst fills up at the room's JOIN rate of 20/s
+        for (int i = 50; i < 100; i++) {
+            assertNull(send("s" + i, MessageType.JOIN, "r1", null));
+        }
+        assertEquals(50, limiter.getHeldMessages());
+        for (int i = 0; i < 30; i++) {
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+            limiter.releaseHeldMessages();
+        }
+        verify(channel, times(50)).send(any());
+        assertEquals(0, limiter.getHeldMessages());
+    }
+
+    @Test
+    @DisplayName("Limits are parsed as TYPE:perSecond/burst and invalid ones fail at startup")
+    void testParseLimits() {
+        var limits = InboundRateLimiter.parseLimits("JOIN:0.5/2, SYNC:3/4");
+        assertEquals(new InboundRateLimiter.Limit(0.5, 2), limits.get(MessageType.JOIN));
+        assertEquals(new InboundRateLimiter.Limit(3, 4), limits.get(MessageType.SYNC));
+        assertTrue(InboundRateLimiter.parseLimits("").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> InboundRateLimiter.parseLimits("JOIN:5"));
+        assertThrows(IllegalArgumentException.class, () -> InboundRateLimiter.parseLimits("JOIN:0/5"));
+        assertThrows(IllegalArgumentException.class, () -> InboundRateLimiter.parseLimits("JUMP:1/5"));
+    }
+}
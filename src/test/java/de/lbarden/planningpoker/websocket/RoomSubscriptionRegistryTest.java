@@ -0,0 +1,106 @@
+package de.lbarden.planningpoker.websocket;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomSubscriptionRegistryTest {
+
+    private RoomSubscriptionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new RoomSubscriptionRegistry();
+    }
+
+    private static Message<byte[]> message(SimpMessageType type, String sessionId, String subscriptionId,
+                                           String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        registry.registerSubscription(message(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination));
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        registry.unregisterSubscription(message(SimpMessageType.UNSUBSCRIBE, sessionId, subscriptionId, null));
+    }
+
+    private MultiValueMap<String, String> find(String destination) {
+        return registry.findSubscriptions(message(SimpMessageType.MESSAGE, null, null, destination));
+    }
+
+    @Test
+    @DisplayName("A room broadcast finds exactly the sessions subscribed to that room")
+    void testFindsRoomSubscribers() {
+        subscribe("s1", "sub-0", "/topic/room/r1");
+        subscribe("s2", "sub-0", "/topic/room/r1");
+        subscribe("s3", "sub-0", "/topic/room/r2");
+
+        MultiValueMap<String, String> subscribers = find("/topic/room/r1");
+        assertEquals(2, subscribers.size());
+        assertEquals(List.of("sub-0"), subscribers.get("s1"));
+        assertEquals(List.of("sub-0"), subscribers.get("s2"));
+        assertTrue(find("/topic/room/missing").isEmpty());
+        // Repeated lookups share the room's map instead of building one per broadcast
+        assertSame(subscribers, find("/topic/room/r1"));
+    }
+
+    @Test
+    @DisplayName("Unsubscribe and disconnect remove the session and the rooms left without subscribers")
+    void testCleansUpOnUnsubscribeAndDisconnect() {
+        subscribe("s1", "sub-0", "/topic/room/r1");
+        subscribe("s1", "sub-1", "/topic/room/r2");
+        subscribe("s2", "sub-0", "/topic/room/r1");
+
+        unsubscribe("s1", "sub-0");
+        assertEquals(1, registry.getSubscriberCount("r1"));
+        assertFalse(find("/topic/room/r1").containsKey("s1"));
+
+        registry.unregisterAllSubscriptions("s1");
+        assertEquals(0, registry.getSubscriberCount("r2"));
+        assertEquals(1, registry.getRoomCount());
+
+        registry.unregisterAllSubscriptions("s2");
+        assertEquals(0, registry.getRoomCount());
+    }
+
+    @Test
+    @DisplayName("Other destinations use the default registry, and patterns never match room topics")
+    void testOtherDestinationsAndPatterns() {
+        subscribe("s1", "sub-0", "/user/queue/room");
+        subscribe("s1", "sub-1", "/queue/room-users1");
+        subscribe("s2", "sub-0", "/topic/room/*");
+
+        assertEquals(List.of("sub-1"), find("/queue/room-users1").get("s1"));
+        assertTrue(find("/topic/room/r1").isEmpty());
+        assertEquals(0, registry.getRoomCount());
+
+        registry.unregisterAllSubscriptions("s1");
+        assertTrue(find("/queue/room-users1").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Only exact room topics are indexed by room")
+    void testRoomIdOf() {
+        assertEquals("abc", RoomSubscriptionRegistry.roomIdOf("/topic/room/abc"));
+        assertNull(RoomSubscriptionRegistry.roomIdOf("/topic/room/"));
+        assertNull(RoomSubscriptionRegistry.roomIdOf("/topic/room/**"));
+        assertNull(RoomSubscriptionRegistry.roomIdOf("/topic/room/abc/extra"));
+        assertNull(RoomSubscriptionRegistry.roomIdOf("/queue/room"));
+    }
+}
@@ -0,0 +1,220 @@
+package de.lbarden.planningpoker.websocket;
+
+import de.lbarden.planningpoker.model.Room;
+import de.lbarden.planningpoker.service.RoomBroadcaster;
+import de.lbarden.planningpoker.service.RoomDispatcher;
+import de.lbarden.planningpoker.service.RoomService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SlowConsumerPolicyTest {
+
+    private static final int CONFLATE_AFTER = 4;
+
+    private SlowConsumerPolicy policy;
+    private RoomBroadcaster roomBroadcaster;
+    private Room room;
+    // Holds every write to the slow session until released
+    private final CountDownLatch slowClientReads = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        room = new Room("room1", "Slow Room");
+        RoomService roomService = mock(RoomService.class);
+        when(roomService.getRoom("room1")).thenReturn(room);
+        roomBroadcaster = mock(RoomBroadcaster.class);
+
+        policy = new SlowConsumerPolicy();
+        ReflectionTestUtils.setField(policy, "conflateAfter", CONFLATE_AFTER);
+        ReflectionTestUtils.setField(policy, "writerThreads", 4);
+        ReflectionTestUtils.setField(policy, "roomService", provider(roomService));
+        ReflectionTestUtils.setField(policy, "roomBroadcaster", provider(roomBroadcaster));
+        ReflectionTestUtils.setField(policy, "roomDispatcher", provider(new RoomDispatcher(Runnable::run)));
+        ReflectionTestUtils.setField(policy, "clusterEventBus", provider(null));
+        policy.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowClientReads.countDown();
+        policy.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> provider(T bean) {
+        ObjectProvider<T> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(bean);
+        when(provider.getObject()).thenReturn(bean);
+        return provider;
+    }
+
+    // Connects a session through the decorator factory and returns the session the STOMP handler sends to
+    private WebSocketSession connect(WebSocketSession session) throws Exception {
+        WebSocketHandler stompHandler = mock(WebSocketHandler.class);
+        policy.decorate(stompHandler).afterConnectionEstablished(session);
+        ArgumentCaptor<WebSocketSession> decorated = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(stompHandler).afterConnectionEstablished(decorated.capture());
+        return decorated.getValue();
+    }
+
+    private WebSocketSession slowSession(List<String> received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("slow");
+        doAnswer(invocation -> {
+            slowClientReads.await();
+            received.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static TextMessage frame(String destination, String body) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\ncontent-type:application/json\n"
+                + "subscription:sub-0\nmessage-id:1\n\n" + body + "\u0000");
+    }
+
+    private static TextMessage update(int version) {
+        return frame("/topic/room/room1", "{\"type\":\"PLAYER_VOTED\",\"version\":" + version + "}");
+    }
+
+    @Test
+    @DisplayName("One slow subscriber does not delay delivery to the rest of the room")
+    void testSlowSubscriberDoesNotDelayOthers() throws Exception {
+        int updates = 200;
+        AtomicInteger roomVersion = new AtomicInteger();
+        Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+        // Resyncs arrive as snapshots of the current version, as RoomBroadcaster sends them
+        doAnswer(invocation -> {
+            String sessionId = invocation.getArgument(1);
+            sessions.get(sessionId).sendMessage(frame("/user/queue/room",
+                    "{\"type\":\"UPDATE\",\"version\":" + roomVersion.get() + "}"));
+            return null;
+        }).when(roomBroadcaster).sendSnapshotToSession(any(Room.class), anyString());
+
+        List<String> slowReceived = new CopyOnWriteArrayList<>();
+        sessions.put("slow", connect(slowSession(slowReceived)));
+        Map<String, AtomicInteger> fastVersions = new ConcurrentHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            String sessionId = "fast" + i;
+            AtomicInteger version = new AtomicInteger();
+            fastVersions.put(sessionId, version);
+            WebSocketSession session = mock(WebSocketSession.class);
+            when(session.getId()).thenReturn(sessionId);
+            doAnswer(invocation -> {
+                String payload = ((TextMessage) invocation.getArgument(0)).getPayload();
+                version.set(Integer.parseInt(payload.replaceAll("(?s).*\"version\":(\\d+).*", "$1")));
+                return null;
+            }).when(session).sendMessage(any());
+            sessions.put(sessionId, connect(session));
+        }
+
+        // The outbound channel hands every broadcast to every subscriber in turn
+        for (int version = 1; version <= updates; version++) {
+            roomVersion.set(version);
+            WebSocketMessage<?> message = update(version);
+            sessions.get("slow").sendMessage(message);
+            for (String sessionId : fastVersions.keySet()) {
+                sessions.get(sessionId).sendMessage(message);
+            }
+        }
+
+        // Every fast subscriber reaches the latest state while the slow one is still stuck in its first write
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (fastVersions.values().stream().anyMatch(version -> version.get() < updates)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        fastVersions.forEach((sessionId, version) -> assertEquals(updates, version.get(), sessionId));
+        assertTrue(slowReceived.isEmpty());
+        // The slow session keeps a resync instead of its backlog
+        assertTrue(policy.getPendingFrames() <= CONFLATE_AFTER + 1, "Pending: " + policy.getPendingFrames());
+        assertTrue(policy.getFramesConflated() >= updates - CONFLATE_AFTER - 1);
+
+        // Once the client reads again, it gets a fresh snapshot instead of the updates it missed
+        slowClientReads.countDown();
+        verify(roomBroadcaster, timeout(5000)).sendSnapshotToSession(room, "slow");
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!slowReceived.stream().anyMatch(frame -> frame.contains("\"version\":" + updates))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(slowReceived.get(slowReceived.size() - 1).contains("\"type\":\"UPDATE\",\"version\":" + updates));
+        assertTrue(slowReceived.size() <= CONFLATE_AFTER + 2, "Received: " + slowReceived.size());
+    }
+
+    @Test
+    @DisplayName("A resync snapshot replaces the updates waiting for the session")
+    void testSnapshotReplacesPendingUpdates() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        WebSocketSession slow = connect(slowSession(received));
+
+        slow.sendMessage(update(1));
+        // Give the writer time to pick up the first update, which blocks
+        Thread.sleep(100);
+        slow.sendMessage(update(2));
+        slow.sendMessage(update(3));
+        slow.sendMessage(frame("/user/queue/room", "{\"type\":\"UPDATE\",\"version\":3}"));
+        assertEquals(1, policy.getPendingFrames());
+        assertEquals(2, policy.getFramesConflated());
+
+        slowClientReads.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).contains("\"version\":1"));
+        assertTrue(received.get(1).contains("\"type\":\"UPDATE\""));
+        assertEquals(0, policy.getResyncsRequested());
+    }
+
+    @Test
+    @DisplayName("A session stuck in a write beyond the send time limit is closed")
+    void testStuckSessionIsClosed() throws Exception {
+        ReflectionTestUtils.setField(policy, "sendTimeLimitMs", 50L);
+        WebSocketSession raw = slowSession(new CopyOnWriteArrayList<>());
+        WebSocketSession slow = connect(raw);
+
+        slow.sendMessage(update(1));
+        Thread.sleep(200);
+        policy.closeStuckSessions();
+
+        verify(raw).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, policy.getSlowConsumersDisconnected());
+        // Frames for a closed session are dropped
+        slow.sendMessage(update(2));
+        assertEquals(0, policy.getPendingFrames());
+    }
+
+    @Test
+    @DisplayName("Only MESSAGE frames have a destination")
+    void testDestinationOf() {
+        assertEquals("/topic/room/room1",
+                ConflatingSessionDecorator.Frame.destinationOf(update(1).getPayload()));
+        assertNull(ConflatingSessionDecorator.Frame.destinationOf("CONNECTED\nversion:1.2\n\n\u0000"));
+        assertNull(ConflatingSessionDecorator.Frame.destinationOf("\n"));
+    }
+}
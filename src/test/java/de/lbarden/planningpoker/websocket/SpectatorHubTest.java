@@ -0,0 +1,155 @@
+package de.lbarden.planningpoker.websocket;
+
+import de.lbarden.planningpoker.service.CompactMessageCodec;
+import de.lbarden.planningpoker.service.WireFormatNegotiator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpectatorHubTest {
+
+    private SpectatorHub hub;
+    private WireFormatNegotiator negotiator;
+    private MessageChannel channel;
+    private final Map<String, WebSocketSession> sessions = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        SlowConsumerPolicy policy = mock(SlowConsumerPolicy.class);
+        when(policy.getSession(anyString())).thenAnswer(invocation ->
+                sessions.computeIfAbsent(invocation.getArgument(0), id -> mock(WebSocketSession.class)));
+        negotiator = new WireFormatNegotiator();
+        hub = new SpectatorHub();
+        ReflectionTestUtils.setField(hub, "slowConsumerPolicy", policy);
+        ReflectionTestUtils.setField(hub, "wireFormatNegotiator", negotiator);
+        ReflectionTestUtils.setField(hub, "maxPerRoom", 2);
+        ReflectionTestUtils.setField(hub, "maxTotal", 3);
+        // Without start() there are no fan-out threads, so broadcasts fan out on the calling thread
+        channel = mock(MessageChannel.class);
+    }
+
+    private Message<?> stomp(SimpMessageType type, String sessionId, String destination, String subscriptionId,
+                             String payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private Message<?> spectate(String sessionId, String roomId) {
+        return hub.preSend(stomp(SimpMessageType.SUBSCRIBE, sessionId, SpectatorHub.SPECTATE_TOPIC + roomId,
+                "spectator", ""), channel);
+    }
+
+    private void broadcast(String roomId, String json, byte[] compact) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/topic/room/" + roomId);
+        if (compact != null) {
+            accessor.setHeader(WireFormatNegotiator.COMPACT_PAYLOAD_HEADER, compact);
+        }
+        hub.afterSendCompletion(MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8),
+                accessor.getMessageHeaders()), channel, true, null);
+    }
+
+    private TextMessage sentTo(String sessionId) throws Exception {
+        ArgumentCaptor<TextMessage> frame = ArgumentCaptor.forClass(TextMessage.class);
+        verify(sessions.get(sessionId)).sendMessage(frame.capture());
+        return frame.getValue();
+    }
+
+    @Test
+    @DisplayName("Spectators of a room share one encoded frame per wire format")
+    void testSharedFrame() throws Exception {
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId("s3");
+        connect.setNativeHeader(WireFormatNegotiator.ACCEPT_HEADER, CompactMessageCodec.MIME_TYPE.toString());
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()), channel);
+
+        // Kept away from the broker, while player subscriptions pass
+        assertNull(spectate("s1", "r1"));
+        assertNull(spectate("s2", "r1"));
+        Message<?> player = stomp(SimpMessageType.SUBSCRIBE, "p1", "/topic/room/r1", "sub-0", "");
+        assertSame(player, hub.preSend(player, channel));
+        ReflectionTestUtils.setField(hub, "maxPerRoom", 3);
+        assertNull(spectate("s3", "r1"));
+        assertEquals(3, hub.getSpectatorCount("r1"));
+
+        broadcast("r1", "{\"type\":\"UPDATE\"}", new byte[] {'A', 'Q', '=', '='});
+        broadcast("other", "{\"type\":\"UPDATE\"}", null);
+
+        TextMessage frame = sentTo("s1");
+        assertSame(frame, sentTo("s2"));
+        assertTrue(frame.getPayload().startsWith("MESSAGE\n"));
+        assertTrue(frame.getPayload().contains("destination:/topic/room/r1\n"));
+        assertTrue(frame.getPayload().contains("subscription:spectator\n"));
+        assertTrue(frame.getPayload().contains("{\"type\":\"UPDATE\"}"));
+        TextMessage compactFrame = sentTo("s3");
+        assertTrue(compactFrame.getPayload().contains("content-type:" + CompactMessageCodec.MIME_TYPE));
+        assertTrue(compactFrame.getPayload().contains("AQ=="));
+        assertEquals(2, hub.getFramesEncoded());
+        assertEquals(3, hub.getFramesQueued());
+    }
+
+    @Test
+    @DisplayName("Sessions beyond the room or total limit are closed")
+    void testLimits() throws Exception {
+        spectate("s1", "r1");
+        spectate("s2", "r1");
+        spectate("s3", "r1");
+        spectate("s4", "r2");
+        spectate("s5", "r3");
+
+        verify(sessions.get("s3")).close(CloseStatus.SERVICE_OVERLOAD);
+        verify(sessions.get("s5")).close(CloseStatus.SERVICE_OVERLOAD);
+        verify(sessions.get("s1"), never()).close(any());
+        assertEquals(2, hub.getRejected());
+        assertEquals(3, hub.getSpectatorCount());
+
+        SimpMessageHeaderAccessor disconnect = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        disconnect.setSessionId("s1");
+        hub.preSend(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()), channel);
+        spectate("s6", "r1");
+        assertEquals(2, hub.getSpectatorCount("r1"));
+        assertEquals(2, hub.getRejected());
+    }
+
+    @Test
+    @DisplayName("Spectators can only ask for the room's state")
+    void testReadOnly() {
+        spectate("s1", "r1");
+        String vote = "{\"type\":\"CARD_PLAYED\",\"roomId\":\"r1\",\"playerId\":\"x\",\"card\":\"5\"}";
+        String sync = "{\"type\":\"SYNC\",\"roomId\":\"r1\"}";
+
+        assertNull(hub.preSend(stomp(SimpMessageType.MESSAGE, "s1", InboundRateLimiter.ROOM_DESTINATION, null, vote), channel));
+        assertNotNull(hub.preSend(stomp(SimpMessageType.MESSAGE, "s1", InboundRateLimiter.ROOM_DESTINATION, null, sync), channel));
+        assertNotNull(hub.preSend(stomp(SimpMessageType.MESSAGE, "p1", InboundRateLimiter.ROOM_DESTINATION, null, vote), channel));
+
+        // Unsubscribing from something else keeps the session a spectator
+        Message<?> other = stomp(SimpMessageType.UNSUBSCRIBE, "s1", null, "sub-1", "");
+        assertSame(other, hub.preSend(other, channel));
+        assertEquals(1, hub.getSpectatorCount());
+        assertNull(hub.preSend(stomp(SimpMessageType.UNSUBSCRIBE, "s1", null, "spectator", ""), channel));
+        assertEquals(0, hub.getSpectatorCount());
+        assertNotNull(hub.preSend(stomp(SimpMessageType.MESSAGE, "s1", InboundRateLimiter.ROOM_DESTINATION, null, vote), channel));
+    }
+}